@@ -0,0 +1,339 @@
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Authenticates users against the users table and hands out session tokens.
+ *
+ * Passwords are stored as salted PBKDF2-HMAC-SHA256 hashes in the form
+ * {@code pbkdf2_sha256$<iterations>$<salt>$<hash>}. Rows still holding a plaintext password (or a
+ * hash with fewer iterations than configured) are re-hashed on the next successful login.
+ *
+ * A successful {@link #login} returns a random token; {@link #authenticate} resolves it from
+ * memory until it expires, so requests within a session touch neither the database nor the
+ * hash. Failed logins are counted per email: after {@code chatbot.auth.maxFailures} (default 5)
+ * within {@code chatbot.auth.failureWindowMillis} (default 15 minutes) further attempts are
+ * refused until the window ends, before any hashing is done. Each attempt reserves its place in
+ * the window before hashing, so attempts made in parallel are limited as well.
+ */
+public class AuthService {
+    private static final String HASH_SCHEME = "pbkdf2_sha256";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final int PRUNE_THRESHOLD = 10_000;  // Expired entries are swept once a map grows past this
+
+    private static final AuthService DEFAULT = new AuthService(
+            Integer.getInteger("chatbot.auth.pbkdf2Iterations", 310_000),
+            Long.getLong("chatbot.auth.tokenTtlMillis", 8 * 60 * 60_000L),
+            Integer.getInteger("chatbot.auth.maxFailures", 5),
+            Long.getLong("chatbot.auth.failureWindowMillis", 15 * 60_000L));
+
+    private static final Metrics.Histogram LOGIN_TIME = Metrics.histogram("chatbot_auth_login_seconds");
+    private static final Metrics.Counter LOGIN_SUCCESS = Metrics.counter("chatbot_auth_logins_total", "result", "success");
+    private static final Metrics.Counter LOGIN_INVALID = Metrics.counter("chatbot_auth_logins_total", "result", "invalid");
+    private static final Metrics.Counter LOGIN_LIMITED = Metrics.counter("chatbot_auth_logins_total", "result", "rate_limited");
+
+    private final int iterations;
+    private final long tokenTtlMillis;
+    private final int maxFailures;
+    private final long failureWindowMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Failures> failures = new ConcurrentHashMap<>();
+    private final String dummyHash;  // Verified against for unknown emails, so they take as long as known ones
+
+    public AuthService(int iterations, long tokenTtlMillis, int maxFailures, long failureWindowMillis) {
+        this.iterations = iterations;
+        this.tokenTtlMillis = tokenTtlMillis;
+        this.maxFailures = maxFailures;
+        this.failureWindowMillis = failureWindowMillis;
+        this.dummyHash = hashPassword("dummy-password");
+    }
+
+    /**
+     * @return The service shared by the UI and the chat server
+     */
+    public static AuthService get() {
+        return DEFAULT;
+    }
+
+    /**
+     * Checks an email and password and starts a session.
+     *
+     * @param email    The user's email
+     * @param password The user's password
+     * @return The new session, or null if the credentials are wrong
+     * @throws TooManyAttemptsException if the email has too many recent failed attempts
+     * @throws SQLException             if the users table can't be read; the attempt isn't counted then
+     */
+    public Session login(String email, String password) throws TooManyAttemptsException, SQLException {
+        long start = Metrics.start();
+        String key = email == null ? "" : email.trim().toLowerCase();
+        try {
+            reserveAttempt(key);
+
+            ChatRepository.StoredUser found;
+            try {
+                found = DatabaseHelper.getRepository().findUserByEmail(email == null ? "" : email.trim());
+            } catch (SQLException e) {
+                refundAttempt(key);  // Not the caller's fault, and not a wrong password either
+                throw e;
+            }
+
+            User user = found == null ? null : found.getUser();
+            String stored = found == null ? null : found.getPasswordHash();
+            boolean valid = verifyPassword(password, stored != null ? stored : dummyHash) && stored != null;
+            if (!valid) {
+                LOGIN_INVALID.increment();  // The reserved attempt stays counted
+                ChatLog.info("auth.rejected", "email", key);
+                return null;
+            }
+
+            failures.remove(key);  // A success clears the window
+            if (needsRehash(stored)) {
+                upgradeHash(user.getUserId(), password);
+            }
+            LOGIN_SUCCESS.increment();
+            return startSession(user);
+        } finally {
+            LOGIN_TIME.observeSince(start);
+        }
+    }
+
+    /**
+     * Resolves a session token from memory.
+     *
+     * @param token A token from {@link Session#getToken()}
+     * @return The session's user, or null if the token is unknown or expired
+     */
+    public User authenticate(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        if (session.expiresAt <= System.currentTimeMillis()) {
+            sessions.remove(token, session);
+            return null;
+        }
+        return session.user;
+    }
+
+    /**
+     * Ends a session.
+     *
+     * @param token The session token
+     * @return true if the session existed
+     */
+    public boolean logout(String token) {
+        return token != null && sessions.remove(token) != null;
+    }
+
+    /**
+     * Creates an account with a hashed password.
+     *
+     * @param name     Display name; defaults to the part of the email before '@'
+     * @param email    The user's email
+     * @param password The user's password
+     * @return The new user, or null if the email is already registered
+     * @throws SQLException if the insert fails for another reason
+     */
+    public User register(String name, String email, String password) throws SQLException {
+        String trimmedEmail = email.trim();
+        String displayName = name == null || name.isBlank() ? trimmedEmail.split("@")[0] : name;
+        return DatabaseHelper.getRepository().insertUser(displayName, trimmedEmail, hashPassword(password));
+    }
+
+    /**
+     * @param password A plaintext password
+     * @return A salted hash in this service's storage format
+     */
+    public String hashPassword(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return HASH_SCHEME + "$" + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(hash);
+    }
+
+    /**
+     * Checks a password against a stored value, which is either a hash from {@link #hashPassword}
+     * or a legacy plaintext password. Comparison is constant-time in both cases.
+     *
+     * @param password The password to check
+     * @param stored   The stored value
+     * @return true if they match
+     */
+    static boolean verifyPassword(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (!stored.startsWith(HASH_SCHEME + "$")) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            int storedIterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(pbkdf2(password, salt, storedIterations), expected);
+        } catch (IllegalArgumentException e) {
+            return false;  // Corrupt hash
+        }
+    }
+
+    /**
+     * @return Number of sessions held in memory, including expired ones not yet swept
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    private boolean needsRehash(String stored) {
+        if (!stored.startsWith(HASH_SCHEME + "$")) {
+            return true;  // Legacy plaintext
+        }
+        String[] parts = stored.split("\\$");
+        return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+    }
+
+    private void upgradeHash(int userId, String password) {
+        try {
+            DatabaseHelper.getRepository().updatePasswordHash(userId, hashPassword(password));
+        } catch (SQLException e) {
+            ChatLog.warn("auth.rehash", e, "userId", userId);  // Login still succeeds; retried next time
+        }
+    }
+
+    private Session startSession(User user) {
+        if (sessions.size() > PRUNE_THRESHOLD) {
+            long now = System.currentTimeMillis();
+            sessions.values().removeIf(session -> session.expiresAt <= now);
+        }
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        Session session = new Session(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes), user,
+                System.currentTimeMillis() + tokenTtlMillis);
+        sessions.put(session.token, session);
+        return session;
+    }
+
+    /**
+     * Counts an attempt against the email's window before any hashing is done. The check and the
+     * increment are one atomic step, so parallel attempts can't all pass before one is recorded.
+     *
+     * @throws TooManyAttemptsException if the window is already full
+     */
+    private void reserveAttempt(String key) throws TooManyAttemptsException {
+        long now = System.currentTimeMillis();
+        if (failures.size() > PRUNE_THRESHOLD) {
+            failures.values().removeIf(entry -> now - entry.windowStart >= failureWindowMillis);
+        }
+        long[] retryAfter = {0};
+        failures.compute(key, (k, entry) -> {
+            if (entry == null || now - entry.windowStart >= failureWindowMillis) {
+                return new Failures(now, 1);
+            }
+            if (entry.count >= maxFailures) {
+                retryAfter[0] = entry.windowStart + failureWindowMillis - now;
+                return entry;
+            }
+            return new Failures(entry.windowStart, entry.count + 1);
+        });
+        if (retryAfter[0] > 0) {
+            LOGIN_LIMITED.increment();
+            ChatLog.warn("auth.rate_limited", "email", key, "retryAfterMillis", retryAfter[0]);
+            throw new TooManyAttemptsException(retryAfter[0]);
+        }
+    }
+
+    // Gives back an attempt that ended without the password being checked
+    private void refundAttempt(String key) {
+        failures.computeIfPresent(key, (k, entry) ->
+                entry.count <= 1 ? null : new Failures(entry.windowStart, entry.count - 1));
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * An authenticated session.
+     */
+    public static class Session {
+        private final String token;
+        private final User user;
+        private final long expiresAt;
+
+        Session(String token, User user, long expiresAt) {
+            this.token = token;
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        public User getUser() {
+            return user;
+        }
+
+        /**
+         * @return When the token stops being accepted, in epoch millis
+         */
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+    }
+
+    /**
+     * Thrown by {@link #login} while an email is locked out after repeated failures.
+     */
+    public static class TooManyAttemptsException extends Exception {
+        private final long retryAfterMillis;
+
+        public TooManyAttemptsException(long retryAfterMillis) {
+            super("Too many failed login attempts; try again in " + (retryAfterMillis + 999) / 1000 + " s");
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
+    }
+
+    /**
+     * Attempts for one email within the current window, failed or still being checked. Replaced
+     * rather than changed, so a concurrent prune can only remove the version it looked at.
+     */
+    private static class Failures {
+        final long windowStart;
+        final int count;
+
+        Failures(long windowStart, int count) {
+            this.windowStart = windowStart;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Benchmark suite for the query hot path.
+ *
+ * Covers keyword matching, FAQ lookup (in-memory index and SQL against an embedded database),
+ * NLP annotation per pipeline profile, and end-to-end {@code processQuery} throughput with
+ * several threads competing. Data is synthetic and sized by the options below. Each benchmark is
+ * warmed up, then run for a fixed time per thread count; results are written as JSON so runs
+ * of different versions can be compared.
+ *
+ * Usage: {@code java -cp .:h2.jar:corenlp/* ChatBenchmarks [--option=value ...]}
+ * <ul>
+ *   <li>{@code --faqs=10000} number of synthetic FAQs</li>
+ *   <li>{@code --queries=1000} number of distinct synthetic queries</li>
+ *   <li>{@code --threads=1,4,16} thread counts to run each benchmark with</li>
+ *   <li>{@code --warmup=2 --measure=5} seconds of warm-up and measurement</li>
+ *   <li>{@code --db=jdbc:h2:mem:chatbench;DB_CLOSE_DELAY=-1} scratch database (its faqs table is replaced)</li>
+ *   <li>{@code --profiles=TOKENIZE,LEMMA,FULL} NLP profiles to benchmark</li>
+ *   <li>{@code --batchSizes=1,16 --batchWaitMicros=500} settings of the batched NLP runs ({@link NLPBatcher})</li>
+ *   <li>{@code --only=keywords,faqIndex,faqRanker,fuzzy,faqSql,nlp,processQuery} subset to run</li>
+ *   <li>{@code --out=bench-results.json} result file</li>
+ * </ul>
+ * Set {@code -Dchatbot.version} to label the results.
+ */
+public class ChatBenchmarks {
+
+    /**
+     * One benchmarked operation; {@code i} grows with every call on a thread. The result is
+     * consumed by the harness so the JIT can't drop the work that produced it.
+     */
+    interface Operation {
+        Object run(int thread, int i) throws Exception;
+    }
+
+    private static final int MAX_SAMPLES_PER_THREAD = 1 << 18;
+
+    /** Folded results of every run, published so they stay observable. */
+    private static volatile long sink;
+
+    private final Map<String, String> options;
+    private final List<Map<String, Object>> results = new ArrayList<>();
+
+    ChatBenchmarks(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] pair = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(pair[0], pair.length > 1 ? pair[1] : "true");
+        }
+        new ChatBenchmarks(options).runAll();
+    }
+
+    void runAll() throws Exception {
+        int faqCount = Integer.parseInt(option("faqs", "10000"));
+        int queryCount = Integer.parseInt(option("queries", "1000"));
+        List<String> only = Arrays.asList(option("only", "keywords,faqIndex,faqRanker,fuzzy,faqSql,nlp,processQuery").split(","));
+
+        // DatabaseHelper reads its settings once, so point it at the scratch database first
+        System.setProperty("chatbot.db.url", option("db", "jdbc:h2:mem:chatbench;DB_CLOSE_DELAY=-1"));
+        System.setProperty("chatbot.db.user", option("dbUser", "sa"));
+        System.setProperty("chatbot.db.password", option("dbPassword", ""));
+
+        SyntheticFAQs data = new SyntheticFAQs(42);
+        List<FAQEntry> faqs = data.faqs(faqCount);
+        List<String> queries = data.queries(faqs, queryCount, 0.8);
+        List<String> messages = new ArrayList<>(queryCount);  // Whole questions embedded in chatter
+        for (int i = 0; i < queryCount; i++) {
+            messages.add("hi, " + faqs.get(i % faqs.size()).getQuestion() + " thanks");
+        }
+
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("faqs", faqCount);
+        params.put("queries", queryCount);
+
+        if (only.contains("keywords")) {
+            KeywordMatcher matcher = KnowledgeBase.build(faqs).getKeywordMatcher();
+            forEachThreadCount("keywords", params, (thread, i) -> matcher.findResponse(messages.get(i % messages.size())));
+        }
+        if (only.contains("faqIndex")) {
+            FAQIndex index = FAQIndex.build(faqs);
+            forEachThreadCount("faqIndex", params,
+                    (thread, i) -> index.find(queries.get(i % queries.size()), FAQIndex.MatchMode.SUBSTRING));
+        }
+        if (only.contains("faqRanker")) {
+            FAQRanker ranker = FAQRanker.build(faqs, FAQRanker.SIMPLE);
+            forEachThreadCount("faqRanker", params, (thread, i) -> ranker.best(queries.get(i % queries.size())));
+        }
+        if (only.contains("fuzzy")) {
+            FuzzyMatcher fuzzy = KnowledgeBase.build(faqs).getFuzzyMatcher();
+            List<String> typos = new ArrayList<>(queries.size());
+            for (String query : queries) {
+                int middle = query.length() / 2;  // Drop one letter, usually inside a word
+                typos.add(query.substring(0, middle) + query.substring(Math.min(query.length(), middle + 1)));
+            }
+            Map<String, Object> fuzzyParams = new LinkedHashMap<>(params);
+            fuzzyParams.put("vocabulary", fuzzy.size());
+            forEachThreadCount("fuzzy", fuzzyParams, (thread, i) -> fuzzy.correct(typos.get(i % typos.size())));
+        }
+        if (only.contains("faqSql") || only.contains("processQuery")) {
+            try (Connection conn = DatabaseHelper.getConnection()) {
+                SyntheticFAQs.populate(conn, faqs);
+            }
+            DatabaseHelper.reloadFAQs();
+        }
+        if (only.contains("faqSql")) {
+            forEachThreadCount("faqSql", params,
+                    (thread, i) -> DatabaseHelper.getFAQAnswerFromDatabase(queries.get(i % queries.size())));
+        }
+        if (only.contains("nlp")) {
+            for (String name : option("profiles", "TOKENIZE,LEMMA,FULL").split(",")) {
+                runNlp(NLPPipelines.Profile.valueOf(name.trim()), data, params);
+            }
+        }
+        if (only.contains("processQuery")) {
+            ChatBotService service = new ChatBotService(ChatExecutor.shared());
+            forEachThreadCount("processQuery", params, (thread, i) -> service.processQuery(
+                    service.getConversations().get("bench-" + thread), queries.get(i % queries.size())));
+        }
+
+        writeResults(option("out", "bench-results.json"));
+        DatabaseHelper.shutdown();
+    }
+
+    private void runNlp(NLPPipelines.Profile profile, SyntheticFAQs data, Map<String, Object> params) throws Exception {
+        Map<String, Object> nlpParams = new LinkedHashMap<>(params);
+        nlpParams.put("profile", profile.name());
+        NLPProcessor processor;
+        try {
+            processor = new NLPProcessor(profile);
+        } catch (LinkageError | RuntimeException e) {
+            // CoreNLP or its models aren't on the classpath
+            Map<String, Object> skipped = new LinkedHashMap<>();
+            skipped.put("benchmark", "nlp");
+            skipped.put("params", nlpParams);
+            skipped.put("skipped", String.valueOf(e));
+            results.add(skipped);
+            System.out.println("nlp " + profile + ": skipped (" + e + ")");
+            return;
+        }
+        List<String> sentences = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            sentences.add("My order " + (10_000 + i) + " from London " + data.sentence(6) + "?");
+        }
+        forEachThreadCount("nlp", nlpParams, (thread, i) -> processor.processText(sentences.get(i % sentences.size())));
+
+        long waitMicros = Long.parseLong(option("batchWaitMicros", "500"));
+        for (String size : option("batchSizes", "1,16").split(",")) {
+            Map<String, Object> batchParams = new LinkedHashMap<>(nlpParams);
+            batchParams.put("batchSize", Integer.parseInt(size.trim()));
+            batchParams.put("batchWaitMicros", waitMicros);
+            try (NLPBatcher batcher = new NLPBatcher(profile, Integer.parseInt(size.trim()), waitMicros,
+                    Runtime.getRuntime().availableProcessors())) {
+                forEachThreadCount("nlpBatched", batchParams,
+                        (thread, i) -> batcher.process(sentences.get(i % sentences.size())));
+                System.out.printf("nlpBatched %s size %s: %.1f documents per batch%n", profile, size,
+                        batcher.getAverageBatchSize());
+            }
+        }
+    }
+
+    private void forEachThreadCount(String name, Map<String, Object> params, Operation operation) throws Exception {
+        for (String count : option("threads", "1,4,16").split(",")) {
+            int threads = Integer.parseInt(count.trim());
+            Map<String, Object> runParams = new LinkedHashMap<>(params);
+            runParams.put("threads", threads);
+            measure(name, runParams, threads, operation);
+        }
+    }
+
+    /**
+     * Runs the operation on {@code threads} threads, first for the warm-up time, then for the
+     * measurement time, and records throughput and latency percentiles of the measured part.
+     */
+    private void measure(String name, Map<String, Object> params, int threads, Operation operation) throws Exception {
+        long warmupNanos = (long) (Double.parseDouble(option("warmup", "2")) * 1e9);
+        long measureNanos = (long) (Double.parseDouble(option("measure", "5")) * 1e9);
+        long[][] samples = new long[threads][];
+        long[] counts = new long[threads];
+        long[] folds = new long[threads];
+        long[] nonNull = new long[threads];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        long[] window = new long[2];  // Start and end of the measured part, set once all threads are ready
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                long[] latencies = new long[MAX_SAMPLES_PER_THREAD];
+                int recorded = 0;
+                long ops = 0;
+                long fold = 0;
+                long answered = 0;
+                int i = thread * 7919;  // Threads start at different queries
+                try {
+                    ready.countDown();
+                    go.await();
+                    long measureFrom = window[0];
+                    long measureUntil = window[1];
+                    long now;
+                    while ((now = System.nanoTime()) < measureUntil) {
+                        Object result = operation.run(thread, i++);
+                        long end = System.nanoTime();
+                        if (result != null) {
+                            // Identity hash is constant-time whatever the result is, and still needs the object
+                            fold = fold * 31 + System.identityHashCode(result);
+                        }
+                        if (now >= measureFrom) {
+                            ops++;
+                            if (result != null) {
+                                answered++;
+                            }
+                            if (recorded < latencies.length) {
+                                latencies[recorded++] = end - now;
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+                samples[thread] = Arrays.copyOf(latencies, recorded);
+                counts[thread] = ops;
+                folds[thread] = fold;
+                nonNull[thread] = answered;
+            }, "bench-" + name + "-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+
+        ready.await();
+        long start = System.nanoTime();
+        window[0] = start + warmupNanos;
+        window[1] = start + warmupNanos + measureNanos;
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("Benchmark " + name + " failed", failure.get());
+        }
+
+        long totalOps = Arrays.stream(counts).sum();
+        for (long fold : folds) {
+            sink = sink * 31 + fold;
+        }
+        long totalAnswered = Arrays.stream(nonNull).sum();
+        if (totalOps > 0 && totalAnswered == 0) {
+            System.out.println(name + " " + params + ": every result was null, check the benchmark data");
+        }
+        long[] all = Arrays.stream(samples).flatMapToLong(Arrays::stream).sorted().toArray();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("benchmark", name);
+        result.put("params", params);
+        result.put("ops", totalOps);
+        result.put("nonNullResults", totalAnswered);
+        result.put("opsPerSecond", round(totalOps / (measureNanos / 1e9)));
+        result.put("avgMicros", all.length == 0 ? 0 : round(Arrays.stream(all).average().orElse(0) / 1e3));
+        result.put("p50Micros", all.length == 0 ? 0 : round(ChatLoadTest.percentile(all, 50) / 1e3));
+        result.put("p99Micros", all.length == 0 ? 0 : round(ChatLoadTest.percentile(all, 99) / 1e3));
+        results.add(result);
+        System.out.println(name + " " + params + ": " + result.get("opsPerSecond") + " ops/s, p50 "
+                + result.get("p50Micros") + " us, p99 " + result.get("p99Micros") + " us");
+    }
+
+    private void writeResults(String path) throws IOException {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("version", System.getProperty("chatbot.version", "dev"));
+        report.put("timestamp", Instant.now().toString());
+        report.put("java", System.getProperty("java.version"));
+        report.put("cpus", Runtime.getRuntime().availableProcessors());
+        report.put("results", results);
+        try (Writer out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            out.write(Json.toJson(report));
+            out.write('\n');
+        }
+        System.out.println("Results written to " + path + " (sink " + Long.toHexString(sink) + ")");
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+}
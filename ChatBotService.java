@@ -1,53 +1,120 @@
-import javax.swing.*;
-import javax.swing.text.*;
-import java.awt.Color;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.net.http.HttpTimeoutException;
 import java.sql.SQLException;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-public class ChatBotService {
-    private ExecutorService executor;
-    private JTextPane chatArea;  // JTextPane to display chat messages
-    private static Map<String, String> keywordResponses;
-
-    // Stores previous interactions for context awareness
-    private String lastUserQuery = "";
-    private String lastResponse = "";
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ChatBotService implements ChatClient, AutoCloseable {
+    private final ChatExecutor executor;
+    private static final KeywordMatcher DEFAULT_KEYWORDS =
+            KnowledgeBase.build(List.of()).getKeywordMatcher();  // Used while the FAQs can't be loaded
+    private static final ResponseCache responseCache = new ResponseCache(
+            Integer.getInteger("chatbot.cache.maxEntries", 10_000),
+            Long.getLong("chatbot.cache.ttlMillis", 10 * 60_000L));
+
+    static final String FALLBACK_RESPONSE = "Sorry, I didn't understand that. Could you please rephrase your query?";
+
+    // Per-stage latency of processQuery and where answers come from
+    private static final Metrics.Histogram QUERY_TIME = Metrics.histogram("chatbot_query_seconds");
+    private static final Metrics.Histogram FOLLOW_UP_TIME = stageHistogram("follow_up");
+    private static final Metrics.Histogram CACHE_TIME = stageHistogram("cache");
+    private static final Metrics.Histogram FAQ_TIME = stageHistogram("faq");
+    private static final Metrics.Histogram KEYWORD_TIME = stageHistogram("keyword");
+    private static final Metrics.Histogram FUZZY_TIME = stageHistogram("fuzzy");
+    private static final Metrics.Counter FOLLOW_UP_ANSWERS = answerCounter("follow_up");
+    private static final Metrics.Counter CACHED_ANSWERS = answerCounter("cache");
+    private static final Metrics.Counter FAQ_ANSWERS = answerCounter("faq");
+    private static final Metrics.Counter KEYWORD_ANSWERS = answerCounter("keyword");
+    private static final Metrics.Counter FUZZY_ANSWERS = answerCounter("fuzzy");
+    private static final Metrics.Counter FALLBACK_ANSWERS = answerCounter("fallback");
+
+    static {
+        // Drop cached answers whenever the FAQs change
+        DatabaseHelper.addFAQChangeListener(responseCache::invalidateAll);
+
+        Metrics.gauge("chatbot_response_cache_entries", responseCache::size);
+        Metrics.gauge("chatbot_response_cache_hits", responseCache::getHitCount);
+        Metrics.gauge("chatbot_response_cache_misses", responseCache::getMissCount);
+    }
+
+    private static Metrics.Histogram stageHistogram(String stage) {
+        return Metrics.histogram("chatbot_query_stage_seconds", "stage", stage);
+    }
+
+    private static Metrics.Counter answerCounter(String source) {
+        return Metrics.counter("chatbot_answers_total", "source", source);
+    }
+
+    // Stores previous interactions for context awareness, per session
+    private final ConversationStore conversations = new ConversationStore();
+    private final List<FollowUpRule> followUpRules = new CopyOnWriteArrayList<>(FollowUpRules.defaults());
     private User currentUser;  // The currently authenticated user
+    private String sessionId;  // Session used by the single-user (Swing) API
 
-    private Color userMessageColor = Color.GREEN;  // Default color for user messages
-    private Color botMessageColor = Color.CYAN;    // Default color for bot responses
+    private final long requestTimeoutMillis = Long.getLong("chatbot.requestTimeoutMillis", 10_000);
 
-    public ChatBotService(JTextPane chatArea, User user) {
-        this.executor = Executors.newFixedThreadPool(10);  // Allow handling 10 users simultaneously
-        this.chatArea = chatArea;
+    // Queries submitted and not finished yet, including their history and context updates
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Creates a service for a single user, e.g. behind {@link ChatBotUI}. Responses are returned
+     * through the futures of {@link #submitQuery(String)}; displaying them is up to the caller.
+     *
+     * @param user The authenticated user, or null to skip logging the history
+     */
+    public ChatBotService(User user) {
+        this.executor = ChatExecutor.shared();
         this.currentUser = user;  // Set the authenticated user
+        this.sessionId = user != null ? "user-" + user.getUserId() : "local";
         loadKeywordResponses();  // Load keyword-response pairs from the database
     }
 
     /**
-     * Loads keyword-response pairs from the database into the chatbot's response map.
+     * Creates a headless service that serves many sessions, e.g. behind {@link ChatServer}.
+     * Each call names its session and user; the service itself holds no per-user state.
+     *
+     * @param executor Executor that runs the queries, usually {@link ChatExecutor#shared()}
      */
-    private void loadKeywordResponses() {
-        keywordResponses = DatabaseHelper.getKeywordResponses();
-        if (keywordResponses == null || keywordResponses.isEmpty()) {
-            keywordResponses = Map.of("default", "Sorry, I couldn't find an answer to your query.");
-        }
+    public ChatBotService(ChatExecutor executor) {
+        this.executor = executor;
+        this.sessionId = "local";
+        loadKeywordResponses();
+    }
+
+    /**
+     * Makes sure the FAQ and keyword data is loaded. The keyword matcher is part of the
+     * {@link KnowledgeBase} snapshot, which {@link FAQRefresher} replaces as a whole when the
+     * faqs table changes, so queries never see a half-built keyword set.
+     */
+    public static void loadKeywordResponses() {
+        DatabaseHelper.getKnowledgeBase();
+    }
+
+    /**
+     * @return The response cache shared by all service instances
+     */
+    public static ResponseCache getResponseCache() {
+        return responseCache;
     }
 
     /**
      * Logs the chat history into the database, linking it to the currently authenticated user.
+     * The turn is queued for {@link ChatHistoryWriter}, which reports its own write failures.
      *
      * @param message  The user's message
      * @param response The bot's response
      */
-    public void logChatHistory(String message, String response) throws SQLException {
+    public void logChatHistory(String message, String response) {
         if (currentUser == null) {
-            System.err.println("Cannot log chat history: No authenticated user.");
+            ChatLog.warn("history.skipped", "reason", "no authenticated user");
             return;
         }
 
@@ -55,34 +122,169 @@ public class ChatBotService {
     }
 
     /**
-     * Handles user queries by processing them and updating the UI with bot responses.
+     * Submits a user query for processing on the service's worker threads.
+     * The returned future completes with the bot's response, or exceptionally with a
+     * {@link TimeoutException} if the response takes longer than the request timeout, or with a
+     * {@link ChatExecutor.BusyException} if the executor is saturated or the service closed.
+     * Cancelling the future skips the query if it hasn't started yet and discards its result
+     * (no history is logged and the conversation context is left untouched).
      *
      * @param userMessage The user's input message
+     * @return A future for the bot's response
      */
-    public void handleUserQuery(String userMessage) {
-        executor.submit(() -> {
-            // Process query here (NLP and database check)
-            String response = processQuery(userMessage);
-
-            // Update the UI with the response (SwingUtilities.invokeLater for thread safety)
-            SwingUtilities.invokeLater(() -> {
-                appendMessage(userMessage, userMessageColor);  // Display user message in user color
-                appendMessage(response, botMessageColor);     // Display bot response in bot color
-            });
-
-            // Log the interaction in the database, linked to the user ID
-            if (currentUser != null) {
-                try {
-                    logChatHistory(userMessage, response);
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
+    public CompletableFuture<String> submitQuery(String userMessage) {
+        return submitQuery(sessionId, currentUser, userMessage);
+    }
+
+    @Override
+    public CompletableFuture<String> send(String message) {
+        return submitQuery(message);
+    }
+
+    /**
+     * Submits a query on behalf of a given session and user. See {@link #submitQuery(String)}.
+     *
+     * @param sessionId   The conversation the message belongs to
+     * @param user        The user to log the history for, or null to skip logging
+     * @param userMessage The user's input message
+     * @return A future for the bot's response
+     */
+    public CompletableFuture<String> submitQuery(String sessionId, User user, String userMessage) {
+        // Count it before looking at closed, so close() either waits for it or it sees closed
+        pending.incrementAndGet();
+        if (closed) {
+            finished();
+            return CompletableFuture.failedFuture(new ChatExecutor.BusyException("Chat service is shut down"));
+        }
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            if (result.isDone()) {
+                finished();
+                return;  // Cancelled or timed out while queued
             }
+            try {
+                // Process query here (NLP and database check)
+                ConversationContext context = conversations.get(sessionId);
+                String response = processQuery(context, userMessage);
+                if (!result.complete(response)) {
+                    return;
+                }
+
+                // Log the interaction in the database, linked to the user ID
+                if (user != null) {
+                    DatabaseHelper.logChatHistory(user.getUserId(), userMessage, response);
+                }
 
-            // Update the context variables
-            lastUserQuery = userMessage;
-            lastResponse = response;
+                // Update the context variables
+                conversations.recordTurn(context, userMessage, response);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            } finally {
+                finished();
+            }
+        }, requestTimeoutMillis, error -> {
+            result.completeExceptionally(error);  // Shed, expired or cancelled before it ran
+            finished();
+        });
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
         });
+        return result.orTimeout(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void finished() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (pending) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return Queries submitted to this service that haven't finished yet
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Stops taking queries, waits up to 10 seconds for the ones in flight and flushes their
+     * chat history. The executor is shared, so it keeps running.
+     */
+    @Override
+    public void close() {
+        close(10_000);
+    }
+
+    /**
+     * Stops taking queries and waits for the ones in flight, then for their chat history to be
+     * written, and releases the conversation store. Later queries fail with a
+     * {@link ChatExecutor.BusyException}.
+     *
+     * @param timeoutMillis Maximum time to wait for both
+     * @return true if everything finished and was written in time
+     */
+    public boolean close(long timeoutMillis) {
+        closed = true;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            synchronized (pending) {
+                while (pending.get() > 0) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        ChatLog.warn("service.close.timeout", "pending", pending.get());
+                        return false;
+                    }
+                    pending.wait(remaining);
+                }
+            }
+            return DatabaseHelper.getHistoryWriter().awaitFlushed(Math.max(0, deadline - System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            // Unschedules the store's sweep, which would otherwise keep the sessions reachable;
+            // stragglers past the timeout can still record their turn
+            conversations.close();
+        }
+    }
+
+    /**
+     * Adds a follow-up rule, tried after the existing ones.
+     *
+     * @param rule The rule to add
+     */
+    public void addFollowUpRule(FollowUpRule rule) {
+        followUpRules.add(rule);
+    }
+
+    /**
+     * @return The per-session conversation contexts held by this service
+     */
+    public ConversationStore getConversations() {
+        return conversations;
+    }
+
+    /**
+     * Turns a failed {@link #submitQuery} future into a message for the user.
+     *
+     * @param error The exception the future completed with
+     * @return The message to show instead of a response
+     */
+    public static String describeFailure(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof TimeoutException || cause instanceof HttpTimeoutException) {
+            return "Sorry, that took too long. Please try again.";
+        }
+        if (cause instanceof CancellationException) {
+            return "Request cancelled.";
+        }
+        if (cause instanceof RejectedExecutionException) {
+            return "Sorry, I'm handling a lot of messages right now. Please try again in a moment.";
+        }
+        return "Oops! Something went wrong. Please try again.";
     }
 
     /**
@@ -92,40 +294,109 @@ public class ChatBotService {
      * @return The bot's response
      */
     public String processQuery(String query) {
-        // Ensure that the query is processed to handle case insensitivity and extra spaces
-        String processedText = query.trim().toLowerCase();  // Case-insensitive matching
-
-        // Log the processed query for debugging
-        System.out.println("Processed Query: " + processedText);
-
-        // Step 1: Context-aware response
-        if (!lastUserQuery.isEmpty()) {
-            if (processedText.contains("yes") || processedText.contains("confirm")) {
-                if (lastUserQuery.contains("order")) {
-                    return "Okay! I’ll proceed with your order. Do you need help with anything else?";
-                } else if (lastUserQuery.contains("refund")) {
-                    return "Got it! I'll initiate the refund process. Let me know if there’s anything else.";
+        return processQuery(conversations.get(sessionId), query);
+    }
+
+    /**
+     * Processes a user query in the context of a given conversation.
+     *
+     * @param context The conversation the query belongs to
+     * @param query   The user's input query
+     * @return The bot's response
+     */
+    public String processQuery(ConversationContext context, String query) {
+        long queryStart = Metrics.start();
+        try {
+            // Ensure that the query is processed to handle case insensitivity and extra spaces
+            String processedText = query.trim().toLowerCase();  // Case-insensitive matching
+
+            // Log the processed query for debugging
+            if (ChatLog.isDebugEnabled()) {
+                ChatLog.debug("query.processed", "session", context.getSessionId(), "query", processedText);
+            }
+
+            // Step 1: Context-aware response from the follow-up rules (by default the intent router)
+            if (!context.getLastUserQuery().isEmpty()) {
+                long stageStart = Metrics.start();
+                for (FollowUpRule rule : followUpRules) {
+                    String followUp = rule.apply(processedText, context);
+                    if (followUp != null) {
+                        FOLLOW_UP_TIME.observeSince(stageStart);
+                        FOLLOW_UP_ANSWERS.increment();
+                        return followUp;
+                    }
                 }
-            } else if (processedText.contains("no")) {
-                return "Alright, let me know if you need assistance with anything else.";
+                FOLLOW_UP_TIME.observeSince(stageStart);
             }
+
+            // Steps 2-5 only depend on the query text, so their answers are cached
+            long stageStart = Metrics.start();
+            long generation = responseCache.generation();
+            String cached = responseCache.get(processedText);
+            CACHE_TIME.observeSince(stageStart);
+            if (cached != null) {
+                CACHED_ANSWERS.increment();
+                return cached;
+            }
+            String response = lookupAnswer(processedText);
+            responseCache.put(processedText, response, generation);
+            return response;
+        } finally {
+            QUERY_TIME.observeSince(queryStart);
         }
+    }
 
-        // Step 2: Check FAQ database for a direct match
-        String dbResponse = DatabaseHelper.getFAQAnswer(processedText);
+    /**
+     * Answers a query from the knowledge base alone, without any conversation context.
+     *
+     * @param processedText The normalized query
+     * @return The bot's response
+     */
+    private String lookupAnswer(String processedText) {
+        // Step 2: Check the FAQs for a confident match
+        long stageStart = Metrics.start();
+        String dbResponse = DatabaseHelper.findFAQAnswer(processedText);
+        FAQ_TIME.observeSince(stageStart);
         if (dbResponse != null) {
+            FAQ_ANSWERS.increment();
             return dbResponse; // Return response directly from the database if found
         }
 
-        // Step 3: Check for keyword responses in the loaded map
-        for (Map.Entry<String, String> entry : keywordResponses.entrySet()) {
-            if (processedText.contains(entry.getKey())) {
-                return entry.getValue();
+        // Step 3: Check for keyword responses, longest matching keyword wins
+        stageStart = Metrics.start();
+        KnowledgeBase kb = DatabaseHelper.getKnowledgeBase();
+        KeywordMatcher keywordMatcher = kb != null ? kb.getKeywordMatcher() : DEFAULT_KEYWORDS;
+        String keywordResponse = keywordMatcher.findResponse(processedText);
+        KEYWORD_TIME.observeSince(stageStart);
+        if (keywordResponse != null) {
+            KEYWORD_ANSWERS.increment();
+            return keywordResponse;
+        }
+
+        // Step 4: Correct typos against the FAQ vocabulary and try steps 2 and 3 again
+        if (kb != null) {
+            stageStart = Metrics.start();
+            String corrected = kb.getFuzzyMatcher().correct(processedText);
+            String fuzzyResponse = null;
+            if (corrected != null) {
+                fuzzyResponse = DatabaseHelper.findFAQAnswer(corrected);
+                if (fuzzyResponse == null) {
+                    fuzzyResponse = keywordMatcher.findResponse(corrected);
+                }
+            }
+            FUZZY_TIME.observeSince(stageStart);
+            if (fuzzyResponse != null) {
+                if (ChatLog.isDebugEnabled()) {
+                    ChatLog.debug("query.corrected", "query", processedText, "corrected", corrected);
+                }
+                FUZZY_ANSWERS.increment();
+                return fuzzyResponse;
             }
         }
 
-        // Step 4: Fallback response if no match is found
-        return "Sorry, I didn't understand that. Could you please rephrase your query?";
+        // Step 5: Fallback response if no match is found
+        FALLBACK_ANSWERS.increment();
+        return FALLBACK_RESPONSE;
     }
 
     /**
@@ -134,44 +405,9 @@ public class ChatBotService {
      * @param email    The user's email
      * @param password The user's password
      * @return A User object if authentication is successful, otherwise null
+     * @throws SQLException if the users table can't be read
      */
-    public static User authenticateUser(String email, String password) {
-        User user = null;
-
-        try (Connection conn = DatabaseHelper.getConnection()) {
-            String query = "SELECT user_id, name, email FROM users WHERE email = ? AND password = ?";
-            PreparedStatement pstmt = conn.prepareStatement(query);
-            pstmt.setString(1, email);
-            pstmt.setString(2, password);
-            ResultSet rs = pstmt.executeQuery();
-
-            if (rs.next()) {
-                // User found, create and return User object
-                int userId = rs.getInt("user_id");
-                String name = rs.getString("name");
-                user = new User(userId, name, email);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-
-        return user;
-    }
-
-    
-    private void appendMessage(String message, Color color) {
-    StyledDocument doc = chatArea.getStyledDocument();
-
-    // Create a new mutable attribute set
-    MutableAttributeSet attrs = new SimpleAttributeSet();
-    StyleConstants.setForeground(attrs, color);  // Set color
-    StyleConstants.setFontSize(attrs, 14);  // Optional: set font size
-
-    try {
-        // Append the message with the style applied
-        doc.insertString(doc.getLength(), message + "\n", attrs);
-    } catch (BadLocationException e) {
-        e.printStackTrace();
+    public static User authenticateUser(String email, String password) throws SQLException {
+        return DatabaseHelper.authenticateUser(email, password);
     }
 }
-}
@@ -1,9 +1,16 @@
 import javax.swing.*;
-import javax.swing.text.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 public class ChatBotUI extends JFrame {
-    private JTextPane chatArea;
+    private ChatTranscript chatArea;
     private JTextField userInputField;
     private JButton sendButton, settingsButton;
     private JPanel settingsPanel;
@@ -14,25 +21,47 @@ public class ChatBotUI extends JFrame {
     private int fontSize = 14;
 
     private ChatBotService chatBotService;
+    private ChatClient chatClient;  // The local service, or a remote chat server
     private User currentUser;
 
+    private JLabel typingLabel;
+    private final List<CompletableFuture<String>> pendingRequests = new ArrayList<>();  // Touched on the EDT only
+
     public ChatBotUI(User user) {
+        this(user, null);
+    }
+
+    /**
+     * @param user         The logged-in user, or null
+     * @param remoteClient A client already logged in to the chat server, or null to use
+     *                     {@code chatbot.server.url} or the local service
+     */
+    public ChatBotUI(User user, HttpChatClient remoteClient) {
         this.currentUser = user;
 
         setTitle("Customer Support Chatbot");
         setSize(400, 600);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);  // windowClosing exits once the service is closed
         setLocationRelativeTo(null);
 
-        // Using JTextPane for rich text
-        chatArea = new JTextPane();
-        chatArea.setEditable(false);
-        chatArea.setBackground(backgroundColor);
-        chatArea.setForeground(Color.WHITE);
-        chatArea.setFont(new Font("Arial", Font.PLAIN, fontSize));
-        JScrollPane scrollPane = new JScrollPane(chatArea);
-
-        chatBotService = new ChatBotService(chatArea, currentUser);
+        // Virtualized transcript: only recent messages are kept, older ones are paged in on scroll
+        chatArea = new ChatTranscript();
+        chatArea.setColors(backgroundColor, userMessageColor, botMessageColor);
+        chatArea.setFontSize(fontSize);
+
+        String serverUrl = System.getProperty("chatbot.server.url");
+        if (remoteClient != null) {
+            chatClient = remoteClient;
+        } else if (serverUrl != null) {
+            chatClient = new HttpChatClient(serverUrl, currentUser);
+        } else {
+            chatBotService = new ChatBotService(currentUser);
+            chatClient = chatBotService;
+            if (currentUser != null) {
+                int userId = currentUser.getUserId();
+                chatArea.setHistorySource((beforeId, limit) -> DatabaseHelper.loadChatHistoryBefore(userId, beforeId, limit));
+            }
+        }
 
         userInputField = new JTextField();
         sendButton = new JButton("Send");
@@ -41,13 +70,37 @@ public class ChatBotUI extends JFrame {
         sendButton.addActionListener(e -> handleSendButtonClick());
         settingsButton.addActionListener(e -> toggleSettingsPanel());
 
+        typingLabel = new JLabel(" ");
+        userInputField.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "cancelRequests");
+        userInputField.getActionMap().put("cancelRequests", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                cancelPendingRequests();
+            }
+        });
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                cancelPendingRequests();
+                dispose();
+                // Let running messages finish and their history be written without blocking the EDT
+                new Thread(() -> {
+                    if (chatBotService != null) {
+                        chatBotService.close(2_000);
+                    }
+                    System.exit(0);
+                }, "chat-window-close").start();
+            }
+        });
+
         JPanel inputPanel = new JPanel(new BorderLayout());
+        inputPanel.add(typingLabel, BorderLayout.NORTH);
         inputPanel.add(userInputField, BorderLayout.CENTER);
         inputPanel.add(sendButton, BorderLayout.EAST);
 
         setupSettingsPanel();
 
-        add(scrollPane, BorderLayout.CENTER);
+        add(chatArea, BorderLayout.CENTER);
         add(inputPanel, BorderLayout.SOUTH);
         add(settingsButton, BorderLayout.NORTH);
         add(settingsPanel, BorderLayout.EAST);
@@ -89,7 +142,7 @@ public class ChatBotUI extends JFrame {
             case "Light Gray" -> backgroundColor = Color.LIGHT_GRAY;
             case "Dark Mode" -> backgroundColor = Color.DARK_GRAY;
         }
-        chatArea.setBackground(backgroundColor);
+        chatArea.setColors(backgroundColor, userMessageColor, botMessageColor);
     }
 
     private void changeUserMessageColor(String color) {
@@ -98,6 +151,7 @@ public class ChatBotUI extends JFrame {
             case "Blue" -> userMessageColor = Color.BLUE;
             case "Yellow" -> userMessageColor = Color.YELLOW;
         }
+        chatArea.setColors(backgroundColor, userMessageColor, botMessageColor);
     }
 
     private void changeBotMessageColor(String color) {
@@ -106,17 +160,18 @@ public class ChatBotUI extends JFrame {
             case "White" -> botMessageColor = Color.WHITE;
             case "Orange" -> botMessageColor = Color.ORANGE;
         }
+        chatArea.setColors(backgroundColor, userMessageColor, botMessageColor);
     }
 
     private void changeFontSize(String size) {
         fontSize = Integer.parseInt(size);
-        chatArea.setFont(new Font("Arial", Font.PLAIN, fontSize));
+        chatArea.setFontSize(fontSize);
     }
 
     private void handleSendButtonClick() {
         String userMessage = userInputField.getText().trim();
         if (!userMessage.isEmpty()) {
-            appendMessage("You : "+userMessage, userMessageColor);  // Display user message in user color
+            chatArea.append(ChatTranscript.Speaker.USER, userMessage);  // Display user message in user color
             userInputField.setText("");
             
             processUserMessage(userMessage);
@@ -124,29 +179,35 @@ public class ChatBotUI extends JFrame {
         }
     }
 
+    // Hands the message to the service; only the final transcript update runs on the EDT
     private void processUserMessage(String message) {
-        try {
-            String response = chatBotService.processQuery(message);
-            appendMessage("Bot : "+response, botMessageColor);  // Display bot response in bot color
-            chatBotService.logChatHistory(message, response);
-            SoundNotifier.playSound("message_received.wav");
-        } catch (Exception e) {
-            appendMessage("Oops! Something went wrong. Please try again.", botMessageColor);
-            e.printStackTrace();
-        }
+        CompletableFuture<String> request = chatClient.send(message);
+        pendingRequests.add(request);
+        updateTypingIndicator();
+
+        request.whenComplete((response, error) -> {
+            if (error == null) {
+                SoundNotifier.playSound("message_received.wav");
+            } else if (!(error instanceof CancellationException)) {
+                ChatLog.error("chat.failed", error);
+            }
+            String reply = error == null ? response : ChatBotService.describeFailure(error);
+            SwingUtilities.invokeLater(() -> {
+                pendingRequests.remove(request);
+                updateTypingIndicator();
+                chatArea.append(ChatTranscript.Speaker.BOT, reply);  // Display bot response in bot color
+            });
+        });
     }
 
-    // Helper method to append message to chat area with a specific color
-    private void appendMessage(String message, Color color) {
-        StyledDocument doc = chatArea.getStyledDocument();
-        Style style = chatArea.addStyle("style", null);
-        StyleConstants.setForeground(style, color);
-        StyleConstants.setFontSize(style, fontSize);
-
-        try {
-            doc.insertString(doc.getLength(), message + "\n", style);
-        } catch (BadLocationException e) {
-            e.printStackTrace();
+    // Cancels every request that is still waiting for a response
+    private void cancelPendingRequests() {
+        for (CompletableFuture<String> request : new ArrayList<>(pendingRequests)) {
+            request.cancel(true);
         }
     }
+
+    private void updateTypingIndicator() {
+        typingLabel.setText(pendingRequests.isEmpty() ? " " : "Bot is typing... (Esc to cancel)");
+    }
 }
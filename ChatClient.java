@@ -0,0 +1,16 @@
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Something the chat window can send messages to: the in-process {@link ChatBotService}
+ * or a remote {@link ChatServer} through {@link HttpChatClient}.
+ */
+public interface ChatClient {
+
+    /**
+     * Sends a user message to the bot.
+     *
+     * @param message The user's message
+     * @return A future for the bot's response
+     */
+    CompletableFuture<String> send(String message);
+}
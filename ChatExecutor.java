@@ -0,0 +1,394 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Runs chat messages with a bound on the work the process takes on.
+ *
+ * In {@link Mode#POOL} mode a fixed set of worker threads takes messages from a bounded queue; in
+ * {@link Mode#VIRTUAL} mode every message gets its own virtual thread (JDK 21+) and only the
+ * number in flight is bounded. Either way, a message that doesn't fit is handled by the
+ * {@link OverflowPolicy}, and a shed message is answered with a {@link BusyException} instead of
+ * waiting in an ever-growing queue. A message whose deadline passes while it is queued is
+ * skipped without running.
+ *
+ * One {@link #shared()} executor serves every {@link ChatBotService} in the process, configured with
+ * {@code chatbot.executor.mode} ({@code pool}), {@code chatbot.executor.threads} (twice the
+ * processors, at least 10), {@code chatbot.executor.queueCapacity} (1000),
+ * {@code chatbot.executor.maxInFlight} (virtual mode, 1000), {@code chatbot.executor.overflowPolicy}
+ * ({@code BLOCK}) and {@code chatbot.executor.blockTimeoutMillis} (100).
+ */
+public class ChatExecutor implements AutoCloseable {
+
+    public enum Mode {
+        POOL, VIRTUAL
+    }
+
+    /**
+     * What {@link #submit} does when the executor is saturated.
+     */
+    public enum OverflowPolicy {
+        BLOCK,        // Wait up to the block timeout for room, then shed the new message
+        DROP_NEWEST,  // Shed the new message immediately
+        DROP_OLDEST   // Shed the longest-queued message to make room (as DROP_NEWEST in virtual mode)
+    }
+
+    /**
+     * A message was shed because the executor is saturated or shut down.
+     */
+    public static class BusyException extends RejectedExecutionException {
+        public BusyException(String message) {
+            super(message);
+        }
+    }
+
+    private static final Metrics.Histogram QUEUE_WAIT = Metrics.histogram("chatbot_executor_queue_wait_seconds");
+    private static final Metrics.Counter SHED = Metrics.counter("chatbot_executor_shed_total");
+    private static final Metrics.Counter EXPIRED = Metrics.counter("chatbot_executor_expired_total");
+
+    private static ChatExecutor shared;  // Guarded by ChatExecutor.class
+
+    private final Mode mode;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutMillis;
+    private final ThreadPoolExecutor pool;      // POOL mode
+    private final ExecutorService virtual;      // VIRTUAL mode
+    private final Semaphore admission;          // VIRTUAL mode
+    private final int capacity;                 // Messages running or queued before shedding starts
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * @param mode               Thread pool or virtual threads
+     * @param threads            Worker threads in POOL mode
+     * @param queueCapacity      Messages that may wait for a worker in POOL mode
+     * @param maxInFlight        Messages that may run at once in VIRTUAL mode
+     * @param policy             What to do when saturated
+     * @param blockTimeoutMillis How long {@link OverflowPolicy#BLOCK} waits for room
+     */
+    public ChatExecutor(Mode mode, int threads, int queueCapacity, int maxInFlight,
+                        OverflowPolicy policy, long blockTimeoutMillis) {
+        this.mode = mode;
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        if (mode == Mode.POOL) {
+            AtomicInteger counter = new AtomicInteger();
+            this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(queueCapacity), r -> {
+                        Thread t = new Thread(r, "chat-worker-" + counter.incrementAndGet());
+                        t.setDaemon(true);  // Shutdown goes through close()
+                        return t;
+                    }, (r, executor) -> {
+                        throw executor.isShutdown()
+                                ? new RejectedExecutionException("Chat executor is shut down")
+                                : new BusyException("Chat executor is saturated");
+                    });
+            pool.prestartAllCoreThreads();
+            this.virtual = null;
+            this.admission = null;
+            this.capacity = threads + queueCapacity;
+        } else {
+            this.pool = null;
+            this.virtual = ChatServer.newRequestExecutor();  // Virtual threads where the JDK has them
+            this.admission = new Semaphore(maxInFlight);
+            this.capacity = maxInFlight;
+        }
+    }
+
+    /**
+     * Returns the process-wide executor, created from the {@code chatbot.executor.*} settings on
+     * first use and drained on JVM shutdown.
+     *
+     * @return The shared executor
+     */
+    public static synchronized ChatExecutor shared() {
+        if (shared == null) {
+            int threads = Integer.getInteger("chatbot.executor.threads",
+                    Math.max(10, 2 * Runtime.getRuntime().availableProcessors()));
+            ChatExecutor executor = new ChatExecutor(
+                    Mode.valueOf(System.getProperty("chatbot.executor.mode", "pool").toUpperCase()),
+                    threads,
+                    Integer.getInteger("chatbot.executor.queueCapacity", 1_000),
+                    Integer.getInteger("chatbot.executor.maxInFlight", 1_000),
+                    OverflowPolicy.valueOf(System.getProperty("chatbot.executor.overflowPolicy", "BLOCK")),
+                    Long.getLong("chatbot.executor.blockTimeoutMillis", 100));
+            Metrics.gauge("chatbot_executor_in_flight", executor::getInFlight);
+            Metrics.gauge("chatbot_executor_running", executor::getRunning);
+            Metrics.gauge("chatbot_executor_queued", executor::getQueued);
+            Metrics.gauge("chatbot_executor_saturation", () -> (double) executor.getInFlight() / executor.capacity);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> executor.close(10_000), "chat-executor-shutdown"));
+            shared = executor;
+        }
+        return shared;
+    }
+
+    /**
+     * Submits a message's work.
+     *
+     * @param work           The work; runs at most once
+     * @param deadlineMillis Time from now after which the work is no longer worth starting
+     * @param onDropped      Called instead of the work if it never runs: shed now or later
+     *                       ({@link BusyException}), expired in the queue ({@link TimeoutException})
+     *                       or cancelled through the returned future ({@link CancellationException})
+     * @return A future for the work, to cancel it
+     */
+    public Future<?> submit(Runnable work, long deadlineMillis, Consumer<Exception> onDropped) {
+        Task task = new Task(new Work(work), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis), onDropped);
+        if (closed) {
+            task.shed(new BusyException("Chat executor is shut down"));
+            return task;
+        }
+        if (mode == Mode.POOL) {
+            submitToPool(task);
+        } else {
+            submitVirtual(task);
+        }
+        return task;
+    }
+
+    private void submitToPool(Task task) {
+        task.admit();
+        try {
+            pool.execute(task);
+            return;
+        } catch (BusyException e) {
+            // Saturated; the policy decides below
+        } catch (RejectedExecutionException e) {
+            task.shed(new BusyException("Chat executor is shut down"));
+            return;
+        }
+        switch (policy) {
+            case BLOCK:
+                try {
+                    if (pool.getQueue().offer(task, blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        shedIfClosed(task);
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            case DROP_OLDEST:
+                for (int attempt = 0; attempt < 3; attempt++) {
+                    Runnable oldest = pool.getQueue().poll();
+                    if (oldest instanceof Task) {
+                        ((Task) oldest).shed(new BusyException("Shed for a newer message"));
+                    }
+                    if (pool.getQueue().offer(task)) {
+                        shedIfClosed(task);
+                        return;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        task.shed(new BusyException("Chat executor is saturated"));
+    }
+
+    // A task put straight on the queue can miss a concurrent close(); the workers may be gone already
+    private void shedIfClosed(Task task) {
+        if (pool.isShutdown() && pool.remove(task)) {
+            task.shed(new BusyException("Chat executor is shut down"));
+        }
+    }
+
+    private void submitVirtual(Task task) {
+        boolean admitted;
+        try {
+            admitted = policy == OverflowPolicy.BLOCK
+                    ? admission.tryAcquire(blockTimeoutMillis, TimeUnit.MILLISECONDS)
+                    : admission.tryAcquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        if (!admitted) {
+            task.shed(new BusyException("Chat executor is saturated"));
+            return;
+        }
+        task.admit();
+        try {
+            virtual.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.shed(new BusyException("Chat executor is shut down"));
+        }
+    }
+
+    /**
+     * @return Messages admitted and not finished yet, running or queued
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return Messages being worked on
+     */
+    public int getRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return Messages waiting for a worker (always 0 in virtual mode)
+     */
+    public int getQueued() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    /**
+     * @return Messages shed so far
+     */
+    public long getShedCount() {
+        return shed.sum();
+    }
+
+    /**
+     * @return Messages that expired in the queue so far
+     */
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    /**
+     * Stops taking messages and waits up to 30 seconds for admitted ones to finish.
+     */
+    @Override
+    public void close() {
+        close(30_000);
+    }
+
+    /**
+     * Stops taking messages and waits for admitted ones to finish.
+     *
+     * @param timeoutMillis Maximum time to wait
+     * @return true if everything finished in time
+     */
+    public boolean close(long timeoutMillis) {
+        closed = true;
+        ExecutorService executor = pool != null ? pool : virtual;
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * A message's work, with its deadline and what to do if it never runs. Exactly one of the
+     * work and {@code onDropped} runs, whichever claims the task first.
+     */
+    private class Task extends FutureTask<Void> {
+        private final long queuedAt = System.nanoTime();
+        private final long deadlineNanos;
+        private final Work work;
+        private final Consumer<Exception> onDropped;
+        private volatile Exception dropReason;  // Set before cancelling; null if the caller cancelled
+        private volatile boolean admitted;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Task(Work work, long deadlineNanos, Consumer<Exception> onDropped) {
+            super(work);
+            this.work = work;
+            this.deadlineNanos = deadlineNanos;
+            this.onDropped = onDropped;
+        }
+
+        void admit() {
+            admitted = true;
+            inFlight.incrementAndGet();
+        }
+
+        @Override
+        public void run() {
+            try {
+                long now = System.nanoTime();
+                QUEUE_WAIT.observeNanos(now - queuedAt);
+                if (now - deadlineNanos > 0) {
+                    dropReason = new TimeoutException("Deadline passed while queued");
+                    if (cancel(false)) {
+                        expired.increment();
+                        EXPIRED.increment();
+                    }
+                    return;
+                }
+                running.incrementAndGet();
+                try {
+                    super.run();
+                } finally {
+                    running.decrementAndGet();
+                }
+            } finally {
+                // Only now, not in done(): cancel(true) completes the future while the interrupted work may still run
+                release();
+            }
+        }
+
+        /**
+         * Gives back the task's in-flight slot, once: when the runner is done with it, or when
+         * the task is cancelled before its work started and so may never reach a runner.
+         */
+        private void release() {
+            if (admitted && released.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+                if (admission != null) {
+                    admission.release();
+                }
+            }
+        }
+
+        /**
+         * Drops the task before it runs; does nothing if it already started.
+         */
+        void shed(BusyException reason) {
+            dropReason = reason;
+            if (cancel(false)) {
+                shed.increment();
+                SHED.increment();
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() && work.claimed.compareAndSet(false, true)) {
+                release();  // The work can't start any more
+                Exception reason = dropReason;
+                onDropped.accept(reason != null ? reason : new CancellationException("Cancelled before it started"));
+            }
+        }
+    }
+
+    private static class Work implements Callable<Void> {
+        final Runnable runnable;
+        final AtomicBoolean claimed = new AtomicBoolean();
+
+        Work(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        public Void call() {
+            if (claimed.compareAndSet(false, true)) {
+                runnable.run();
+            }
+            return null;
+        }
+    }
+}
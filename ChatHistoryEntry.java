@@ -0,0 +1,49 @@
+/**
+ * One stored chat turn from the chat_history table.
+ */
+public class ChatHistoryEntry {
+    private final long id;
+    private final int userId;
+    private final String message;
+    private final String response;
+    private final long createdAt;  // Epoch millis, 0 if the table has no created_at column
+
+    public ChatHistoryEntry(long id, int userId, String message, String response, long createdAt) {
+        this.id = id;
+        this.userId = userId;
+        this.message = message;
+        this.response = response;
+        this.createdAt = createdAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getResponse() {
+        return response;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "ChatHistoryEntry{" +
+               "id=" + id +
+               ", userId=" + userId +
+               ", message='" + message + '\'' +
+               ", response='" + response + '\'' +
+               ", createdAt=" + createdAt +
+               '}';
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Exports a user's chat history as CSV or JSON Lines, streaming it to the output one keyset page
+ * at a time so the whole history is never held in memory. {@link #read} parses the files back.
+ *
+ * Usage: {@code java ChatHistoryExport <userId> [csv|jsonl] [file]} (writes to stdout without a file).
+ */
+public class ChatHistoryExport {
+
+    public enum Format {
+        CSV("text/csv; charset=utf-8"),
+        JSONL("application/x-ndjson");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length < 1) {
+            System.err.println("Usage: java ChatHistoryExport <userId> [csv|jsonl] [file]");
+            System.exit(2);
+        }
+        int userId = Integer.parseInt(args[0]);
+        Format format = args.length > 1 ? Format.valueOf(args[1].toUpperCase()) : Format.CSV;
+        try (Writer out = args.length > 2
+                ? Files.newBufferedWriter(Paths.get(args[2]), StandardCharsets.UTF_8)
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            long rows = export(userId, 0, Long.MAX_VALUE, format, out);
+            out.flush();
+            System.err.println("Exported " + rows + " turns");
+        }
+        DatabaseHelper.shutdown();
+    }
+
+    /**
+     * Writes a user's chat history, oldest first.
+     *
+     * @param userId      The ID of the user
+     * @param sinceMillis Only turns at or after this time (epoch millis); 0 for no lower bound
+     * @param untilMillis Only turns before this time; {@link Long#MAX_VALUE} for no upper bound
+     * @param format      Output format
+     * @param out         Where to write; not closed
+     * @return Number of turns written
+     * @throws IOException  if writing fails
+     * @throws SQLException if reading the history fails
+     */
+    public static long export(int userId, long sinceMillis, long untilMillis, Format format, Writer out)
+            throws IOException, SQLException {
+        if (format == Format.CSV) {
+            out.write("id,user_id,created_at,message,response\n");
+        }
+        try {
+            return DatabaseHelper.forEachChatHistory(userId, sinceMillis, untilMillis, entry -> {
+                try {
+                    out.write(format == Format.CSV ? toCsv(entry) : toJsonLine(entry));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Reads turns written by {@link #export}, e.g. to replay them with {@link ChatReplay}.
+     *
+     * @param in     The exported data; not closed
+     * @param format Its format
+     * @param sink   Receives each turn, in file order
+     * @return Number of turns read
+     * @throws IOException if reading fails or a row is malformed
+     */
+    public static long read(Reader in, Format format, Consumer<ChatHistoryEntry> sink) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        long rows = 0;
+        if (format == Format.CSV) {
+            List<String> header = readCsvRecord(reader);
+            if (header == null) {
+                return 0;
+            }
+            for (List<String> record = readCsvRecord(reader); record != null; record = readCsvRecord(reader)) {
+                if (record.size() != 5) {
+                    throw new IOException("Expected 5 fields in row " + (rows + 1) + ", got " + record.size());
+                }
+                try {
+                    sink.accept(new ChatHistoryEntry(Long.parseLong(record.get(0)), Integer.parseInt(record.get(1)),
+                            record.get(3), record.get(4), parseInstant(record.get(2))));
+                } catch (RuntimeException e) {
+                    throw new IOException("Malformed row " + (rows + 1) + ": " + e.getMessage(), e);
+                }
+                rows++;
+            }
+        } else {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    Map<String, Object> row = Json.parseObject(line);
+                    sink.accept(new ChatHistoryEntry(((Number) row.get("id")).longValue(),
+                            ((Number) row.get("userId")).intValue(), (String) row.get("message"),
+                            (String) row.get("response"), parseInstant((String) row.get("createdAt"))));
+                } catch (RuntimeException e) {
+                    throw new IOException("Malformed line " + (rows + 1) + ": " + e.getMessage(), e);
+                }
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static long parseInstant(String text) {
+        return text == null || text.isEmpty() ? 0 : Instant.parse(text).toEpochMilli();
+    }
+
+    /**
+     * Reads one RFC 4180 record, which may span lines inside quoted fields.
+     *
+     * @param reader The CSV input
+     * @return The record's fields, or null at the end of the input
+     * @throws IOException if reading fails
+     */
+    static List<String> readCsvRecord(BufferedReader reader) throws IOException {
+        int c = reader.read();
+        if (c < 0) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (c >= 0) {
+            if (quoted) {
+                if (c == '"') {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        field.append('"');  // Doubled quote
+                    } else {
+                        reader.reset();
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    static String toCsv(ChatHistoryEntry entry) {
+        StringBuilder line = new StringBuilder();
+        line.append(entry.getId()).append(',')
+            .append(entry.getUserId()).append(',')
+            .append(entry.getCreatedAt() == 0 ? "" : Instant.ofEpochMilli(entry.getCreatedAt()).toString()).append(',');
+        appendCsvField(line, entry.getMessage());
+        line.append(',');
+        appendCsvField(line, entry.getResponse());
+        return line.append('\n').toString();
+    }
+
+    static String toJsonLine(ChatHistoryEntry entry) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", entry.getId());
+        row.put("userId", entry.getUserId());
+        row.put("createdAt", entry.getCreatedAt() == 0 ? null : Instant.ofEpochMilli(entry.getCreatedAt()).toString());
+        row.put("message", entry.getMessage());
+        row.put("response", entry.getResponse());
+        return Json.toJson(row) + "\n";
+    }
+
+    // RFC 4180: quote fields containing separators, quotes or line breaks, doubling inner quotes
+    private static void appendCsvField(StringBuilder line, String value) {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            line.append(value);
+            return;
+        }
+        line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
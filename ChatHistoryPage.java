@@ -0,0 +1,46 @@
+import java.util.List;
+
+/**
+ * One page of chat history plus the cursor for the page after it.
+ *
+ * Cursors are opaque strings encoding the {@code (created_at, id)} of the last row returned, so
+ * the next page starts right after it no matter how many rows were added in the meantime.
+ */
+public class ChatHistoryPage {
+    private final List<ChatHistoryEntry> entries;
+    private final String nextCursor;
+
+    public ChatHistoryPage(List<ChatHistoryEntry> entries, String nextCursor) {
+        this.entries = entries;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<ChatHistoryEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return The cursor to pass for the next page, or null if this was the last one
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    static String encodeCursor(ChatHistoryEntry last) {
+        return last.getCreatedAt() + ":" + last.getId();
+    }
+
+    /**
+     * @param cursor A cursor from {@link #getNextCursor()}
+     * @return The {@code created_at} millis and id it encodes
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    static long[] decodeCursor(String cursor) {
+        int colon = cursor.indexOf(':');
+        try {
+            return new long[]{Long.parseLong(cursor.substring(0, colon)), Long.parseLong(cursor.substring(colon + 1))};
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid history cursor: " + cursor, e);
+        }
+    }
+}
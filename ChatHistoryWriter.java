@@ -0,0 +1,328 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind logger for chat history.
+ *
+ * Callers enqueue entries and return immediately; a background thread drains the bounded queue
+ * and hands entries to the sink in batches. A batch is written as soon as it is full or once the
+ * oldest entry in it has waited {@code flushIntervalMillis}. {@link #close()} writes everything
+ * still queued before returning.
+ */
+public class ChatHistoryWriter implements AutoCloseable {
+
+    /**
+     * What {@link #submit} does when the queue is full.
+     */
+    public enum OverflowPolicy {
+        BLOCK,        // Wait up to the block timeout for space, then drop the new entry
+        DROP_NEWEST,  // Drop the new entry immediately
+        DROP_OLDEST   // Make room by dropping the oldest queued entry
+    }
+
+    /**
+     * Destination of the batches, e.g. a JDBC batch insert.
+     */
+    public interface Sink {
+        void write(List<Entry> batch) throws SQLException;
+    }
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final Metrics.Histogram FLUSH_TIME = Metrics.histogram("chatbot_history_flush_seconds");
+
+    private final Sink sink;
+    private final BlockingQueue<Entry> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutMillis;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // Entries accepted vs. entries finished (written or given up on), for awaitFlushed()
+    private final AtomicLong accepted = new AtomicLong();
+    private long finished;  // Guarded by this
+
+    // Metrics
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder totalFlushNanos = new LongAdder();
+    private volatile long lastFlushNanos;
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+
+    /**
+     * @param sink                Where batches are written
+     * @param capacity            Maximum number of queued entries
+     * @param batchSize           Maximum entries per batch
+     * @param flushIntervalMillis Maximum time an entry waits for its batch to fill up
+     * @param policy              What to do when the queue is full
+     * @param blockTimeoutMillis  How long {@link OverflowPolicy#BLOCK} waits for space
+     */
+    public ChatHistoryWriter(Sink sink, int capacity, int batchSize, long flushIntervalMillis,
+                             OverflowPolicy policy, long blockTimeoutMillis) {
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+
+        this.writerThread = new Thread(this::run, "chat-history-writer");
+        writerThread.setDaemon(true);  // Shutdown goes through close(), which drains the queue
+        writerThread.start();
+    }
+
+    /**
+     * Queues a chat history entry for writing.
+     *
+     * @param userId   The ID of the user
+     * @param message  The user's message
+     * @param response The bot's response
+     * @return true if the entry was queued (or written), false if it was dropped
+     */
+    public boolean submit(int userId, String message, String response) {
+        Entry entry = new Entry(userId, message, response, System.currentTimeMillis());
+        if (!running) {
+            // Writer is shut down; write synchronously rather than lose the entry
+            accepted.incrementAndGet();
+            writeBatch(List.of(entry));
+            return true;
+        }
+
+        boolean queued;
+        switch (policy) {
+            case BLOCK:
+                try {
+                    queued = queue.offer(entry, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    queued = false;
+                }
+                break;
+            case DROP_OLDEST:
+                while (!(queued = queue.offer(entry))) {
+                    if (queue.poll() != null) {
+                        dropped.increment();
+                        markFinished(1);
+                    }
+                }
+                break;
+            default:
+                queued = queue.offer(entry);
+                break;
+        }
+
+        if (queued) {
+            accepted.incrementAndGet();
+        } else {
+            dropped.increment();
+        }
+        return queued;
+    }
+
+    /**
+     * Waits until every entry submitted before this call has been written.
+     *
+     * @param timeoutMillis Maximum time to wait
+     * @return true if everything was flushed in time
+     */
+    public synchronized boolean awaitFlushed(long timeoutMillis) throws InterruptedException {
+        long target = accepted.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (finished < target) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting queued entries and writes everything that is still pending.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writerThread.join(30_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // The writer thread normally empties the queue; pick up anything that raced with shutdown
+        List<Entry> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            writeBatch(rest);
+        }
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            Entry first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);  // Wake up regularly to notice close()
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (first == null) {
+                continue;
+            }
+
+            batch.add(first);
+            long deadline = System.nanoTime() + flushIntervalNanos;
+            while (batch.size() < batchSize) {
+                queue.drainTo(batch, batchSize - batch.size());
+                long remaining = deadline - System.nanoTime();
+                if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                    break;
+                }
+                try {
+                    Entry next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) {
+        long start = System.nanoTime();
+        boolean ok = false;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS && !ok; attempt++) {
+            try {
+                sink.write(batch);
+                ok = true;
+            } catch (SQLException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    ChatLog.error("history.write", e, "entries", batch.size(), "attempts", attempt);
+                } else {
+                    try {
+                        Thread.sleep(100L * attempt);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        FLUSH_TIME.observeNanos(elapsed);
+        lastFlushNanos = elapsed;
+        totalFlushNanos.add(elapsed);
+        maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+        batches.increment();
+        if (ok) {
+            written.add(batch.size());
+        } else {
+            failed.add(batch.size());
+        }
+
+        markFinished(batch.size());
+    }
+
+    private synchronized void markFinished(int count) {
+        finished += count;
+        notifyAll();
+    }
+
+    /**
+     * @return Entries currently waiting to be written
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return Entries successfully written
+     */
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    /**
+     * @return Entries dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return Entries lost because their batch kept failing
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * @return Duration of the most recent batch write, in microseconds
+     */
+    public long getLastFlushMicros() {
+        return lastFlushNanos / 1_000;
+    }
+
+    /**
+     * @return Average batch write duration, in microseconds
+     */
+    public long getAverageFlushMicros() {
+        long count = batches.sum();
+        return count == 0 ? 0 : totalFlushNanos.sum() / count / 1_000;
+    }
+
+    /**
+     * @return Longest batch write duration, in microseconds
+     */
+    public long getMaxFlushMicros() {
+        return maxFlushNanos.get() / 1_000;
+    }
+
+    /**
+     * One chat history row waiting to be written.
+     */
+    public static class Entry {
+        private final int userId;
+        private final String message;
+        private final String response;
+        private final long timestamp;  // Epoch millis when the turn was submitted; stored as created_at
+
+        public Entry(int userId, String message, String response, long timestamp) {
+            this.userId = userId;
+            this.message = message;
+            this.response = response;
+            this.timestamp = timestamp;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public String getResponse() {
+            return response;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
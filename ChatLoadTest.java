@@ -0,0 +1,79 @@
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load-test harness for {@link ChatServer}.
+ *
+ * Opens many concurrent sessions, each sending a short scripted conversation one message at a
+ * time, and reports p50/p99 latency and throughput.
+ *
+ * Usage: {@code java ChatLoadTest [serverUrl] [sessions] [messagesPerSession]}, e.g.
+ * {@code java ChatLoadTest http://localhost:8080 1000 5}
+ */
+public class ChatLoadTest {
+    private static final String[] SCRIPT = {
+            "where is my order",
+            "yes",
+            "how do i get a refund",
+            "confirm",
+            "no thanks"
+    };
+
+    public static void main(String[] args) throws Exception {
+        String serverUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : SCRIPT.length;
+
+        ExecutorService executor = ChatServer.newRequestExecutor();
+        HttpClient http = HttpClient.newBuilder().executor(executor).build();
+        long[] latencies = new long[sessions * messages];
+        AtomicInteger recorded = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> conversations = new ArrayList<>(sessions);
+        for (int s = 0; s < sessions; s++) {
+            HttpChatClient client = new HttpChatClient(http, serverUrl, null);
+            CompletableFuture<Void> conversation = CompletableFuture.completedFuture(null);
+            for (int m = 0; m < messages; m++) {
+                String message = SCRIPT[m % SCRIPT.length];
+                // Messages of one session are sent in order, like a real user would
+                conversation = conversation.thenCompose(ignored -> {
+                    long sent = System.nanoTime();
+                    return client.send(message).handle((response, error) -> {
+                        if (error != null) {
+                            failures.incrementAndGet();
+                        } else {
+                            latencies[recorded.getAndIncrement()] = System.nanoTime() - sent;
+                        }
+                        return null;
+                    });
+                });
+            }
+            conversations.add(conversation);
+        }
+        CompletableFuture.allOf(conversations.toArray(new CompletableFuture<?>[0])).join();
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        int count = recorded.get();
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        System.out.printf("sessions=%d messages=%d ok=%d failed=%d elapsed=%.1fs throughput=%.0f msg/s%n",
+                sessions, sessions * messages, count, failures.get(), elapsed / 1e9, count / (elapsed / 1e9));
+        if (count > 0) {
+            System.out.printf("p50=%.2fms p99=%.2fms max=%.2fms%n",
+                    percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6, sorted[count - 1] / 1e6);
+        }
+    }
+
+    static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+
+/**
+ * Small structured logger writing one logfmt line per event to stderr, e.g.
+ * {@code ts=2024-05-01T10:00:00Z level=WARN event=faq.lookup error="..." query="order status"}.
+ *
+ * The level is read once from {@code -Dchatbot.log.level} (DEBUG, INFO, WARN, ERROR or OFF;
+ * default INFO). Calls below the level return before formatting anything; hot paths that would
+ * build arguments should check {@link #isDebugEnabled()} first.
+ */
+public final class ChatLog {
+    public static final int DEBUG = 0;
+    public static final int INFO = 1;
+    public static final int WARN = 2;
+    public static final int ERROR = 3;
+    public static final int OFF = 4;
+
+    private static final String[] NAMES = {"DEBUG", "INFO", "WARN", "ERROR"};
+    private static final int LEVEL = parseLevel(System.getProperty("chatbot.log.level", "INFO"));
+    private static final int MAX_VALUE_LENGTH = 200;  // Keeps long user messages from flooding the log
+
+    private ChatLog() {
+    }
+
+    public static boolean isDebugEnabled() {
+        return LEVEL <= DEBUG;
+    }
+
+    public static boolean isEnabled(int level) {
+        return level >= LEVEL;
+    }
+
+    /**
+     * @param event      Dotted event name, e.g. {@code query.processed}
+     * @param keyValues  Field names and values, alternating
+     */
+    public static void debug(String event, Object... keyValues) {
+        if (LEVEL <= DEBUG) {
+            write(DEBUG, event, null, keyValues);
+        }
+    }
+
+    public static void info(String event, Object... keyValues) {
+        if (LEVEL <= INFO) {
+            write(INFO, event, null, keyValues);
+        }
+    }
+
+    public static void warn(String event, Object... keyValues) {
+        if (LEVEL <= WARN) {
+            write(WARN, event, null, keyValues);
+        }
+    }
+
+    public static void warn(String event, Throwable error, Object... keyValues) {
+        if (LEVEL <= WARN) {
+            write(WARN, event, error, keyValues);
+        }
+    }
+
+    /**
+     * Logs an error with its stack trace on the following lines.
+     *
+     * @param event     Dotted event name
+     * @param error     The failure
+     * @param keyValues Field names and values, alternating
+     */
+    public static void error(String event, Throwable error, Object... keyValues) {
+        if (LEVEL <= ERROR) {
+            write(ERROR, event, error, keyValues);
+        }
+    }
+
+    private static void write(int level, String event, Throwable error, Object[] keyValues) {
+        StringBuilder line = new StringBuilder(128);
+        line.append("ts=").append(Instant.now())
+            .append(" level=").append(NAMES[level])
+            .append(" event=").append(event)
+            .append(" thread=");
+        appendValue(line, Thread.currentThread().getName());
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            line.append(' ').append(keyValues[i]).append('=');
+            appendValue(line, String.valueOf(keyValues[i + 1]));
+        }
+        if (error != null) {
+            line.append(" error=");
+            appendValue(line, String.valueOf(error));
+            StringWriter trace = new StringWriter();
+            error.printStackTrace(new PrintWriter(trace));
+            line.append('\n').append(trace.toString().stripTrailing());
+        }
+        line.append('\n');
+        System.err.print(line);  // One call per event so lines from different threads don't interleave
+    }
+
+    private static void appendValue(StringBuilder line, String value) {
+        if (value.length() > MAX_VALUE_LENGTH) {
+            value = value.substring(0, MAX_VALUE_LENGTH) + "...";
+        }
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c <= ' ' || c == '"' || c == '=';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        Json.escape(line, value);
+        line.append('"');
+    }
+
+    private static int parseLevel(String name) {
+        switch (name.trim().toUpperCase()) {
+            case "DEBUG":
+                return DEBUG;
+            case "WARN":
+                return WARN;
+            case "ERROR":
+                return ERROR;
+            case "OFF":
+                return OFF;
+            default:
+                return INFO;
+        }
+    }
+}
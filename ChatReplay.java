@@ -0,0 +1,382 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays recorded conversations through {@link ChatBotService#processQuery} to catch throughput
+ * regressions and behavior changes before a release.
+ *
+ * Input is a {@code chat_history} export written by {@link ChatHistoryExport} (CSV or JSON Lines),
+ * or synthetic conversations over synthetic FAQs. Each user's turns are replayed in their recorded
+ * order on one conversation context, so follow-ups see the same history they did originally;
+ * different users run concurrently. Storage is an embedded H2 database, and replayed turns are not
+ * written to its history. The report has latency percentiles, throughput, the fallback rate before
+ * and after, and how many answers differ from the recorded ones; with {@code --diffs} every
+ * differing turn is written out.
+ *
+ * Latency is measured from the moment a turn is handed to {@code processQuery}. With a target
+ * rate, turns are released on a fixed schedule in recorded order, each to whichever worker is
+ * free as soon as the conversation's previous turn is done, and {@code maxLagMillis} shows how
+ * much later than its slot a turn started; a large lag means the rate wasn't sustained.
+ *
+ * Usage: {@code java -cp .:h2.jar:corenlp/* ChatReplay [--option=value ...]}
+ * <ul>
+ *   <li>{@code --input=history.jsonl} export to replay ({@code .csv} or {@code .jsonl}); synthetic
+ *       conversations without it</li>
+ *   <li>{@code --messages=5000 --turns=5 --faqs=10000} size of the synthetic run</li>
+ *   <li>{@code --db=jdbc:h2:mem:chatreplay;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1}
+ *       embedded database; with {@code --input} it should hold the FAQs the recording was made
+ *       with (or pass {@code -Dchatbot.faq.snapshot}), in synthetic mode its faqs table is replaced</li>
+ *   <li>{@code --concurrency=16} conversations replayed at once</li>
+ *   <li>{@code --rate=0} turns per second across all conversations; 0 for as fast as possible</li>
+ *   <li>{@code --diffs=replay-diffs.jsonl} file for the turns whose answer changed</li>
+ *   <li>{@code --out=replay-results.json} result file</li>
+ * </ul>
+ * Set {@code -Dchatbot.version} to label the results.
+ */
+public class ChatReplay {
+    private static final String DEFAULT_DB = "jdbc:h2:mem:chatreplay;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+    private final Map<String, String> options;
+
+    // Per-run tallies; latencies are indexed by a turn's position in the schedule
+    private long[] latencies;
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder recordedFallbacks = new LongAdder();
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder changed = new LongAdder();
+    private final LongAdder newFallbacks = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    ChatReplay(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String[] pair = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(pair[0], pair.length > 1 ? pair[1] : "true");
+        }
+        try {
+            new ChatReplay(options).run();
+        } finally {
+            DatabaseHelper.shutdown();
+        }
+    }
+
+    void run() throws Exception {
+        // DatabaseHelper reads its settings once, so point it at the embedded database first
+        System.setProperty("chatbot.storage", "h2");
+        System.setProperty("chatbot.db.url", option("db", DEFAULT_DB));
+        System.setProperty("chatbot.db.user", option("dbUser", "sa"));
+        System.setProperty("chatbot.db.password", option("dbPassword", ""));
+
+        String input = options.get("input");
+        List<ChatHistoryEntry> turns = input != null ? readExport(input) : synthesize();
+        if (turns.isEmpty()) {
+            System.out.println("Nothing to replay");
+            return;
+        }
+        ChatBotService.loadKeywordResponses();
+
+        // Recorded order decides the schedule; each conversation keeps its own turns in that order
+        turns.sort(Comparator.comparingLong(ChatHistoryEntry::getCreatedAt).thenComparingLong(ChatHistoryEntry::getId));
+        int concurrency = Integer.parseInt(option("concurrency", "16"));
+        double rate = Double.parseDouble(option("rate", "0"));
+        latencies = new long[turns.size()];
+        ChatBotService service = new ChatBotService(ChatExecutor.shared());
+        ConversationStore store = service.getConversations();
+        Map<Integer, Conversation> byUser = new HashMap<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger workerCount = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency,
+                r -> new Thread(r, "replay-" + workerCount.getAndIncrement()));
+
+        try (DiffWriter diffs = new DiffWriter(options.get("diffs"))) {
+            long start = System.nanoTime();
+            // Turns are released one by one when due, so no worker ever waits on a conversation's
+            // later turns while other conversations have turns ready
+            for (int i = 0; i < turns.size() && failure.get() == null; i++) {
+                ChatHistoryEntry entry = turns.get(i);
+                long due = rate > 0 ? start + (long) (i * 1e9 / rate) : start;
+                for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+                Conversation conversation = byUser.computeIfAbsent(entry.getUserId(),
+                        id -> new Conversation(store.get("replay-" + id)));
+                if (conversation.release(new Turn(i, due, entry))) {
+                    workers.execute(() -> {
+                        try {
+                            for (Turn turn = conversation.next(); turn != null; turn = conversation.next()) {
+                                replay(service, store, conversation.context, turn, rate, diffs);
+                            }
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    });
+                }
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            long elapsed = System.nanoTime() - start;
+            if (failure.get() != null) {
+                throw new IllegalStateException("Replay failed", failure.get());
+            }
+            report(turns.size(), byUser.size(), concurrency, rate, elapsed, input);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void replay(ChatBotService service, ConversationStore store, ConversationContext context, Turn turn,
+                        double rate, DiffWriter diffs) throws IOException {
+        ChatHistoryEntry entry = turn.entry;
+        String response;
+        long sent = System.nanoTime();
+        if (rate > 0) {
+            maxLagNanos.accumulateAndGet(sent - turn.due, Math::max);
+        }
+        try {
+            response = service.processQuery(context, entry.getMessage());
+        } catch (RuntimeException e) {
+            errors.increment();
+            latencies[turn.slot] = -1;
+            return;
+        }
+        latencies[turn.slot] = System.nanoTime() - sent;
+        store.recordTurn(context, entry.getMessage(), response);
+
+        boolean fallback = ChatBotService.FALLBACK_RESPONSE.equals(response);
+        if (fallback) {
+            fallbacks.increment();
+        }
+        String expected = entry.getResponse();
+        if (expected == null) {
+            return;  // Synthetic turns have nothing to compare with
+        }
+        recorded.increment();
+        boolean wasFallback = ChatBotService.FALLBACK_RESPONSE.equals(expected.trim());
+        if (wasFallback) {
+            recordedFallbacks.increment();
+        }
+        if (!expected.trim().equals(response.trim())) {
+            changed.increment();
+            if (fallback && !wasFallback) {
+                newFallbacks.increment();
+            }
+            diffs.write(entry, response);
+        }
+    }
+
+    private void report(int total, int users, int concurrency, double rate, long elapsedNanos, String input)
+            throws IOException {
+        long[] sorted = Arrays.stream(latencies).filter(l -> l >= 0).sorted().toArray();
+        long ok = sorted.length;
+        long compared = recorded.sum();
+
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("input", input != null ? input : "synthetic");
+        params.put("turns", total);
+        params.put("conversations", users);
+        params.put("concurrency", concurrency);
+        params.put("rate", rate);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("params", params);
+        result.put("ok", ok);
+        result.put("errors", errors.sum());
+        result.put("elapsedSeconds", round(elapsedNanos / 1e9));
+        result.put("turnsPerSecond", round(ok / (elapsedNanos / 1e9)));
+        result.put("maxLagMillis", round(maxLagNanos.get() / 1e6));
+        result.put("p50Millis", percentileMillis(sorted, 50));
+        result.put("p90Millis", percentileMillis(sorted, 90));
+        result.put("p99Millis", percentileMillis(sorted, 99));
+        result.put("p999Millis", percentileMillis(sorted, 99.9));
+        result.put("maxMillis", ok == 0 ? 0 : round(sorted[sorted.length - 1] / 1e6));
+        result.put("fallbackRate", ok == 0 ? 0 : round4((double) fallbacks.sum() / ok));
+        result.put("compared", compared);
+        result.put("recordedFallbackRate", compared == 0 ? 0 : round4((double) recordedFallbacks.sum() / compared));
+        result.put("changed", changed.sum());
+        result.put("changedRate", compared == 0 ? 0 : round4((double) changed.sum() / compared));
+        result.put("newFallbacks", newFallbacks.sum());
+
+        System.out.printf("turns=%d conversations=%d ok=%d errors=%d elapsed=%.1fs throughput=%.0f turns/s maxLag=%.1fms%n",
+                total, users, ok, errors.sum(), elapsedNanos / 1e9, ok / (elapsedNanos / 1e9), maxLagNanos.get() / 1e6);
+        System.out.printf("p50=%sms p90=%sms p99=%sms p999=%sms max=%sms%n", result.get("p50Millis"),
+                result.get("p90Millis"), result.get("p99Millis"), result.get("p999Millis"), result.get("maxMillis"));
+        System.out.printf("fallback=%s (recorded %s) changed=%d of %d compared, %d new fallbacks%n",
+                result.get("fallbackRate"), result.get("recordedFallbackRate"), changed.sum(), compared,
+                newFallbacks.sum());
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("version", System.getProperty("chatbot.version", "dev"));
+        report.put("timestamp", Instant.now().toString());
+        report.put("java", System.getProperty("java.version"));
+        report.put("cpus", Runtime.getRuntime().availableProcessors());
+        report.put("result", result);
+        String path = option("out", "replay-results.json");
+        try (Writer out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            out.write(Json.toJson(report));
+            out.write('\n');
+        }
+        System.out.println("Results written to " + path);
+    }
+
+    private List<ChatHistoryEntry> readExport(String path) throws IOException {
+        ChatHistoryExport.Format format = path.toLowerCase().endsWith(".csv")
+                ? ChatHistoryExport.Format.CSV : ChatHistoryExport.Format.JSONL;
+        List<ChatHistoryEntry> turns = new ArrayList<>();
+        try (Reader in = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            ChatHistoryExport.read(in, format, turns::add);
+        }
+        System.out.println("Read " + turns.size() + " turns from " + path);
+        return turns;
+    }
+
+    /**
+     * Builds conversations of FAQ fragments, misses and the follow-ups the default rules answer,
+     * over synthetic FAQs loaded into the embedded database. Responses aren't recorded, so
+     * nothing is compared.
+     */
+    private List<ChatHistoryEntry> synthesize() throws Exception {
+        int messages = Integer.parseInt(option("messages", "5000"));
+        int turnsPerUser = Integer.parseInt(option("turns", "5"));
+        SyntheticFAQs data = new SyntheticFAQs(42);
+        List<FAQEntry> faqs = data.faqs(Integer.parseInt(option("faqs", "10000")));
+        try (Connection conn = DatabaseHelper.getConnection()) {
+            SyntheticFAQs.populate(conn, faqs);
+        }
+        DatabaseHelper.reloadFAQs();
+
+        List<String> queries = data.queries(faqs, messages, 0.8);
+        String[] followUps = {"yes", "no thanks", "how do i get a refund", "where is my order"};
+        List<ChatHistoryEntry> turns = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            int user = i / turnsPerUser;
+            String message = i % turnsPerUser == 1 ? followUps[user % followUps.length] : queries.get(i);
+            turns.add(new ChatHistoryEntry(i + 1, user, message, null, i));
+        }
+        return turns;
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private static double percentileMillis(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : round(ChatLoadTest.percentile(sorted, p) / 1e6);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static double round4(double value) {
+        return Math.round(value * 10_000) / 10_000.0;
+    }
+
+    private static class Turn {
+        final int slot;  // Position in recorded order
+        final long due;  // System.nanoTime() at which the schedule releases it
+        final ChatHistoryEntry entry;
+
+        Turn(int slot, long due, ChatHistoryEntry entry) {
+            this.slot = slot;
+            this.due = due;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * One user's context and their released turns that haven't run yet. At most one worker
+     * plays a conversation at a time, which keeps its turns in order.
+     */
+    private static class Conversation {
+        final ConversationContext context;
+        private final Queue<Turn> released = new ArrayDeque<>();  // Guarded by this
+        private boolean playing;                                   // Same
+
+        Conversation(ConversationContext context) {
+            this.context = context;
+        }
+
+        /**
+         * @return true if no worker is playing the conversation, so the caller must start one
+         */
+        synchronized boolean release(Turn turn) {
+            released.add(turn);
+            if (playing) {
+                return false;
+            }
+            playing = true;
+            return true;
+        }
+
+        /**
+         * @return The next released turn, or null once there is none and the worker should stop
+         */
+        synchronized Turn next() {
+            Turn turn = released.poll();
+            if (turn == null) {
+                playing = false;
+            }
+            return turn;
+        }
+    }
+
+    /**
+     * Writes changed answers as JSON Lines; does nothing without a file.
+     */
+    private static class DiffWriter implements AutoCloseable {
+        private final Writer out;
+
+        DiffWriter(String path) throws IOException {
+            this.out = path == null ? null : Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8);
+        }
+
+        synchronized void write(ChatHistoryEntry entry, String replayed) throws IOException {
+            if (out == null) {
+                return;
+            }
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", entry.getId());
+            row.put("userId", entry.getUserId());
+            row.put("message", entry.getMessage());
+            row.put("recorded", entry.getResponse());
+            row.put("replayed", replayed);
+            out.write(Json.toJson(row));
+            out.write('\n');
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Storage behind the chatbot: FAQs (which the keyword responses are derived from), users and
+ * chat history.
+ *
+ * {@link DatabaseHelper} picks an implementation from {@code chatbot.storage}:
+ * <ul>
+ *   <li>{@code mysql} (default) - {@link JdbcChatRepository} against a MySQL server.</li>
+ *   <li>{@code h2} - {@link H2ChatRepository}, an embedded database in a local file (or in memory)
+ *       that creates its own schema, so the bot runs without a database server.</li>
+ * </ul>
+ * With {@code chatbot.storage.faqFile} set, FAQs are read from a memory-mapped file by
+ * {@link MappedFAQRepository} and everything else goes to the configured database.
+ *
+ * Implementations are thread-safe.
+ */
+public interface ChatRepository extends AutoCloseable {
+
+    /**
+     * Reads every FAQ, ordered by id.
+     *
+     * @return The FAQ entries
+     * @throws SQLException if they can't be read
+     */
+    List<FAQEntry> loadFAQs() throws SQLException;
+
+    /**
+     * Reads the FAQs inserted or updated at or after the given time.
+     *
+     * @param sinceMillis Epoch millis of the newest update already loaded
+     * @return The changed FAQs
+     * @throws SQLException if they can't be read, or the store doesn't track changes
+     */
+    List<FAQEntry> loadFAQsChangedSince(long sinceMillis) throws SQLException;
+
+    /**
+     * Reads the FAQ count and newest update time, to detect changes cheaply.
+     *
+     * @return {count, newest update in epoch millis}
+     * @throws SQLException if they can't be read, or the store doesn't track changes
+     */
+    long[] loadFAQVersion() throws SQLException;
+
+    /**
+     * Inserts and updates a batch of FAQs atomically. The knowledge base picks the changes up on
+     * its next refresh.
+     *
+     * @param inserts New FAQs; their ids are ignored and assigned by the store
+     * @param updates Changed FAQs, matched by id
+     * @return The ids assigned to the inserted FAQs, in order
+     * @throws SQLException if the write fails; nothing from the batch is stored then, or if the
+     *                      store's FAQs are read-only
+     */
+    int[] saveFAQs(List<FAQEntry> inserts, List<FAQEntry> updates) throws SQLException;
+
+    /**
+     * Finds the first FAQ whose question contains the query, ignoring case. Used when the
+     * in-memory knowledge base can't be built.
+     *
+     * @param query The user's query
+     * @return The answer, or null if none matches
+     * @throws SQLException if the FAQs can't be read
+     */
+    String findFAQAnswer(String query) throws SQLException;
+
+    /**
+     * @param email The user's email
+     * @return The user and their stored password hash, or null if no user has that email
+     * @throws SQLException if the users can't be read
+     */
+    StoredUser findUserByEmail(String email) throws SQLException;
+
+    /**
+     * Creates a user.
+     *
+     * @param name         Display name
+     * @param email        Email, unique among users
+     * @param passwordHash The password as stored by {@link AuthService}
+     * @return The new user, or null if the email is already taken
+     * @throws SQLException if the insert fails for another reason
+     */
+    User insertUser(String name, String email, String passwordHash) throws SQLException;
+
+    /**
+     * @param userId       The ID of the user
+     * @param passwordHash The new stored password hash
+     * @throws SQLException if the update fails
+     */
+    void updatePasswordHash(int userId, String passwordHash) throws SQLException;
+
+    /**
+     * Inserts a batch of chat history entries atomically.
+     *
+     * @param batch The entries to insert
+     * @throws SQLException if the insert fails; nothing from the batch is stored then
+     */
+    void insertChatHistory(List<ChatHistoryWriter.Entry> batch) throws SQLException;
+
+    /**
+     * @param userId   The ID of the user
+     * @param beforeId Only turns with a smaller id; {@link Long#MAX_VALUE} for the newest
+     * @param limit    Maximum number of turns
+     * @return The turns, newest first
+     * @throws SQLException if the history can't be read
+     */
+    List<ChatHistoryEntry> loadChatHistoryBefore(int userId, long beforeId, int limit) throws SQLException;
+
+    /**
+     * Reads one keyset page of a user's chat history, ordered by {@code (createdAt, id)}.
+     *
+     * @param userId      The ID of the user
+     * @param sinceMillis Only turns at or after this time; 0 for no lower bound
+     * @param untilMillis Only turns before this time; {@link Long#MAX_VALUE} for no upper bound
+     * @param after       {createdAt, id} of the last turn of the previous page, or null for the first page
+     * @param ascending   Oldest first if true, newest first otherwise
+     * @param limit       Maximum number of turns
+     * @param action      Called for every turn, in order, while the page's connection is held;
+     *                    it shouldn't block
+     * @return Number of turns read
+     * @throws SQLException if the history can't be read
+     */
+    int readChatHistory(int userId, long sinceMillis, long untilMillis, long[] after, boolean ascending,
+                        int limit, Consumer<ChatHistoryEntry> action) throws SQLException;
+
+    /**
+     * Borrows a connection to the underlying database, for tools and benchmarks that run their own SQL.
+     *
+     * @return A pooled connection; closing it returns it to the pool
+     * @throws SQLException if no connection can be made
+     */
+    Connection getConnection() throws SQLException;
+
+    /**
+     * @return The connection pool statistics of the underlying database
+     */
+    ConnectionPool.Stats getPoolStats();
+
+    /**
+     * Releases connections and files. Further calls fail.
+     */
+    @Override
+    void close();
+
+    /**
+     * A user together with their stored password hash.
+     */
+    class StoredUser {
+        private final User user;
+        private final String passwordHash;
+
+        public StoredUser(User user, String passwordHash) {
+            this.user = user;
+            this.passwordHash = passwordHash;
+        }
+
+        public User getUser() {
+            return user;
+        }
+
+        public String getPasswordHash() {
+            return passwordHash;
+        }
+    }
+}
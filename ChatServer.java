@@ -0,0 +1,443 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Headless chat server on the JDK's built-in HTTP server.
+ *
+ * One shared {@link ChatBotService} serves every session; per-session context lives in the
+ * service's {@link ConversationStore}. Endpoints:
+ * <ul>
+ *   <li>{@code POST /chat} - body is the user's message (UTF-8 text), the response body is the
+ *       bot's reply. 503 with {@code Retry-After} if it was shed under load, 504 if it timed out,
+ *       413 if the body is over {@code chatbot.server.maxBodyBytes} (64 KiB), 500 otherwise. The
+ *       {@code X-Session-Id} request header names the conversation; if it is missing a new
+ *       session is started and its ID returned in the same response header. Session IDs are
+ *       signed for the user they were issued to, and one presented by anybody else gets 403.
+ *       An optional {@code Authorization: Bearer <token>} header links the turn to the logged-in
+ *       user in the chat history.</li>
+ *   <li>{@code POST /login} - form-encoded {@code email} and {@code password}; returns the session
+ *       token, user and expiry as JSON. 401 for wrong credentials, 429 with {@code Retry-After}
+ *       while the email is locked out, 503 if the users can't be read.</li>
+ *   <li>{@code POST /logout} - ends the session named by the bearer token.</li>
+ *   <li>{@code GET /history} - a page of the logged-in user's chat history as JSON, newest
+ *       first. Query parameters: {@code limit} (default 50, at most 500), {@code cursor} (the
+ *       previous page's {@code nextCursor}), {@code since} and {@code until} (ISO-8601 instants).</li>
+ *   <li>{@code GET /history/export} - the user's whole history, oldest first, streamed as
+ *       {@code format=csv} (default) or {@code format=jsonl}; also takes {@code since}/{@code until}.</li>
+ *   <li>{@code GET /health} - returns {@code ok}.</li>
+ *   <li>{@code GET /metrics} - Prometheus text, or JSON with {@code ?format=json}; empty unless
+ *       {@code -Dchatbot.metrics=true}.</li>
+ * </ul>
+ * Tokens are resolved in memory by {@link AuthService}, so authenticated requests don't hit the
+ * users table. Behind a trusted proxy, {@code -Dchatbot.server.trustUserIdHeader=true} also accepts
+ * a bare {@code X-User-Id} header in place of a token.
+ *
+ * Requests run on virtual threads when the JVM supports them, otherwise on a cached thread pool.
+ * Chat messages themselves run on the bounded {@link ChatExecutor#shared()} executor.
+ */
+public class ChatServer {
+    private static final boolean TRUST_USER_ID_HEADER = Boolean.getBoolean("chatbot.server.trustUserIdHeader");
+    private static final String SESSION_MAC = "HmacSHA256";
+    private static final int MAX_BODY_BYTES = Integer.getInteger("chatbot.server.maxBodyBytes", 64 * 1024);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ChatBotService service;
+    private final SecretKeySpec sessionKey;  // Signs issued session IDs; sessions don't outlive the server anyway
+
+    public ChatServer(int port) throws IOException {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.sessionKey = new SecretKeySpec(key, SESSION_MAC);
+        this.executor = newRequestExecutor();
+        this.service = new ChatBotService(ChatExecutor.shared());
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(executor);
+        server.createContext("/chat", this::handleChat);
+        server.createContext("/login", ChatServer::handleLogin);
+        server.createContext("/logout", ChatServer::handleLogout);
+        server.createContext("/history", this::handleHistory);
+        server.createContext("/history/export", this::handleHistoryExport);
+        server.createContext("/health", exchange -> respond(exchange, 200, "ok"));
+        server.createContext("/metrics", Metrics::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits for in-flight chat messages to finish and their history to
+     * be written, and shuts down the request executor.
+     */
+    public void stop() {
+        server.stop(1);
+        service.close(Long.getLong("chatbot.server.drainMillis", 10_000));
+        executor.shutdown();
+    }
+
+    /**
+     * @return The port the server is listening on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleChat(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "Use POST");
+            return;
+        }
+
+        String message = readBody(exchange);
+        if (message == null) {
+            respond(exchange, 413, "Message too long");
+            return;
+        }
+        message = message.trim();
+        if (message.isEmpty()) {
+            respond(exchange, 400, "Empty message");
+            return;
+        }
+
+        User user;
+        try {
+            user = resolveUser(exchange);
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 401, e.getMessage());
+            return;
+        }
+
+        // A conversation belongs to whoever started it; its context may hold their order details
+        String owner = user == null ? "anonymous" : String.valueOf(user.getUserId());
+        String sessionId = exchange.getRequestHeaders().getFirst("X-Session-Id");
+        if (sessionId == null || sessionId.isBlank()) {
+            sessionId = newSessionId(owner);
+        } else if (!isSessionOwner(owner, sessionId.trim())) {
+            respond(exchange, 403, "Session belongs to another user");
+            return;
+        }
+        sessionId = sessionId.trim();
+        exchange.getResponseHeaders().set("X-Session-Id", sessionId);
+
+        try {
+            String response = service.submitQuery(owner + ":" + sessionId, user, message).join();
+            respond(exchange, 200, response);
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RejectedExecutionException) {
+                exchange.getResponseHeaders().set("Retry-After", "1");  // Shed under load; worth retrying soon
+                respond(exchange, 503, ChatBotService.describeFailure(cause));
+            } else if (cause instanceof TimeoutException) {
+                respond(exchange, 504, ChatBotService.describeFailure(cause));
+            } else {
+                ChatLog.error("chat.failed", cause, "sessionId", sessionId);
+                respond(exchange, 500, ChatBotService.describeFailure(cause));
+            }
+        }
+    }
+
+    private static void handleLogin(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "Use POST");
+            return;
+        }
+        String encoded = readBody(exchange);
+        if (encoded == null) {
+            respond(exchange, 413, "Request too long");
+            return;
+        }
+        Map<String, String> form = parseForm(encoded);
+        String email = form.get("email");
+        String password = form.get("password");
+        if (email == null || password == null) {
+            respond(exchange, 400, "email and password are required");
+            return;
+        }
+
+        AuthService.Session session;
+        try {
+            session = AuthService.get().login(email, password);
+        } catch (AuthService.TooManyAttemptsException e) {
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf((e.getRetryAfterMillis() + 999) / 1000));
+            respond(exchange, 429, e.getMessage());
+            return;
+        } catch (SQLException e) {
+            ChatLog.error("auth.failed", e, "email", email);
+            respond(exchange, 503, "Login is unavailable right now");
+            return;
+        }
+        if (session == null) {
+            respond(exchange, 401, "Invalid email or password");
+            return;
+        }
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("token", session.getToken());
+        body.put("userId", session.getUser().getUserId());
+        body.put("name", session.getUser().getName());
+        body.put("email", session.getUser().getEmail());
+        body.put("expiresAt", Instant.ofEpochMilli(session.getExpiresAt()).toString());
+        respondJson(exchange, body);
+    }
+
+    private static void handleLogout(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "Use POST");
+            return;
+        }
+        boolean ended = AuthService.get().logout(bearerToken(exchange));
+        respond(exchange, ended ? 200 : 401, ended ? "ok" : "Not logged in");
+    }
+
+    private void handleHistory(HttpExchange exchange) throws IOException {
+        Integer userId = requireHistoryUser(exchange);
+        if (userId == null) {
+            return;
+        }
+        Map<String, String> params = queryParameters(exchange);
+        ChatHistoryPage page;
+        try {
+            int limit = Math.min(500, Math.max(1, Integer.parseInt(params.getOrDefault("limit", "50"))));
+            page = DatabaseHelper.loadChatHistory(userId, parseInstant(params.get("since"), 0),
+                    parseInstant(params.get("until"), Long.MAX_VALUE), params.get("cursor"), limit);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            respond(exchange, 400, e.getMessage());
+            return;
+        } catch (SQLException e) {
+            ChatLog.error("history.read", e, "userId", userId);
+            respond(exchange, 503, "History is unavailable");
+            return;
+        }
+
+        List<Object> entries = new ArrayList<>();
+        for (ChatHistoryEntry entry : page.getEntries()) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", entry.getId());
+            row.put("createdAt", entry.getCreatedAt() == 0 ? null : Instant.ofEpochMilli(entry.getCreatedAt()).toString());
+            row.put("message", entry.getMessage());
+            row.put("response", entry.getResponse());
+            entries.add(row);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("entries", entries);
+        body.put("nextCursor", page.getNextCursor());
+        respondJson(exchange, body);
+    }
+
+    private void handleHistoryExport(HttpExchange exchange) throws IOException {
+        Integer userId = requireHistoryUser(exchange);
+        if (userId == null) {
+            return;
+        }
+        Map<String, String> params = queryParameters(exchange);
+        ChatHistoryExport.Format format;
+        long since;
+        long until;
+        try {
+            format = ChatHistoryExport.Format.valueOf(params.getOrDefault("format", "csv").toUpperCase());
+            since = parseInstant(params.get("since"), 0);
+            until = parseInstant(params.get("until"), Long.MAX_VALUE);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            respond(exchange, 400, e.getMessage());
+            return;
+        }
+
+        // Chunked response: rows go out a page at a time, the history is never held in memory
+        exchange.getResponseHeaders().set("Content-Type", format.getContentType());
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            ChatHistoryExport.export(userId, since, until, format, out);
+        } catch (SQLException e) {
+            ChatLog.error("history.export", e, "userId", userId);  // Headers are sent; the client sees a cut-off body
+        }
+    }
+
+    // History is only served for GET requests from a logged-in user
+    private static Integer requireHistoryUser(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "Use GET");
+            return null;
+        }
+        User user;
+        try {
+            user = resolveUser(exchange);
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 401, e.getMessage());
+            return null;
+        }
+        if (user == null) {
+            respond(exchange, 401, "Login required");
+            return null;
+        }
+        return user.getUserId();
+    }
+
+    /**
+     * Finds the user a request is made for.
+     *
+     * @return The user named by the bearer token (or trusted {@code X-User-Id}), or null if none is given
+     * @throws IllegalArgumentException if a token or user ID is given but not valid
+     */
+    private static User resolveUser(HttpExchange exchange) {
+        String token = bearerToken(exchange);
+        if (token != null) {
+            User user = AuthService.get().authenticate(token);
+            if (user == null) {
+                throw new IllegalArgumentException("Invalid or expired token");
+            }
+            return user;
+        }
+        String userId = exchange.getRequestHeaders().getFirst("X-User-Id");
+        if (userId == null || !TRUST_USER_ID_HEADER) {
+            return null;
+        }
+        try {
+            return new User(Integer.parseInt(userId.trim()), null, null);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid X-User-Id");
+        }
+    }
+
+    private String newSessionId(String owner) {
+        String id = UUID.randomUUID().toString();
+        return id + "." + signSession(owner, id);
+    }
+
+    /**
+     * @return true if the session ID was issued by this server to the given owner
+     */
+    private boolean isSessionOwner(String owner, String sessionId) {
+        int dot = sessionId.lastIndexOf('.');
+        if (dot <= 0) {
+            return false;
+        }
+        byte[] expected = signSession(owner, sessionId.substring(0, dot)).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, sessionId.substring(dot + 1).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String signSession(String owner, String id) {
+        try {
+            Mac mac = Mac.getInstance(SESSION_MAC);  // Not thread-safe, and cheap to create
+            mac.init(sessionKey);
+            byte[] signature = mac.doFinal((owner + ":" + id).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(signature, 16));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(SESSION_MAC + " is not available", e);
+        }
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return null;
+        }
+        return authorization.substring(7).trim();
+    }
+
+    /**
+     * Reads the request body, but no more than {@code chatbot.server.maxBodyBytes} of it.
+     *
+     * @return The body as UTF-8 text, or null if it is longer than that
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+        return body.length > MAX_BODY_BYTES ? null : new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        return parseForm(exchange.getRequestURI().getRawQuery());
+    }
+
+    // Parses application/x-www-form-urlencoded pairs, as used by query strings and the login form
+    private static Map<String, String> parseForm(String encoded) {
+        Map<String, String> params = new HashMap<>();
+        if (encoded == null || encoded.isEmpty()) {
+            return params;
+        }
+        for (String pair : encoded.trim().split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static long parseInstant(String value, long defaultMillis) {
+        return value == null || value.isEmpty() ? defaultMillis : Instant.parse(value).toEpochMilli();
+    }
+
+    private static void respondJson(HttpExchange exchange, Map<String, Object> body) throws IOException {
+        byte[] bytes = Json.toJson(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Uses a virtual-thread-per-task executor when running on a JDK that has one (21+),
+     * and a cached thread pool otherwise.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("chatbot.server.port", 8080);
+        DatabaseHelper.startFAQRefresher();
+        NLPPipelines.warmUpConfigured();
+        Metrics.exportConfigured();
+
+        ChatServer chatServer = new ChatServer(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(chatServer::stop, "chat-server-shutdown"));
+        chatServer.start();
+        System.out.println("Chat server listening on port " + chatServer.getPort());
+    }
+}
@@ -0,0 +1,367 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Scrollable chat transcript backed by a {@link JList}.
+ *
+ * Only the rows in view are painted, all through one shared renderer, so there is one Swing
+ * component no matter how long the conversation gets. Messages live in a ring buffer of at most
+ * {@code chatbot.ui.transcriptWindow} (default 500) recent messages; older ones drop off the top
+ * as new ones arrive, so an append is O(1) however long the session runs. Each message caches
+ * its wrapped height for the current width and font, so relayout after an append does not
+ * re-measure text.
+ *
+ * When a {@link HistorySource} is set, scrolling to the top pages older turns in from the chat
+ * history, up to twice the window size. Once messages of the running session have dropped off,
+ * paging stops, since the turns between them and the stored history can't be located by id.
+ *
+ * All methods must be called on the EDT.
+ */
+public class ChatTranscript extends JScrollPane {
+    private static final int WINDOW = Integer.getInteger("chatbot.ui.transcriptWindow", 500);
+    private static final int PAGE_SIZE = 50;  // Turns per history page
+
+    public enum Speaker {
+        USER("You : "),
+        BOT("Bot : ");
+
+        private final String prefix;
+
+        Speaker(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    /**
+     * Loads stored turns older than a given history id.
+     */
+    public interface HistorySource {
+        /**
+         * @param beforeId Only turns with a smaller id; {@link Long#MAX_VALUE} for the newest
+         * @param limit    Maximum number of turns
+         * @return The turns, newest first
+         * @throws SQLException if they can't be loaded
+         */
+        List<ChatHistoryEntry> loadBefore(long beforeId, int limit) throws SQLException;
+    }
+
+    private final TranscriptModel model = new TranscriptModel(WINDOW, 2 * WINDOW);
+    private final JList<Message> list;
+    private final MessageRenderer renderer = new MessageRenderer();
+
+    private HistorySource historySource;
+    private long historyCursor = Long.MAX_VALUE;  // Next page loads turns with a smaller id
+    private boolean historyExhausted;
+    private boolean loadingHistory;
+
+    public ChatTranscript() {
+        list = new JList<>(model) {
+            @Override
+            public boolean getScrollableTracksViewportWidth() {
+                return true;  // Wrap to the viewport instead of scrolling sideways
+            }
+        };
+        list.setCellRenderer(renderer);
+        list.setSelectionModel(new DefaultListSelectionModel() {
+            @Override
+            public void setSelectionInterval(int index0, int index1) {
+                // Transcript rows are not selectable
+            }
+        });
+        list.setFocusable(false);
+        setViewportView(list);
+        setHorizontalScrollBarPolicy(HORIZONTAL_SCROLLBAR_NEVER);
+
+        getViewport().addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                // JList caches row heights; toggling the fixed height makes it measure again
+                list.setFixedCellHeight(1);
+                list.setFixedCellHeight(-1);
+            }
+        });
+        getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting() && e.getValue() == 0 && model.getSize() > 0) {
+                loadOlderHistory();
+            }
+        });
+    }
+
+    /**
+     * Appends a message at the bottom, scrolling along if the view was already at the bottom.
+     *
+     * @param speaker Who sent it
+     * @param text    The message text
+     */
+    public void append(Speaker speaker, String text) {
+        JScrollBar bar = getVerticalScrollBar();
+        boolean atBottom = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - 4;
+        long trimmedHistoryId = model.append(new Message(speaker, text, 0));
+        if (model.droppedLive) {
+            historyExhausted = true;
+        } else if (trimmedHistoryId > 0) {
+            historyCursor = trimmedHistoryId + 1;  // That turn can be paged back in
+            historyExhausted = false;
+        }
+        if (atBottom) {
+            SwingUtilities.invokeLater(() -> list.ensureIndexIsVisible(model.getSize() - 1));
+        }
+    }
+
+    /**
+     * Enables paging older turns in from storage and loads the newest page right away.
+     *
+     * @param source Where older turns come from, or null to disable paging
+     */
+    public void setHistorySource(HistorySource source) {
+        this.historySource = source;
+        loadOlderHistory();
+    }
+
+    public void setColors(Color background, Color userColor, Color botColor) {
+        list.setBackground(background);
+        renderer.userColor = userColor;
+        renderer.botColor = botColor;
+        list.repaint();
+    }
+
+    public void setFontSize(int fontSize) {
+        list.setFont(new Font("Arial", Font.PLAIN, fontSize));  // Row heights are re-measured for the new font
+    }
+
+    /**
+     * @return Number of messages currently held
+     */
+    public int getMessageCount() {
+        return model.getSize();
+    }
+
+    private void loadOlderHistory() {
+        int turns = Math.min(PAGE_SIZE, model.remainingCapacity() / 2);  // A page always fits whole
+        if (historySource == null || historyExhausted || loadingHistory || turns == 0) {
+            return;
+        }
+        loadingHistory = true;
+        HistorySource source = historySource;
+        long before = historyCursor;
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return source.loadBefore(before, turns);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((entries, error) -> SwingUtilities.invokeLater(() -> {
+            loadingHistory = false;
+            if (error != null) {
+                ChatLog.warn("transcript.history", error);
+                historyExhausted = true;  // Don't retry on every scroll event
+                return;
+            }
+            if (entries.size() < turns) {
+                historyExhausted = true;
+            }
+            if (entries.isEmpty() || before != historyCursor) {
+                return;  // Nothing older, or the window moved while loading
+            }
+            historyCursor = entries.get(entries.size() - 1).getId();
+            prependKeepingView(entries);
+        }));
+    }
+
+    private void prependKeepingView(List<ChatHistoryEntry> newestFirst) {
+        List<Message> older = new ArrayList<>(newestFirst.size() * 2);
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            ChatHistoryEntry entry = newestFirst.get(i);
+            older.add(new Message(Speaker.USER, entry.getMessage(), entry.getId()));
+            older.add(new Message(Speaker.BOT, entry.getResponse(), entry.getId()));
+        }
+
+        int firstVisible = list.getFirstVisibleIndex();
+        Rectangle firstBounds = firstVisible >= 0 ? list.getCellBounds(firstVisible, firstVisible) : null;
+        int offset = firstBounds == null ? 0 : getViewport().getViewPosition().y - firstBounds.y;
+
+        int added = model.prepend(older);
+        if (firstVisible < 0) {
+            SwingUtilities.invokeLater(() -> list.ensureIndexIsVisible(model.getSize() - 1));
+            return;
+        }
+        // Keep the row that was at the top of the view where it was
+        SwingUtilities.invokeLater(() -> {
+            Rectangle bounds = list.getCellBounds(firstVisible + added, firstVisible + added);
+            if (bounds != null) {
+                getViewport().setViewPosition(new Point(0, bounds.y + offset));
+            }
+        });
+    }
+
+    /**
+     * A transcript line. The layout fields cache the wrapped height for one width and font.
+     */
+    public static class Message {
+        private final Speaker speaker;
+        private final String text;
+        private final long historyId;  // chat_history id for paged-in turns, 0 for live messages
+
+        private int layoutWidth = -1;
+        private Font layoutFont;
+        private int layoutHeight;
+
+        Message(Speaker speaker, String text, long historyId) {
+            this.speaker = speaker;
+            this.text = text;
+            this.historyId = historyId;
+        }
+
+        public Speaker getSpeaker() {
+            return speaker;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * Ring buffer of messages. Appends drop the oldest messages beyond {@code window}; pages of
+     * older history may grow it up to {@code capacity}.
+     */
+    static class TranscriptModel extends AbstractListModel<Message> {
+        private final int window;
+        private final Message[] ring;
+        private int head;
+        private int size;
+        boolean droppedLive;  // Set once a message that isn't from paged-in history was dropped
+
+        TranscriptModel(int window, int capacity) {
+            this.window = window;
+            this.ring = new Message[capacity];
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public Message getElementAt(int index) {
+            return ring[(head + index) % ring.length];
+        }
+
+        int remainingCapacity() {
+            return ring.length - size;
+        }
+
+        /**
+         * @return The history id of the newest paged-in turn that was dropped, or 0
+         */
+        long append(Message message) {
+            long trimmedHistoryId = 0;
+            if (size == ring.length) {
+                trimmedHistoryId = trim(size - 1);
+            }
+            ring[(head + size) % ring.length] = message;
+            size++;
+            fireIntervalAdded(this, size - 1, size - 1);
+            if (size > window) {
+                trimmedHistoryId = Math.max(trimmedHistoryId, trim(window));
+            }
+            return trimmedHistoryId;
+        }
+
+        /**
+         * Inserts older messages at the top, as many as fit.
+         *
+         * @param older Messages in chronological order
+         * @return Number of messages inserted
+         */
+        int prepend(List<Message> older) {
+            int count = Math.min(older.size(), ring.length - size);
+            if (count == 0) {
+                return 0;
+            }
+            int from = older.size() - count;  // Keep the newest of them
+            head = (head - count + ring.length) % ring.length;
+            for (int i = 0; i < count; i++) {
+                ring[(head + i) % ring.length] = older.get(from + i);
+            }
+            size += count;
+            fireIntervalAdded(this, 0, count - 1);
+            return count;
+        }
+
+        /**
+         * Drops messages from the top until at most {@code limit} remain, never splitting a
+         * paged-in turn.
+         */
+        private long trim(int limit) {
+            int removed = 0;
+            long trimmedHistoryId = 0;
+            while (size > 0 && (size > limit || (trimmedHistoryId > 0 && ring[head].historyId == trimmedHistoryId))) {
+                Message dropped = ring[head];
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                size--;
+                removed++;
+                if (dropped.historyId > 0) {
+                    trimmedHistoryId = dropped.historyId;
+                } else {
+                    droppedLive = true;
+                }
+            }
+            if (removed > 0) {
+                fireIntervalRemoved(this, 0, removed - 1);
+            }
+            return trimmedHistoryId;
+        }
+    }
+
+    /**
+     * The one component that paints every row: a wrapping text area whose preferred height is
+     * taken from the message's cached layout.
+     */
+    static class MessageRenderer extends JTextArea implements ListCellRenderer<Message> {
+        private Color userColor = Color.GREEN;
+        private Color botColor = Color.CYAN;
+        private int width;
+        private int height;
+
+        MessageRenderer() {
+            setLineWrap(true);
+            setWrapStyleWord(true);
+            setOpaque(true);
+            setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        }
+
+        @Override
+        public Component getListCellRendererComponent(JList<? extends Message> list, Message message, int index,
+                                                      boolean isSelected, boolean cellHasFocus) {
+            setText(message.speaker.prefix + message.text);
+            setFont(list.getFont());
+            setBackground(list.getBackground());
+            setForeground(message.speaker == Speaker.USER ? userColor : botColor);
+
+            int listWidth = Math.max(list.getWidth(), 50);
+            if (message.layoutWidth != listWidth || message.layoutFont != list.getFont()) {
+                setSize(listWidth, Short.MAX_VALUE);
+                message.layoutHeight = super.getPreferredSize().height;
+                message.layoutWidth = listWidth;
+                message.layoutFont = list.getFont();
+            }
+            width = listWidth;
+            height = message.layoutHeight;
+            return this;
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            return new Dimension(width, height);
+        }
+    }
+}
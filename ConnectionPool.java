@@ -0,0 +1,575 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded JDBC connection pool with a per-connection prepared statement cache.
+ *
+ * Connections handed out by {@link #getConnection()} are proxies: closing them returns the
+ * physical connection to the pool, and statements prepared through them are cached and reused
+ * for as long as the physical connection lives. Works with any JDBC URL, so it can be pointed
+ * at an embedded H2 database ({@code jdbc:h2:mem:...}) as easily as at MySQL.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final Metrics.Histogram WAIT_TIME = Metrics.histogram("chatbot_db_pool_wait_seconds");
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long borrowTimeoutMillis;
+    private final long maxIdleMillis;
+    private final long validationIntervalMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();  // Guarded by itself
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    // Pool metrics
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+
+    public ConnectionPool(String url, String user, String password, int maxSize) {
+        this(url, user, password, maxSize, 1, 5_000, 300_000, 500, 50);
+    }
+
+    /**
+     * @param url                      JDBC URL of the database
+     * @param user                     Database user
+     * @param password                 Database password
+     * @param maxSize                  Maximum number of physical connections (idle + in use)
+     * @param minIdle                  Idle connections the evictor always keeps open
+     * @param borrowTimeoutMillis      How long {@link #getConnection()} waits for a free connection
+     * @param maxIdleMillis            Idle connections older than this are closed by the evictor
+     * @param validationIntervalMillis Connections idle for less than this are not re-validated on borrow
+     * @param statementCacheSize       Prepared statements cached per physical connection
+     */
+    public ConnectionPool(String url, String user, String password, int maxSize, int minIdle,
+                          long borrowTimeoutMillis, long maxIdleMillis, long validationIntervalMillis,
+                          int statementCacheSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.minIdle = Math.min(minIdle, maxSize);
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.maxIdleMillis = maxIdleMillis;
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1_000, maxIdleMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if none is idle and the pool is
+     * not yet full. The caller must close the returned connection to give it back.
+     *
+     * @return A pooled connection
+     * @throws SQLException if no connection becomes available within the borrow timeout
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        WAIT_TIME.observeNanos(waited);
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (!acquired) {
+            timeouts.increment();
+            throw new SQLTransientConnectionException(
+                    "Timed out after " + borrowTimeoutMillis + " ms waiting for a database connection");
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = pollIdle()) != null) {
+                if (pooled.validate()) {
+                    break;
+                }
+                validationFailures.increment();
+                pooled.destroy();
+            }
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+                created.increment();
+            }
+            borrows.increment();
+            active.incrementAndGet();
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a point-in-time snapshot of the pool metrics.
+     */
+    public Stats getStats() {
+        int idleCount;
+        synchronized (idle) {
+            idleCount = idle.size();
+        }
+        long borrowCount = borrows.sum();
+        return new Stats(active.get(), idleCount, maxSize, permits.getQueueLength(), borrowCount,
+                borrowCount == 0 ? 0 : totalWaitNanos.sum() / borrowCount, maxWaitNanos.get(),
+                timeouts.sum(), created.sum(), destroyed.sum(), validationFailures.sum(),
+                statementCacheHits.sum(), statementCacheMisses.sum());
+    }
+
+    /**
+     * Closes all idle connections and stops handing out new ones. Connections that are still
+     * borrowed are closed as soon as they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = pollIdle()) != null) {
+            pooled.destroy();
+        }
+    }
+
+    private PooledConnection pollIdle() {
+        synchronized (idle) {
+            return idle.pollFirst();  // Most recently used first, so cold connections age out
+        }
+    }
+
+    private void release(PooledConnection pooled, boolean broken) {
+        active.decrementAndGet();
+        if (broken || closed) {
+            pooled.destroy();
+        } else {
+            pooled.lastUsed = System.currentTimeMillis();
+            synchronized (idle) {
+                idle.addFirst(pooled);
+            }
+        }
+        permits.release();
+    }
+
+    /**
+     * Closes connections that have been idle for longer than {@code maxIdleMillis}, keeping
+     * at least {@code minIdle} of them open.
+     */
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - maxIdleMillis;
+        Deque<PooledConnection> expired = new ArrayDeque<>();
+        synchronized (idle) {
+            Iterator<PooledConnection> it = idle.descendingIterator();  // Oldest first
+            while (it.hasNext() && idle.size() > minIdle) {
+                PooledConnection pooled = it.next();
+                if (pooled.lastUsed < cutoff) {
+                    it.remove();
+                    expired.add(pooled);
+                }
+            }
+        }
+        for (PooledConnection pooled : expired) {
+            pooled.destroy();
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * A physical connection together with its statement cache.
+     */
+    private class PooledConnection {
+        private final Connection physical;
+        private final Map<String, CachedStatement> statements;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                    trimStatements();
+                    return false;  // Already trimmed; the eldest itself may be checked out
+                }
+            };
+        }
+
+        /**
+         * Closes the least recently used statements until the cache is back within its size,
+         * skipping ones that are checked out. Those go on a later trim, at the latest when the
+         * lease ends and all of them are free again.
+         */
+        void trimStatements() {
+            Iterator<CachedStatement> it = statements.values().iterator();
+            while (statements.size() > statementCacheSize && it.hasNext()) {
+                CachedStatement cached = it.next();
+                if (!cached.inUse) {
+                    cached.closeQuietly();
+                    it.remove();
+                }
+            }
+        }
+
+        boolean validate() {
+            if (System.currentTimeMillis() - lastUsed < validationIntervalMillis) {
+                return true;  // Returned moments ago, skip the extra round trip
+            }
+            try {
+                return physical.isValid(2);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new LeaseHandler(this));
+        }
+
+        PreparedStatement prepare(Connection lease, String key, Method method, Object[] args) throws Throwable {
+            if (statementCacheSize <= 0) {
+                return (PreparedStatement) invoke(physical, method, args);
+            }
+            CachedStatement cached = statements.get(key);
+            if (cached != null && cached.inUse) {
+                // Same SQL already open on this connection; hand out a plain statement
+                statementCacheMisses.increment();
+                return (PreparedStatement) invoke(physical, method, args);
+            }
+            if (cached == null) {
+                statementCacheMisses.increment();
+                cached = new CachedStatement((PreparedStatement) invoke(physical, method, args));
+                cached.inUse = true;  // Before the put, so the trim it triggers can't pick this one
+                statements.put(key, cached);
+            } else {
+                statementCacheHits.increment();
+                cached.inUse = true;
+            }
+            return cached.checkout(lease);
+        }
+
+        void destroy() {
+            for (CachedStatement cached : statements.values()) {
+                cached.closeQuietly();
+            }
+            statements.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                // Already broken, nothing more to do
+            }
+            destroyed.increment();
+        }
+    }
+
+    /**
+     * Invocation handler for one borrow of a physical connection. Once closed, the lease is
+     * dead even though the physical connection lives on in the pool.
+     */
+    private class LeaseHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean leaseClosed;
+        private boolean broken;
+
+        LeaseHandler(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    closeLease();
+                    return null;
+                case "isClosed":
+                    return leaseClosed || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pooled.physical + "]";
+                default:
+                    break;
+            }
+            if (leaseClosed) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                if (name.equals("prepareStatement") && args.length == 1) {
+                    return pooled.prepare((Connection) proxy, (String) args[0], method, args);
+                }
+                if (name.equals("prepareStatement") && args.length == 2 && args[1] instanceof Integer) {
+                    return pooled.prepare((Connection) proxy, args[0] + "#" + args[1], method, args);
+                }
+                return ConnectionPool.invoke(pooled.physical, method, args);
+            } catch (SQLException e) {
+                String state = e.getSQLState();
+                if (state != null && state.startsWith("08")) {
+                    broken = true;  // Connection exception class, don't put it back
+                }
+                throw e;
+            }
+        }
+
+        private void closeLease() {
+            if (leaseClosed) {
+                return;
+            }
+            leaseClosed = true;
+            try {
+                if (!pooled.physical.getAutoCommit()) {
+                    pooled.physical.rollback();
+                    pooled.physical.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                broken = true;
+            }
+            for (CachedStatement cached : pooled.statements.values()) {
+                if (cached.inUse) {
+                    cached.checkin();  // Caller forgot to close it
+                }
+            }
+            pooled.trimStatements();
+            release(pooled, broken);
+        }
+    }
+
+    /**
+     * A prepared statement kept open across leases. Closing the proxy handed to callers
+     * only resets the statement and marks it free again.
+     */
+    private static class CachedStatement implements InvocationHandler {
+        private final PreparedStatement statement;
+        private volatile boolean inUse;
+        private Connection lease;
+        private ResultSet lastResult;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        PreparedStatement checkout(Connection lease) {
+            this.lease = lease;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    checkin();
+                    return null;
+                case "isClosed":
+                    return !inUse;
+                case "getConnection":
+                    return lease;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (!inUse) {
+                throw new SQLException("Statement has already been closed");
+            }
+            Object result = ConnectionPool.invoke(statement, method, args);
+            if (result instanceof ResultSet) {
+                lastResult = (ResultSet) result;
+            }
+            return result;
+        }
+
+        void checkin() {
+            if (!inUse) {
+                return;
+            }
+            try {
+                if (lastResult != null) {
+                    lastResult.close();
+                }
+                statement.clearParameters();
+                statement.clearBatch();
+            } catch (SQLException e) {
+                // The statement is still usable; the next execute will surface real errors
+            }
+            lastResult = null;
+            lease = null;
+            inUse = false;
+        }
+
+        void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                // Ignore, the connection is going away anyway
+            }
+        }
+    }
+
+    /**
+     * Immutable snapshot of pool metrics.
+     */
+    public static class Stats {
+        private final int active;
+        private final int idle;
+        private final int maxSize;
+        private final int waiting;
+        private final long borrows;
+        private final long averageWaitNanos;
+        private final long maxWaitNanos;
+        private final long timeouts;
+        private final long created;
+        private final long destroyed;
+        private final long validationFailures;
+        private final long statementCacheHits;
+        private final long statementCacheMisses;
+
+        Stats(int active, int idle, int maxSize, int waiting, long borrows, long averageWaitNanos,
+              long maxWaitNanos, long timeouts, long created, long destroyed, long validationFailures,
+              long statementCacheHits, long statementCacheMisses) {
+            this.active = active;
+            this.idle = idle;
+            this.maxSize = maxSize;
+            this.waiting = waiting;
+            this.borrows = borrows;
+            this.averageWaitNanos = averageWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.timeouts = timeouts;
+            this.created = created;
+            this.destroyed = destroyed;
+            this.validationFailures = validationFailures;
+            this.statementCacheHits = statementCacheHits;
+            this.statementCacheMisses = statementCacheMisses;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getIdle() {
+            return idle;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public int getWaiting() {
+            return waiting;
+        }
+
+        public long getBorrows() {
+            return borrows;
+        }
+
+        public long getAverageWaitNanos() {
+            return averageWaitNanos;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getDestroyed() {
+            return destroyed;
+        }
+
+        public long getValidationFailures() {
+            return validationFailures;
+        }
+
+        public long getStatementCacheHits() {
+            return statementCacheHits;
+        }
+
+        public long getStatementCacheMisses() {
+            return statementCacheMisses;
+        }
+
+        @Override
+        public String toString() {
+            return "ConnectionPool.Stats{" +
+                   "active=" + active +
+                   ", idle=" + idle +
+                   ", maxSize=" + maxSize +
+                   ", waiting=" + waiting +
+                   ", borrows=" + borrows +
+                   ", avgWaitMicros=" + averageWaitNanos / 1_000 +
+                   ", maxWaitMicros=" + maxWaitNanos / 1_000 +
+                   ", timeouts=" + timeouts +
+                   ", created=" + created +
+                   ", destroyed=" + destroyed +
+                   ", validationFailures=" + validationFailures +
+                   ", statementCacheHits=" + statementCacheHits +
+                   ", statementCacheMisses=" + statementCacheMisses +
+                   '}';
+        }
+    }
+}
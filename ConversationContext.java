@@ -0,0 +1,123 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the bot remembers about one conversation: the last few turns, newest last.
+ * Thread-safe; turns of the same session may complete on different threads.
+ */
+public class ConversationContext {
+    private static final int TURN_OVERHEAD_BYTES = 64;
+
+    private final String sessionId;
+    private final int maxTurns;
+    private final AtomicLong storeBytes;  // Shared estimate of the owning store's memory use
+    private final Deque<Turn> turns = new ArrayDeque<>();  // Guarded by this
+    private long bytes;                                    // Guarded by this
+    private boolean detached;                              // Guarded by this; set once evicted
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    ConversationContext(String sessionId, int maxTurns, AtomicLong storeBytes) {
+        this.sessionId = sessionId;
+        this.maxTurns = Math.max(1, maxTurns);
+        this.storeBytes = storeBytes;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return The user's previous message, or an empty string at the start of a conversation
+     */
+    public synchronized String getLastUserQuery() {
+        return turns.isEmpty() ? "" : turns.peekLast().getUserQuery();
+    }
+
+    /**
+     * @return The bot's previous response, or an empty string at the start of a conversation
+     */
+    public synchronized String getLastResponse() {
+        return turns.isEmpty() ? "" : turns.peekLast().getResponse();
+    }
+
+    /**
+     * @return A copy of the remembered turns, oldest first
+     */
+    public synchronized List<Turn> getHistory() {
+        return new ArrayList<>(turns);
+    }
+
+    /**
+     * Records a completed turn of the conversation, forgetting the oldest turn if the
+     * history is full.
+     *
+     * @param userQuery The user's message
+     * @param response  The bot's response
+     */
+    public synchronized void recordTurn(String userQuery, String response) {
+        Turn turn = new Turn(userQuery, response, System.currentTimeMillis());
+        turns.addLast(turn);
+        long delta = turn.estimateBytes();
+        if (turns.size() > maxTurns) {
+            delta -= turns.removeFirst().estimateBytes();
+        }
+        if (!detached) {
+            bytes += delta;
+            storeBytes.addAndGet(delta);
+        }
+        touch();
+    }
+
+    void touch() {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * Drops the history and gives its memory back to the store's budget. A request still
+     * holding the context may record one more turn, but it is no longer counted.
+     */
+    synchronized void clear() {
+        turns.clear();
+        detached = true;
+        storeBytes.addAndGet(-bytes);
+        bytes = 0;
+    }
+
+    /**
+     * One exchange between the user and the bot.
+     */
+    public static class Turn {
+        private final String userQuery;
+        private final String response;
+        private final long timestamp;
+
+        public Turn(String userQuery, String response, long timestamp) {
+            this.userQuery = userQuery;
+            this.response = response;
+            this.timestamp = timestamp;
+        }
+
+        public String getUserQuery() {
+            return userQuery;
+        }
+
+        public String getResponse() {
+            return response;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        long estimateBytes() {
+            return TURN_OVERHEAD_BYTES + 2L * (userQuery.length() + response.length());
+        }
+    }
+}
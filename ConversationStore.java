@@ -0,0 +1,157 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the conversation context of every active session, so a single {@link ChatBotService}
+ * can serve many conversations at once.
+ *
+ * Each session keeps at most {@code maxTurns} turns. Sessions that have not been used for
+ * {@code ttlMillis} are evicted, and when the estimated size of all histories exceeds
+ * {@code maxBytes} the least recently used sessions are evicted until it fits again.
+ */
+public class ConversationStore implements AutoCloseable {
+    // One sweeper thread shared by all stores
+    private static final ScheduledThreadPoolExecutor SWEEPER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "conversation-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        SWEEPER.setRemoveOnCancelPolicy(true);  // A closed store's sweep mustn't keep it reachable
+    }
+
+    private final Map<String, ConversationContext> sessions = new ConcurrentHashMap<>();
+    private final int maxTurns;
+    private final long ttlMillis;
+    private final long maxBytes;
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder evictions = new LongAdder();
+    private final ScheduledFuture<?> sweep;
+
+    public ConversationStore() {
+        this(Integer.getInteger("chatbot.context.maxTurns", 10),
+                Long.getLong("chatbot.context.ttlMillis", 30 * 60_000L),
+                Long.getLong("chatbot.context.maxBytes", 64L * 1024 * 1024));
+    }
+
+    /**
+     * @param maxTurns  Turns remembered per session
+     * @param ttlMillis Idle time after which a session is forgotten
+     * @param maxBytes  Memory budget for all sessions together (estimated)
+     */
+    public ConversationStore(int maxTurns, long ttlMillis, long maxBytes) {
+        this.maxTurns = maxTurns;
+        this.ttlMillis = ttlMillis;
+        this.maxBytes = maxBytes;
+        long period = Math.max(1_000, ttlMillis / 4);
+        this.sweep = SWEEPER.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the context of a session, creating an empty one if the session is new.
+     *
+     * @param sessionId The session ID
+     * @return The session's conversation context
+     */
+    public ConversationContext get(String sessionId) {
+        ConversationContext context = sessions.computeIfAbsent(sessionId,
+                id -> new ConversationContext(id, maxTurns, bytes));
+        context.touch();
+        return context;
+    }
+
+    /**
+     * Records a completed turn for a session and enforces the memory budget.
+     *
+     * @param context   The session's context, as returned by {@link #get}
+     * @param userQuery The user's message
+     * @param response  The bot's response
+     */
+    public void recordTurn(ConversationContext context, String userQuery, String response) {
+        context.recordTurn(userQuery, response);
+        if (bytes.get() > maxBytes) {
+            SWEEPER.execute(this::evict);
+        }
+    }
+
+    /**
+     * Forgets a session.
+     *
+     * @param sessionId The session ID
+     */
+    public void remove(String sessionId) {
+        ConversationContext context = sessions.remove(sessionId);
+        if (context != null) {
+            context.clear();
+        }
+    }
+
+    /**
+     * @return The number of sessions currently held
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return Estimated memory held by all conversation histories, in bytes
+     */
+    public long getEstimatedBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return Sessions evicted so far because of the TTL or the memory budget
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Stops the periodic eviction of this store and unschedules it, so a store that is no longer
+     * used can be collected with its sessions.
+     */
+    @Override
+    public void close() {
+        sweep.cancel(false);
+    }
+
+    /**
+     * Drops expired sessions, then the least recently used ones while over the memory budget.
+     */
+    void evict() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        for (ConversationContext context : sessions.values()) {
+            if (context.getLastAccess() < cutoff) {
+                evict(context);
+            }
+        }
+
+        if (bytes.get() > maxBytes) {
+            List<ConversationContext> byAge = new ArrayList<>(sessions.values());
+            byAge.sort(Comparator.comparingLong(ConversationContext::getLastAccess));
+            for (ConversationContext context : byAge) {
+                if (bytes.get() <= maxBytes) {
+                    break;
+                }
+                evict(context);
+            }
+        }
+    }
+
+    private void evict(ConversationContext context) {
+        if (sessions.remove(context.getSessionId(), context)) {
+            context.clear();
+            evictions.increment();
+        }
+    }
+}
@@ -1,26 +1,143 @@
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
+/**
+ * Static entry point to the chatbot's storage: FAQ lookups through the in-memory knowledge base,
+ * users and chat history. Reads and writes go to the {@link ChatRepository} chosen with
+ * {@code chatbot.storage} ({@code mysql} by default, or {@code h2} for an embedded database);
+ * {@code chatbot.storage.faqFile} serves the FAQs from a memory-mapped export instead, and
+ * {@code chatbot.faq.snapshot} starts from a compiled {@link KnowledgeBaseSnapshot}.
+ */
 public class DatabaseHelper {
-    private static final String URL = "jdbc:mysql://localhost:3306/chatbot_customer";
-    private static final String USER = "root";
-    private static final String PASSWORD = "Monika@09";
+    private static final ChatRepository REPOSITORY = createRepository();
+
+    // FAQ lookups are answered from memory, by BM25 rank unless chatbot.faq.retrieval=first-match,
+    // which keeps the original "first LIKE '%query%' hit" semantics (SUBSTRING) or a word match (TOKENS)
+    private static final boolean FAQ_RANKED =
+            !"first-match".equalsIgnoreCase(System.getProperty("chatbot.faq.retrieval", "ranked"));
+    private static final double FAQ_MIN_CONFIDENCE =
+            Double.parseDouble(System.getProperty("chatbot.faq.minConfidence", "0.6"));
+    private static final FAQIndex.MatchMode FAQ_MATCH_MODE =
+            FAQIndex.MatchMode.valueOf(System.getProperty("chatbot.faq.matchMode", "SUBSTRING"));
+    private static final String FAQ_SNAPSHOT = System.getProperty("chatbot.faq.snapshot");
+    private static volatile KnowledgeBase knowledgeBase;  // Replaced as a whole on reload
+    private static volatile long retryLoadAfter;
+    private static final long LOAD_RETRY_MILLIS = 5_000;
+    private static FAQRefresher faqRefresher;  // Guarded by DatabaseHelper.class
+    private static final List<Runnable> faqChangeListeners = new CopyOnWriteArrayList<>();
+
+    // Chat history is written behind the chat turn, in batches
+    private static final ChatHistoryWriter HISTORY_WRITER = new ChatHistoryWriter(DatabaseHelper::insertChatHistory,
+            Integer.getInteger("chatbot.history.queueCapacity", 10_000),
+            Integer.getInteger("chatbot.history.batchSize", 100),
+            Long.getLong("chatbot.history.flushIntervalMillis", 200),
+            ChatHistoryWriter.OverflowPolicy.valueOf(System.getProperty("chatbot.history.overflowPolicy", "BLOCK")),
+            Long.getLong("chatbot.history.blockTimeoutMillis", 50));
+    private static final int HISTORY_FETCH_SIZE = Integer.getInteger("chatbot.history.fetchSize", 500);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(DatabaseHelper::shutdown, "database-shutdown"));
+
+        Metrics.gauge("chatbot_db_pool_active", () -> REPOSITORY.getPoolStats().getActive());
+        Metrics.gauge("chatbot_db_pool_idle", () -> REPOSITORY.getPoolStats().getIdle());
+        Metrics.gauge("chatbot_db_pool_waiting", () -> REPOSITORY.getPoolStats().getWaiting());
+        Metrics.gauge("chatbot_history_queue_depth", HISTORY_WRITER::getQueueDepth);
+        Metrics.gauge("chatbot_history_written", HISTORY_WRITER::getWrittenCount);
+        Metrics.gauge("chatbot_history_dropped", HISTORY_WRITER::getDroppedCount);
+        Metrics.gauge("chatbot_history_failed", HISTORY_WRITER::getFailedCount);
+        Metrics.gauge("chatbot_faq_entries", () -> {
+            KnowledgeBase kb = knowledgeBase;
+            return kb == null ? 0 : kb.size();
+        });
+    }
+
+    private static ChatRepository createRepository() {
+        String storage = System.getProperty("chatbot.storage", "mysql").toLowerCase();
+        boolean h2 = "h2".equals(storage);
+        if (!h2 && !"mysql".equals(storage)) {
+            throw new IllegalArgumentException("Unknown chatbot.storage: " + storage + " (expected mysql or h2)");
+        }
+        String url = System.getProperty("chatbot.db.url",
+                h2 ? H2ChatRepository.DEFAULT_URL : "jdbc:mysql://localhost:3306/chatbot_customer");
+
+        // Shared pool so a chat turn reuses open connections instead of reconnecting every call
+        ConnectionPool pool = new ConnectionPool(url,
+                System.getProperty("chatbot.db.user", h2 ? "sa" : "root"),
+                System.getProperty("chatbot.db.password", ""),
+                Integer.getInteger("chatbot.db.pool.maxSize", 10),
+                Integer.getInteger("chatbot.db.pool.minIdle", 1),
+                Long.getLong("chatbot.db.pool.borrowTimeoutMillis", 5_000),
+                Long.getLong("chatbot.db.pool.maxIdleMillis", 300_000),
+                Long.getLong("chatbot.db.pool.validationIntervalMillis", 500),
+                Integer.getInteger("chatbot.db.pool.statementCacheSize", 50));
+        ChatRepository repository = h2 ? new H2ChatRepository(pool) : new JdbcChatRepository(pool);
+
+        String faqFile = System.getProperty("chatbot.storage.faqFile");
+        return faqFile == null ? repository : new MappedFAQRepository(Path.of(faqFile), repository);
+    }
+
+    /**
+     * @return The configured storage backend
+     */
+    public static ChatRepository getRepository() {
+        return REPOSITORY;
+    }
 
     /**
-     * Establishes a connection to the database.
+     * Borrows a connection from the shared connection pool.
+     * Closing the returned connection hands it back to the pool.
      *
      * @return Connection object
      * @throws SQLException if connection fails
      */
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL, USER, PASSWORD);
+        return REPOSITORY.getConnection();
+    }
+
+    /**
+     * Returns the current connection pool metrics (active/idle connections, wait times).
+     *
+     * @return A snapshot of the pool statistics
+     */
+    public static ConnectionPool.Stats getPoolStats() {
+        return REPOSITORY.getPoolStats();
+    }
+
+    /**
+     * Returns the background chat history writer, e.g. to read its queue depth and flush latency.
+     *
+     * @return The chat history writer
+     */
+    public static ChatHistoryWriter getHistoryWriter() {
+        return HISTORY_WRITER;
+    }
+
+    /**
+     * Flushes pending chat history and closes all pooled connections.
+     * Called automatically on JVM shutdown.
+     */
+    public static void shutdown() {
+        synchronized (DatabaseHelper.class) {
+            if (faqRefresher != null) {
+                faqRefresher.close();
+            }
+        }
+        HISTORY_WRITER.close();
+        REPOSITORY.close();
     }
 
     /**
      * Retrieves an FAQ answer based on the query.
-     * This method performs a case-insensitive search.
+     * This method performs a case-insensitive search against the in-memory FAQ index,
+     * loading it from the database on first use.
      *
      * @param query The user's query
      * @return The answer if found, otherwise a fallback message
@@ -28,116 +145,394 @@ public class DatabaseHelper {
     public static String getFAQAnswer(String query) {
         String response = "Sorry, I didn't understand that. Could you please rephrase your query?";
 
-        try (Connection conn = getConnection()) {
-            // Normalize and prepare the query string for case-insensitive matching
-            String sql = "SELECT answer FROM faqs WHERE LOWER(question) LIKE?";
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, "%" + query.toLowerCase() + "%");
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next()) {
-                    response = rs.getString("answer");
-                }
+        String answer = findFAQAnswer(query);
+        return answer != null ? answer : response;
+    }
+
+    /**
+     * Finds the FAQ answer for a query. By default FAQs are ranked with BM25 and the best one is
+     * returned only if its confidence reaches {@code chatbot.faq.minConfidence}, so vague queries
+     * fall through to the keyword step instead of getting an arbitrary answer.
+     *
+     * @param query The user's query
+     * @return The answer, or null if no FAQ matches well enough
+     */
+    public static String findFAQAnswer(String query) {
+        KnowledgeBase kb = getKnowledgeBase();
+        if (kb == null) {
+            // Index could not be loaded, query the store directly
+            try {
+                return REPOSITORY.findFAQAnswer(query);
+            } catch (SQLException e) {
+                ChatLog.error("faq.query", e);
+                return null;
+            }
+        }
+        if (!FAQ_RANKED) {
+            return kb.getFAQIndex().find(query, FAQ_MATCH_MODE);
+        }
+        FAQRanker.Candidate best = kb.getFAQRanker().best(query);
+        return best != null && best.getConfidence() >= FAQ_MIN_CONFIDENCE ? best.getAnswer() : null;
+    }
+
+    /**
+     * Ranks the FAQs against a query, e.g. to offer "did you mean" suggestions.
+     *
+     * @param query The user's query
+     * @param k     Maximum number of results
+     * @return Up to k FAQs sharing a term with the query, best first; empty if the FAQs aren't loaded
+     */
+    public static List<FAQRanker.Candidate> searchFAQs(String query, int k) {
+        KnowledgeBase kb = getKnowledgeBase();
+        return kb == null ? List.of() : kb.getFAQRanker().search(query, k);
+    }
+
+    /**
+     * Retrieves an FAQ answer by scanning the stored FAQs, e.g. with a LIKE query.
+     * Kept for when the in-memory index is unavailable and for benchmarking.
+     *
+     * @param query The user's query
+     * @return The answer if found, otherwise a fallback message
+     */
+    public static String getFAQAnswerFromDatabase(String query) {
+        String response = "Sorry, I didn't understand that. Could you please rephrase your query?";
+
+        try {
+            String answer = REPOSITORY.findFAQAnswer(query);
+            if (answer != null) {
+                response = answer;
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            ChatLog.error("faq.query", e);
         }
         return response;
     }
 
+    /**
+     * Returns the in-memory FAQ index, building it from the faqs table the first time.
+     *
+     * @return The index, or null if the FAQs could not be loaded
+     */
+    public static FAQIndex getFAQIndex() {
+        KnowledgeBase kb = getKnowledgeBase();
+        return kb == null ? null : kb.getFAQIndex();
+    }
+
+    /**
+     * Returns the current FAQ snapshot (index and keyword matcher), loading it the first time
+     * (see {@link #loadKnowledgeBase}). After a failed load the database is not retried for a few seconds,
+     * so an outage doesn't put a full table read on every message.
+     *
+     * @return The snapshot, or null if the FAQs could not be loaded
+     */
+    public static KnowledgeBase getKnowledgeBase() {
+        KnowledgeBase kb = knowledgeBase;
+        if (kb == null && System.currentTimeMillis() >= retryLoadAfter) {
+            synchronized (DatabaseHelper.class) {
+                kb = knowledgeBase;
+                if (kb == null && System.currentTimeMillis() >= retryLoadAfter) {
+                    try {
+                        kb = loadKnowledgeBase();
+                        knowledgeBase = kb;
+                    } catch (SQLException e) {
+                        retryLoadAfter = System.currentTimeMillis() + LOAD_RETRY_MILLIS;
+                        ChatLog.error("faq.load", e, "retryInMillis", LOAD_RETRY_MILLIS);
+                    }
+                }
+            }
+        }
+        return kb;
+    }
+
+    /**
+     * Loads the FAQs for startup. With {@code chatbot.faq.snapshot} set, the compiled snapshot is
+     * mapped, and used as long as it matches the faqs table (same row count, newest
+     * {@code updated_at} and checksum), or the table can't be checked; otherwise the FAQs are read
+     * from the table.
+     *
+     * @return The knowledge base
+     * @throws SQLException if there is no usable snapshot and the FAQs could not be read
+     */
+    static KnowledgeBase loadKnowledgeBase() throws SQLException {
+        if (FAQ_SNAPSHOT != null) {
+            KnowledgeBase kb = openSnapshot(Path.of(FAQ_SNAPSHOT));
+            if (kb != null) {
+                return kb;
+            }
+        }
+        return KnowledgeBase.build(loadFAQs());
+    }
+
+    private static KnowledgeBase openSnapshot(Path file) {
+        long start = System.nanoTime();
+        KnowledgeBase kb;
+        try {
+            kb = KnowledgeBaseSnapshot.load(file, FAQRanker.configuredAnalyzer());
+        } catch (IOException e) {
+            ChatLog.warn("faq.snapshot.unusable", e, "file", file);
+            return null;
+        }
+        try {
+            long[] version = REPOSITORY.loadFAQVersion();
+            if (version[0] != kb.size() || version[1] != kb.getVersion()) {
+                ChatLog.info("faq.snapshot.stale", "file", file, "entries", kb.size(), "storedEntries", version[0],
+                        "version", kb.getVersion(), "storedVersion", version[1]);
+                return null;
+            }
+            // Rows can change without moving either, e.g. a late commit with an older updated_at.
+            // Reading them is still far cheaper than building the index the snapshot saves.
+            long checksum = KnowledgeBase.checksum(REPOSITORY.loadFAQs());
+            if (checksum != kb.getChecksum()) {
+                ChatLog.info("faq.snapshot.stale", "file", file, "entries", kb.size(),
+                        "checksum", kb.getChecksum(), "storedChecksum", checksum);
+                return null;
+            }
+        } catch (SQLException e) {
+            // Legacy table without updated_at, or the database is down: the refresher checks again later
+            ChatLog.warn("faq.snapshot.unverified", e, "file", file);
+        }
+        ChatLog.info("faq.snapshot.loaded", "file", file, "entries", kb.size(),
+                "millis", (System.nanoTime() - start) / 1_000_000);
+        return kb;
+    }
+
+    /**
+     * Returns the current FAQ snapshot without trying to load it.
+     *
+     * @return The snapshot, or null if none has been loaded yet
+     */
+    static KnowledgeBase peekKnowledgeBase() {
+        return knowledgeBase;
+    }
+
+    /**
+     * Atomically replaces the FAQ snapshot and notifies the FAQ change listeners.
+     *
+     * @param kb The new snapshot, fully built
+     */
+    static void publishKnowledgeBase(KnowledgeBase kb) {
+        knowledgeBase = kb;
+        for (Runnable listener : faqChangeListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Rebuilds the FAQ index from the faqs table and notifies the FAQ change listeners.
+     * Call this after the faqs table has been updated.
+     *
+     * @throws SQLException if the FAQs could not be read; the old index stays in place then
+     */
+    public static void reloadFAQs() throws SQLException {
+        publishKnowledgeBase(KnowledgeBase.build(loadFAQs()));
+    }
+
+    /**
+     * Picks up changes to the faqs table right away, through the background refresher if it is
+     * running, so only the changed rows are merged into the current snapshot.
+     */
+    public static void refreshFAQs() {
+        FAQRefresher refresher;
+        synchronized (DatabaseHelper.class) {
+            refresher = faqRefresher;
+        }
+        (refresher != null ? refresher : new FAQRefresher(0)).refresh();
+    }
+
+    /**
+     * Registers a callback that runs after the FAQs have been reloaded,
+     * e.g. to drop cached answers.
+     *
+     * @param listener The callback
+     */
+    public static void addFAQChangeListener(Runnable listener) {
+        faqChangeListeners.add(listener);
+    }
+
+    /**
+     * Starts the background FAQ refresher. Its first run loads the FAQs, so the first chat
+     * message doesn't pay for it; later runs pick up changes to the faqs table.
+     * Does nothing if the refresher is already running.
+     */
+    public static synchronized void startFAQRefresher() {
+        if (faqRefresher == null) {
+            faqRefresher = new FAQRefresher(Long.getLong("chatbot.faq.refreshIntervalMillis", 30_000));
+            faqRefresher.start();
+        }
+    }
+
+    /**
+     * @return The background FAQ refresher, or null if it hasn't been started
+     */
+    public static FAQRefresher getFAQRefresher() {
+        return faqRefresher;
+    }
+
+    /**
+     * Reads every stored FAQ, ordered by id.
+     *
+     * @return The FAQ entries
+     * @throws SQLException if the query fails
+     */
+    public static List<FAQEntry> loadFAQs() throws SQLException {
+        return REPOSITORY.loadFAQs();
+    }
+
+    /**
+     * Reads the FAQ rows inserted or updated at or after the given time.
+     *
+     * @param sinceMillis Epoch millis of the newest updated_at already loaded
+     * @return The changed rows
+     * @throws SQLException if the query fails, e.g. because faqs has no updated_at column
+     */
+    public static List<FAQEntry> loadFAQsChangedSince(long sinceMillis) throws SQLException {
+        return REPOSITORY.loadFAQsChangedSince(sinceMillis);
+    }
+
+    /**
+     * Reads the row count and newest updated_at of the faqs table, to detect changes cheaply.
+     *
+     * @return {count, newest updated_at in epoch millis}
+     * @throws SQLException if the query fails, e.g. because faqs has no updated_at column
+     */
+    public static long[] loadFAQVersion() throws SQLException {
+        return REPOSITORY.loadFAQVersion();
+    }
+
+    /**
+     * Inserts and updates a batch of FAQs in a single transaction. The in-memory FAQs see the
+     * changes after the next refresh, e.g. {@link #refreshFAQs()}.
+     *
+     * @param inserts New FAQs
+     * @param updates Changed FAQs, matched by id
+     * @return The ids assigned to the inserted FAQs, in order
+     * @throws SQLException if the write fails; nothing from the batch is committed then
+     */
+    public static int[] saveFAQs(List<FAQEntry> inserts, List<FAQEntry> updates) throws SQLException {
+        return REPOSITORY.saveFAQs(inserts, updates);
+    }
+
     /**
      * Logs the chat history into the database.
+     * The entry is queued and written in the background by the history writer.
      *
      * @param userId   The ID of the user
      * @param message  The user's message
      * @param response The bot's response
      */
     public static void logChatHistory(int userId, String message, String response) {
-        try (Connection conn = getConnection()) {
-            String sql = "INSERT INTO chat_history (user_id, message, response) VALUES (?, ?, ?)";
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setInt(1, userId);
-                stmt.setString(2, message);
-                stmt.setString(3, response);
-                stmt.executeUpdate();
+        HISTORY_WRITER.submit(userId, message, response);
+    }
+
+    /**
+     * Inserts a batch of chat history entries in a single transaction.
+     *
+     * @param batch The entries to insert
+     * @throws SQLException if the insert fails; nothing from the batch is committed then
+     */
+    static void insertChatHistory(List<ChatHistoryWriter.Entry> batch) throws SQLException {
+        REPOSITORY.insertChatHistory(batch);
+    }
+
+    /**
+     * Loads a page of a user's chat history, newest first, for scrolling back through it.
+     *
+     * @param userId   The ID of the user
+     * @param beforeId Only turns with a smaller id are returned; use {@link Long#MAX_VALUE} for the newest
+     * @param limit    Maximum number of turns
+     * @return The turns, newest first
+     * @throws SQLException if the query fails
+     */
+    public static List<ChatHistoryEntry> loadChatHistoryBefore(int userId, long beforeId, int limit) throws SQLException {
+        return REPOSITORY.loadChatHistoryBefore(userId, beforeId, limit);
+    }
+
+    /**
+     * Loads one page of a user's chat history, newest first, optionally limited to a time range.
+     * Pages are read with a keyset on {@code (created_at, id)}, served by the
+     * {@code idx_chat_history_user_time} index, so deep pages cost the same as the first one.
+     *
+     * @param userId      The ID of the user
+     * @param sinceMillis Only turns at or after this time (epoch millis); 0 for no lower bound
+     * @param untilMillis Only turns before this time; {@link Long#MAX_VALUE} for no upper bound
+     * @param cursor      The previous page's {@link ChatHistoryPage#getNextCursor()}, or null for the first page
+     * @param limit       Maximum number of turns, at least 1
+     * @return The page
+     * @throws SQLException if the query fails
+     * @throws IllegalArgumentException if the limit is below 1 or the cursor is malformed
+     */
+    public static ChatHistoryPage loadChatHistory(int userId, long sinceMillis, long untilMillis,
+                                                  String cursor, int limit) throws SQLException {
+        if (limit < 1) {
+            throw new IllegalArgumentException("History page limit must be at least 1: " + limit);
+        }
+        List<ChatHistoryEntry> entries = new ArrayList<>(Math.min(limit, HISTORY_FETCH_SIZE));
+        long[] after = cursor == null ? null : ChatHistoryPage.decodeCursor(cursor);
+        REPOSITORY.readChatHistory(userId, sinceMillis, untilMillis, after, false, limit, entries::add);
+        String next = entries.size() < limit ? null : ChatHistoryPage.encodeCursor(entries.get(entries.size() - 1));
+        return new ChatHistoryPage(entries, next);
+    }
+
+    /**
+     * Streams a user's chat history, oldest first, to a consumer. Rows are read in keyset pages
+     * of {@code chatbot.history.fetchSize} (default 500), so memory use stays bounded however
+     * long the history is, whatever the JDBC driver's own result set buffering. Each page is
+     * handed to the consumer only after its connection is back in the pool, so a consumer that
+     * blocks, such as a slow HTTP client, doesn't hold a connection meanwhile.
+     *
+     * @param userId      The ID of the user
+     * @param sinceMillis Only turns at or after this time (epoch millis); 0 for no lower bound
+     * @param untilMillis Only turns before this time; {@link Long#MAX_VALUE} for no upper bound
+     * @param action      Called for every turn, in order
+     * @return Number of turns streamed
+     * @throws SQLException if a query fails
+     */
+    public static long forEachChatHistory(int userId, long sinceMillis, long untilMillis,
+                                          Consumer<ChatHistoryEntry> action) throws SQLException {
+        long total = 0;
+        long[] after = null;
+        List<ChatHistoryEntry> page = new ArrayList<>(HISTORY_FETCH_SIZE);
+        while (true) {
+            page.clear();
+            int rows = REPOSITORY.readChatHistory(userId, sinceMillis, untilMillis, after, true, HISTORY_FETCH_SIZE, page::add);
+            for (ChatHistoryEntry entry : page) {
+                action.accept(entry);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            total += rows;
+            if (rows < HISTORY_FETCH_SIZE) {
+                return total;
+            }
+            ChatHistoryEntry last = page.get(page.size() - 1);
+            after = new long[]{last.getCreatedAt(), last.getId()};
         }
     }
 
     /**
-     * Fetches all keyword-response pairs from the database.
+     * Fetches all keyword-response pairs from the current FAQ snapshot.
      *
      * @return A map containing keywords as keys and their corresponding responses as values
      */
     public static Map<String, String> getKeywordResponses() {
-        Map<String, String> responses = new HashMap<>();
-        try (Connection conn = getConnection()) {
-            String sql = "SELECT question, answer FROM faqs";
-            try (Statement stmt = conn.createStatement();
-                 ResultSet rs = stmt.executeQuery(sql)) {
-                while (rs.next()) {
-                    String question = rs.getString("question").toLowerCase(); // Convert to lowercase for consistency
-                    String answer = rs.getString("answer");
-                    responses.put(question, answer);
-                }
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return responses;
+        KnowledgeBase kb = getKnowledgeBase();
+        return kb == null ? new HashMap<>() : kb.getKeywordResponses();
     }
 
     /**
-     * Authenticates a user based on their email and password.
-     * If the user doesn't exist, creates a new user in the database.
+     * Authenticates a user based on their email and password. Unknown emails are rejected; accounts
+     * are created with {@link AuthService#register}.
      *
      * @param email    The user's email
      * @param password The user's password
-     * @return A User object if authentication is successful, otherwise null
-     */
-    public static User authenticateUser(String email, String password) {
-        User user = null;
-
-        try (Connection conn = getConnection()) {
-            // Check if the user already exists
-            String query = "SELECT user_id, name, email, password FROM users WHERE email = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(query)) {
-                pstmt.setString(1, email);
-                ResultSet rs = pstmt.executeQuery();
-
-                if (rs.next()) {
-                    // Validate password here (assuming you use hashed passwords in production)
-                    String storedPassword = rs.getString("password");
-                    if (storedPassword.equals(password)) {
-                        int userId = rs.getInt("user_id");
-                        String name = rs.getString("name");
-                        user = new User(userId, name, email);
-                    } else {
-                        System.out.println("Incorrect password.");
-                    }
-                } else {
-                    // User doesn't exist, create a new one
-                    String insertQuery = "INSERT INTO users (name, email, password) VALUES (?, ?, ?)";
-                    try (PreparedStatement insertStmt = conn.prepareStatement(insertQuery, Statement.RETURN_GENERATED_KEYS)) {
-                        String name = email.split("@")[0]; // Default name is part of email before '@'
-                        insertStmt.setString(1, name);
-                        insertStmt.setString(2, email);
-                        insertStmt.setString(3, password); // In real systems, hash passwords before storing
-                        insertStmt.executeUpdate();
-
-                        ResultSet generatedKeys = insertStmt.getGeneratedKeys();
-                        if (generatedKeys.next()) {
-                            int userId = generatedKeys.getInt(1);
-                            user = new User(userId, name, email);
-                        }
-                    }
-                }
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+     * @return A User object if authentication is successful, otherwise null (also while the
+     *         email is locked out after repeated failures)
+     * @throws SQLException if the users table can't be read
+     */
+    public static User authenticateUser(String email, String password) throws SQLException {
+        try {
+            AuthService.Session session = AuthService.get().login(email, password);
+            return session == null ? null : session.getUser();
+        } catch (AuthService.TooManyAttemptsException e) {
+            return null;
         }
-
-        return user;
     }
 }
@@ -0,0 +1,45 @@
+/**
+ * A single question/answer row of the {@code faqs} table.
+ */
+public class FAQEntry {
+    private final int id;
+    private final String question;
+    private final String answer;
+    private final long updatedAt;  // Epoch millis of the row's updated_at, 0 if unknown
+
+    public FAQEntry(String question, String answer) {
+        this(0, question, answer, 0);
+    }
+
+    public FAQEntry(int id, String question, String answer, long updatedAt) {
+        this.id = id;
+        this.question = question;
+        this.answer = answer;
+        this.updatedAt = updatedAt;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getQuestion() {
+        return question;
+    }
+
+    public String getAnswer() {
+        return answer;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "FAQEntry{" +
+               "id=" + id +
+               ", question='" + question + '\'' +
+               ", answer='" + answer + '\'' +
+               '}';
+    }
+}
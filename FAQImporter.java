@@ -0,0 +1,406 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bulk-loads FAQs from a CSV or JSON Lines file into the faqs table.
+ *
+ * The file is streamed and written in batches of {@code chatbot.faq.import.batchSize} (1000)
+ * rows, one transaction each, so a large import never holds the file in memory. Questions are
+ * deduplicated against the table and within the file by a 64-bit fingerprint of their words, kept
+ * in a primitive hash table; a duplicate is skipped or updates the existing FAQ, depending on the
+ * {@link OnDuplicate} setting. Rows without a question or answer, or too long for the table, are
+ * rejected and counted.
+ *
+ * After each batch the running bot picks the new rows up in the background, merged into the
+ * current knowledge base as overlays rather than rebuilt (see {@link KnowledgeBase#withChanges});
+ * refreshes requested while one is running are coalesced. Progress is logged every
+ * {@code chatbot.faq.import.progressMillis} (5000).
+ *
+ * CSV files need a header row naming the {@code question} and {@code answer} columns; JSON Lines
+ * files hold one object per line with {@code question} and {@code answer} fields.
+ *
+ * Usage: {@code java FAQImporter <file.csv|file.jsonl> [skip|update]}
+ */
+public class FAQImporter {
+    private static final int MAX_QUESTION_LENGTH = 500;   // faqs.question is VARCHAR(500)
+    private static final int MAX_ANSWER_LENGTH = 2000;    // faqs.answer is VARCHAR(2000)
+    private static final int MAX_LOGGED_REJECTS = 20;
+    private static final int PENDING_INSERT = -1;         // Id kept for questions inserted by the current batch
+
+    /**
+     * What happens to a row whose question is already stored.
+     */
+    public enum OnDuplicate {
+        SKIP,    // Keep the stored answer
+        UPDATE   // Replace the stored answer with the imported one
+    }
+
+    private final OnDuplicate onDuplicate;
+    private final int batchSize;
+    private final long progressMillis;
+
+    public FAQImporter(OnDuplicate onDuplicate) {
+        this.onDuplicate = onDuplicate;
+        this.batchSize = Math.max(1, Integer.getInteger("chatbot.faq.import.batchSize", 1_000));
+        this.progressMillis = Long.getLong("chatbot.faq.import.progressMillis", 5_000);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java FAQImporter <file.csv|file.jsonl> [skip|update]");
+            System.exit(2);
+        }
+        OnDuplicate onDuplicate = args.length > 1 ? OnDuplicate.valueOf(args[1].toUpperCase()) : OnDuplicate.SKIP;
+        try {
+            Result result = new FAQImporter(onDuplicate).importFile(Path.of(args[0]));
+            System.out.printf("Read %d rows in %d ms: %d inserted, %d updated, %d duplicates, %d rejected%n",
+                    result.getRows(), result.getMillis(), result.getInserted(), result.getUpdated(),
+                    result.getDuplicates(), result.getRejected());
+        } finally {
+            DatabaseHelper.shutdown();
+        }
+    }
+
+    /**
+     * Imports a file, picking the format from its extension ({@code .csv}, otherwise JSON Lines).
+     *
+     * @param file The file to import
+     * @return The counts
+     * @throws IOException  if the file can't be read
+     * @throws SQLException if the FAQs can't be read or written; batches committed before stay
+     */
+    public Result importFile(Path file) throws IOException, SQLException {
+        ChatHistoryExport.Format format = file.toString().toLowerCase().endsWith(".csv")
+                ? ChatHistoryExport.Format.CSV : ChatHistoryExport.Format.JSONL;
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return importFrom(in, format);
+        }
+    }
+
+    /**
+     * Imports FAQs from a stream, then refreshes the in-memory FAQs so the bot answers from them.
+     *
+     * @param in     The input; not closed
+     * @param format CSV or JSON Lines
+     * @return The counts
+     * @throws IOException  if reading fails, or a CSV file has no question and answer columns
+     * @throws SQLException if the FAQs can't be read or written; batches committed before stay
+     */
+    public Result importFrom(Reader in, ChatHistoryExport.Format format) throws IOException, SQLException {
+        Run run = new Run();
+        for (FAQEntry entry : DatabaseHelper.loadFAQs()) {
+            run.fingerprints.put(fingerprint(entry.getQuestion()), entry.getId());
+        }
+
+        ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "faq-import-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        run.refresher = refresher;
+        try {
+            BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+            if (format == ChatHistoryExport.Format.CSV) {
+                readCsv(reader, run);
+            } else {
+                readJsonLines(reader, run);
+            }
+            run.flush();
+        } finally {
+            refresher.shutdown();
+            try {
+                refresher.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        DatabaseHelper.refreshFAQs();  // Whatever the background refreshes didn't see yet
+
+        Result result = run.result();
+        ChatLog.info("faq.import.done", "rows", result.getRows(), "inserted", result.getInserted(),
+                "updated", result.getUpdated(), "duplicates", result.getDuplicates(),
+                "rejected", result.getRejected(), "millis", result.getMillis());
+        return result;
+    }
+
+    private void readCsv(BufferedReader reader, Run run) throws IOException, SQLException {
+        List<String> header = ChatHistoryExport.readCsvRecord(reader);
+        if (header == null) {
+            return;
+        }
+        int questionColumn = -1;
+        int answerColumn = -1;
+        for (int i = 0; i < header.size(); i++) {
+            String name = header.get(i).trim().toLowerCase();
+            if (name.equals("question")) {
+                questionColumn = i;
+            } else if (name.equals("answer")) {
+                answerColumn = i;
+            }
+        }
+        if (questionColumn < 0 || answerColumn < 0) {
+            throw new IOException("CSV header needs question and answer columns, got " + header);
+        }
+        for (List<String> record = ChatHistoryExport.readCsvRecord(reader); record != null;
+             record = ChatHistoryExport.readCsvRecord(reader)) {
+            if (record.size() == 1 && record.get(0).isEmpty()) {
+                continue;  // Blank line
+            }
+            run.add(questionColumn < record.size() ? record.get(questionColumn) : null,
+                    answerColumn < record.size() ? record.get(answerColumn) : null);
+        }
+    }
+
+    private void readJsonLines(BufferedReader reader, Run run) throws IOException, SQLException {
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            if (line.isBlank()) {
+                continue;
+            }
+            Map<String, Object> row;
+            try {
+                row = Json.parseObject(line);
+            } catch (IllegalArgumentException e) {
+                run.rows++;
+                run.reject("row " + run.rows + " is malformed: " + e.getMessage());
+                continue;
+            }
+            Object question = row.get("question");
+            Object answer = row.get("answer");
+            run.add(question instanceof String ? (String) question : null,
+                    answer instanceof String ? (String) answer : null);
+        }
+    }
+
+    /**
+     * FNV-1a over the question's lowercased words, so questions differing only in case, spacing
+     * or punctuation count as the same.
+     */
+    static long fingerprint(String question) {
+        long h = 0xcbf29ce484222325L;
+        for (String word : FAQIndex.tokenize(question)) {
+            for (int i = 0; i < word.length(); i++) {
+                h ^= word.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= ' ';
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * State of one import: the fingerprints seen, the batch being filled and the counts.
+     */
+    private class Run {
+        final LongIntMap fingerprints = new LongIntMap();
+        final Map<Long, FAQEntry> inserts = new LinkedHashMap<>();  // Current batch, by fingerprint
+        final Map<Long, FAQEntry> updates = new LinkedHashMap<>();
+        final AtomicBoolean refreshPending = new AtomicBoolean();
+        ExecutorService refresher;
+
+        final long start = System.nanoTime();
+        long lastProgress = start;
+        long rows;
+        long inserted;
+        long updated;
+        long duplicates;
+        long rejected;
+
+        void add(String question, String answer) throws SQLException {
+            rows++;
+            if (question == null || question.isBlank() || answer == null || answer.isBlank()) {
+                reject("row " + rows + " has no question or answer");
+            } else if (question.codePointCount(0, question.length()) > MAX_QUESTION_LENGTH
+                    || answer.codePointCount(0, answer.length()) > MAX_ANSWER_LENGTH) {
+                reject("row " + rows + " is longer than " + MAX_QUESTION_LENGTH + "/" + MAX_ANSWER_LENGTH + " characters");
+            } else {
+                place(question.trim(), answer.trim());
+            }
+            if (inserts.size() + updates.size() >= batchSize) {
+                flush();
+            }
+            long now = System.nanoTime();
+            if (progressMillis > 0 && now - lastProgress >= TimeUnit.MILLISECONDS.toNanos(progressMillis)) {
+                lastProgress = now;
+                ChatLog.info("faq.import.progress", "rows", rows, "inserted", inserted, "updated", updated,
+                        "duplicates", duplicates, "rejected", rejected,
+                        "rowsPerSecond", Math.round(rows * 1e9 / (now - start)));
+            }
+        }
+
+        private void place(String question, String answer) {
+            long key = fingerprint(question);
+            int id = fingerprints.get(key);
+            if (id == LongIntMap.MISSING) {
+                fingerprints.put(key, PENDING_INSERT);
+                inserts.put(key, new FAQEntry(question, answer));
+            } else if (onDuplicate == OnDuplicate.SKIP) {
+                duplicates++;
+            } else if (id == PENDING_INSERT) {
+                inserts.put(key, new FAQEntry(question, answer));  // Not stored yet, so the later row is inserted instead
+            } else {
+                // Stored before the import or by an earlier batch; a later row wins within a batch
+                updates.put(key, new FAQEntry(id, question, answer, 0));
+            }
+        }
+
+        void reject(String reason) {
+            rejected++;
+            if (rejected <= MAX_LOGGED_REJECTS) {
+                ChatLog.warn("faq.import.rejected", "reason", reason);
+            }
+        }
+
+        void flush() throws SQLException {
+            if (inserts.isEmpty() && updates.isEmpty()) {
+                return;
+            }
+            int[] ids = DatabaseHelper.saveFAQs(new ArrayList<>(inserts.values()), new ArrayList<>(updates.values()));
+            int i = 0;
+            for (long key : inserts.keySet()) {
+                fingerprints.put(key, ids[i++]);  // Later rows with the same question update the stored one
+            }
+            inserted += inserts.size();
+            updated += updates.size();
+            inserts.clear();
+            updates.clear();
+            if (refreshPending.compareAndSet(false, true)) {
+                refresher.execute(() -> {
+                    refreshPending.set(false);  // Batches committed from here on need another refresh
+                    DatabaseHelper.refreshFAQs();
+                });
+            }
+        }
+
+        Result result() {
+            Metrics.counter("chatbot_faq_import_rows_total", "result", "inserted").add(inserted);
+            Metrics.counter("chatbot_faq_import_rows_total", "result", "updated").add(updated);
+            Metrics.counter("chatbot_faq_import_rows_total", "result", "duplicate").add(duplicates);
+            Metrics.counter("chatbot_faq_import_rows_total", "result", "rejected").add(rejected);
+            return new Result(rows, inserted, updated, duplicates, rejected, (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Open-addressing map from question fingerprints to FAQ ids, without boxing a million keys.
+     */
+    private static class LongIntMap {
+        static final int MISSING = Integer.MIN_VALUE;
+
+        private long[] keys = new long[1024];
+        private int[] values = new int[1024];
+        private boolean[] used = new boolean[1024];
+        private int size;
+
+        int get(long key) {
+            int slot = slot(key);
+            return used[slot] ? values[slot] : MISSING;
+        }
+
+        void put(long key, int value) {
+            int slot = slot(key);
+            if (!used[slot]) {
+                used[slot] = true;
+                keys[slot] = key;
+                if (++size > keys.length / 2) {
+                    grow();
+                    slot = slot(key);
+                }
+            }
+            values[slot] = value;
+        }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) (key ^ (key >>> 32)) * 0x9E3779B9 & mask;
+            while (used[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int slot = slot(oldKeys[i]);
+                    used[slot] = true;
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts from one import.
+     */
+    public static class Result {
+        private final long rows;
+        private final long inserted;
+        private final long updated;
+        private final long duplicates;
+        private final long rejected;
+        private final long millis;
+
+        Result(long rows, long inserted, long updated, long duplicates, long rejected, long millis) {
+            this.rows = rows;
+            this.inserted = inserted;
+            this.updated = updated;
+            this.duplicates = duplicates;
+            this.rejected = rejected;
+            this.millis = millis;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getInserted() {
+            return inserted;
+        }
+
+        public long getUpdated() {
+            return updated;
+        }
+
+        /**
+         * @return Rows skipped because their question was already stored or imported
+         */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return "rows=" + rows + ", inserted=" + inserted + ", updated=" + updated
+                    + ", duplicates=" + duplicates + ", rejected=" + rejected + ", millis=" + millis;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index over the FAQ questions, so FAQ lookups don't need a
+ * {@code LIKE '%...%'} table scan in the database.
+ *
+ * Two match modes are supported:
+ * <ul>
+ *   <li>{@link MatchMode#SUBSTRING} - same semantics as the original SQL query: the first FAQ whose
+ *       lowercased question contains the query. Backed by a trigram index.</li>
+ *   <li>{@link MatchMode#TOKENS} - the first FAQ whose question contains every word of the query.
+ *       Backed by an inverted word index.</li>
+ * </ul>
+ * "First" means first in the order the entries were loaded. An index made with {@link #extend}
+ * covers added or changed FAQs and is searched before the index it extends, so newer rows win.
+ * Instances are immutable and safe to share between threads.
+ */
+public class FAQIndex {
+
+    public enum MatchMode {
+        SUBSTRING,
+        TOKENS
+    }
+
+    private final int[] faqIds;
+    private final String[] questions;  // Lowercased, as the SQL path compares them
+    private final String[] answers;
+    private final Map<Long, int[]> trigramPostings;
+    private final Map<String, int[]> tokenPostings;
+    private final FAQIndex base;           // Index this one overlays, or null
+    private final Set<Integer> shadowed;  // FAQ ids whose rows in the base are replaced
+
+    private FAQIndex(int[] faqIds, String[] questions, String[] answers, Map<Long, int[]> trigramPostings,
+                     Map<String, int[]> tokenPostings, FAQIndex base, Set<Integer> shadowed) {
+        this.faqIds = faqIds;
+        this.questions = questions;
+        this.answers = answers;
+        this.trigramPostings = trigramPostings;
+        this.tokenPostings = tokenPostings;
+        this.base = base;
+        this.shadowed = shadowed;
+    }
+
+    /**
+     * Builds an index over the given FAQ entries.
+     *
+     * @param entries The FAQ rows, in the order lookups should prefer them
+     * @return The index
+     */
+    public static FAQIndex build(List<FAQEntry> entries) {
+        return build(entries, null);
+    }
+
+    /**
+     * Builds an overlay index over added or changed FAQs. Lookups search both the overlay and
+     * this index, skipping the rows the overlay replaces. This index is left untouched.
+     *
+     * @param entries The added or changed FAQ rows
+     * @return The overlay
+     * @throws IllegalStateException if this index is an overlay itself; extend its base instead
+     */
+    public FAQIndex extend(List<FAQEntry> entries) {
+        if (base != null) {
+            throw new IllegalStateException("Overlays are not stacked; extend the base index");
+        }
+        return build(entries, this);
+    }
+
+    private static FAQIndex build(List<FAQEntry> entries, FAQIndex base) {
+        int size = entries.size();
+        int[] faqIds = new int[size];
+        String[] questions = new String[size];
+        String[] answers = new String[size];
+        Map<Long, IntList> trigrams = new HashMap<>();
+        Map<String, IntList> tokens = new HashMap<>();
+
+        for (int id = 0; id < size; id++) {
+            FAQEntry entry = entries.get(id);
+            faqIds[id] = entry.getId();
+            String question = entry.getQuestion() == null ? "" : entry.getQuestion().toLowerCase();
+            questions[id] = question;
+            answers[id] = entry.getAnswer();
+
+            for (int i = 0; i + 3 <= question.length(); i++) {
+                trigrams.computeIfAbsent(trigram(question, i), k -> new IntList()).addUnique(id);
+            }
+            for (String token : tokenize(question)) {
+                tokens.computeIfAbsent(token, k -> new IntList()).addUnique(id);
+            }
+        }
+
+        Set<Integer> shadowed = new HashSet<>();
+        if (base != null) {
+            for (int faqId : faqIds) {
+                shadowed.add(faqId);
+            }
+        }
+        return new FAQIndex(faqIds, questions, answers, freeze(trigrams), freeze(tokens), base, shadowed);
+    }
+
+    /**
+     * Looks up the answer for a query.
+     *
+     * @param query The user's query
+     * @param mode  How the query is matched against the questions
+     * @return The answer of the first matching FAQ, or null if none matches
+     */
+    public String find(String query, MatchMode mode) {
+        String normalized = query.toLowerCase();
+        int id = find(normalized, mode, Set.of());
+        if (base != null) {
+            // The first matching FAQ by id wins, whichever tier it lives in
+            int baseId = base.find(normalized, mode, shadowed);
+            if (baseId >= 0 && (id < 0 || base.faqIds[baseId] < faqIds[id])) {
+                return base.answers[baseId];
+            }
+        }
+        return id < 0 ? null : answers[id];
+    }
+
+    private int find(String normalized, MatchMode mode, Set<Integer> excluded) {
+        return mode == MatchMode.TOKENS ? findByTokens(normalized, excluded) : findBySubstring(normalized, excluded);
+    }
+
+    /**
+     * @return The number of indexed FAQ entries; for an overlay, only its own
+     */
+    public int size() {
+        return questions.length;
+    }
+
+    private int findBySubstring(String query, Set<Integer> excluded) {
+        if (query.length() < 3) {
+            // Too short to use the trigram index; the first hit is usually found quickly anyway
+            for (int id = 0; id < questions.length; id++) {
+                if (questions[id].contains(query) && !isExcluded(id, excluded)) {
+                    return id;
+                }
+            }
+            return -1;
+        }
+
+        Set<Long> seen = new HashSet<>();
+        List<int[]> postings = new ArrayList<>();
+        for (int i = 0; i + 3 <= query.length(); i++) {
+            long key = trigram(query, i);
+            if (seen.add(key)) {
+                int[] list = trigramPostings.get(key);
+                if (list == null) {
+                    return -1;
+                }
+                postings.add(list);
+            }
+        }
+        return firstCandidate(postings, query, true, excluded);
+    }
+
+    private int findByTokens(String query, Set<Integer> excluded) {
+        List<String> words = tokenize(query);
+        if (words.isEmpty()) {
+            return findBySubstring(query, excluded);
+        }
+
+        List<int[]> postings = new ArrayList<>();
+        for (String word : new HashSet<>(words)) {
+            int[] list = tokenPostings.get(word);
+            if (list == null) {
+                return -1;
+            }
+            postings.add(list);
+        }
+        return firstCandidate(postings, query, false, excluded);
+    }
+
+    /**
+     * Walks the shortest postings list and returns the first id present in all the others.
+     * The trigram index only narrows down candidates, so substring hits are verified.
+     */
+    private int firstCandidate(List<int[]> postings, String query, boolean verifySubstring, Set<Integer> excluded) {
+        postings.sort(Comparator.comparingInt(list -> list.length));
+        int[] rarest = postings.get(0);
+
+        candidates:
+        for (int id : rarest) {
+            for (int i = 1; i < postings.size(); i++) {
+                if (Arrays.binarySearch(postings.get(i), id) < 0) {
+                    continue candidates;
+                }
+            }
+            if ((!verifySubstring || questions[id].contains(query)) && !isExcluded(id, excluded)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isExcluded(int id, Set<Integer> excluded) {
+        return !excluded.isEmpty() && excluded.contains(faqIds[id]);
+    }
+
+    private static long trigram(String text, int offset) {
+        return ((long) text.charAt(offset) << 32) | ((long) text.charAt(offset + 1) << 16) | text.charAt(offset + 2);
+    }
+
+    /**
+     * Splits text into lowercase words on anything that is not a letter or digit.
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private static <K> Map<K, int[]> freeze(Map<K, IntList> lists) {
+        Map<K, int[]> frozen = new HashMap<>(lists.size() * 4 / 3 + 1);
+        for (Map.Entry<K, IntList> entry : lists.entrySet()) {
+            frozen.put(entry.getKey(), entry.getValue().toArray());
+        }
+        return frozen;
+    }
+
+    /**
+     * Growable list of ascending ids, used while building postings.
+     */
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void addUnique(int value) {
+            if (size > 0 && values[size - 1] == value) {
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
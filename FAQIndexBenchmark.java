@@ -0,0 +1,92 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Compares FAQ lookups through the in-memory {@link FAQIndex} with the SQL {@code LIKE} path.
+ *
+ * Fills a scratch database with synthetic FAQs at each requested size and times the same set of
+ * queries (mostly hits, some misses) against both paths. The faqs table in the target database is
+ * dropped and recreated, so never point this at a real database.
+ *
+ * Usage: {@code java FAQIndexBenchmark [jdbcUrl] [sizes]}, e.g.
+ * {@code java -cp .:h2.jar FAQIndexBenchmark jdbc:h2:mem:faqbench 1000,100000,1000000}
+ */
+public class FAQIndexBenchmark {
+    private static final int QUERIES = 200;
+    private static final long SQL_TIME_BUDGET_NANOS = 20_000_000_000L;  // Stop the slow path after 20s per size
+
+    /** Folded lookup results, published so the JIT can't drop the lookups that produced them. */
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : "jdbc:h2:mem:faqbench;DB_CLOSE_DELAY=-1";
+        String sizes = args.length > 1 ? args[1] : "1000,100000,1000000";
+
+        try (ConnectionPool pool = new ConnectionPool(url, "sa", "", 1)) {
+            System.out.printf("%-10s %-10s %12s %12s %10s %10s%n", "rows", "path", "avg us/op", "ops", "hits", "build ms");
+            for (String size : sizes.split(",")) {
+                run(pool, Integer.parseInt(size.trim()));
+            }
+        }
+        System.out.println("sink " + Long.toHexString(sink));
+    }
+
+    private static void run(ConnectionPool pool, int rows) throws SQLException {
+        SyntheticFAQs data = new SyntheticFAQs(42);
+        List<FAQEntry> entries = data.faqs(rows);
+        try (Connection conn = pool.getConnection()) {
+            SyntheticFAQs.populate(conn, entries);
+        }
+        List<String> queries = data.queries(entries, QUERIES, 0.8);
+
+        long buildStart = System.nanoTime();
+        FAQIndex index = FAQIndex.build(entries);
+        long buildMillis = (System.nanoTime() - buildStart) / 1_000_000;
+
+        // Warm up both paths before measuring
+        long fold = 0;
+        for (String query : queries) {
+            fold = fold * 31 + System.identityHashCode(index.find(query, FAQIndex.MatchMode.SUBSTRING));
+        }
+
+        long start = System.nanoTime();
+        int rounds = 50;
+        int indexHits = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String query : queries) {
+                String answer = index.find(query, FAQIndex.MatchMode.SUBSTRING);
+                if (answer != null) {
+                    indexHits++;
+                    fold = fold * 31 + System.identityHashCode(answer);
+                }
+            }
+        }
+        long indexNanos = System.nanoTime() - start;
+        report(rows, "index", indexNanos, rounds * queries.size(), indexHits, buildMillis);
+
+        int sqlOps = 0;
+        int sqlHits = 0;
+        start = System.nanoTime();
+        try (Connection conn = pool.getConnection()) {
+            for (String query : queries) {
+                String answer = JdbcChatRepository.queryFAQAnswer(conn, query);
+                sqlOps++;
+                if (answer != null) {
+                    sqlHits++;
+                    fold = fold * 31 + System.identityHashCode(answer);
+                }
+                if (System.nanoTime() - start > SQL_TIME_BUDGET_NANOS) {
+                    break;
+                }
+            }
+        }
+        report(rows, "sql", System.nanoTime() - start, sqlOps, sqlHits, 0);
+        sink = sink * 31 + fold;
+    }
+
+    private static void report(int rows, String path, long nanos, int ops, int hits, long buildMillis) {
+        System.out.printf("%-10d %-10s %12.1f %12d %10d %10s%n", rows, path,
+                ops == 0 ? 0.0 : nanos / 1_000.0 / ops, ops, hits, buildMillis > 0 ? buildMillis : "-");
+    }
+}
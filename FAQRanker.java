@@ -0,0 +1,641 @@
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Ranks FAQ questions against a query with BM25.
+ *
+ * Questions and queries go through the same {@link Analyzer}: either a plain tokenizer with light
+ * suffix stripping, or the lemmas from {@link NLPProcessor} ({@code -Dchatbot.faq.analyzer=lemma}).
+ * Postings are flat parallel buffers of FAQ positions and term frequencies, and the length
+ * normalization of every question is precomputed, so scoring a query is a few tight loops. The
+ * buffers are heap arrays for a ranker built here, or a memory-mapped {@link KnowledgeBaseSnapshot}.
+ *
+ * Each candidate carries a confidence: its score divided by the score of a question that contains
+ * every query term exactly once and has average length, capped at 1. A query term no question
+ * contains counts with the idf it would have in a single question, so a message that shares one
+ * word with a short question isn't a confident match. Callers compare the confidence to a
+ * threshold to decide between answering and falling through to the next step.
+ *
+ * {@link #extend} ranks added or changed FAQs in a small overlay on top of an existing ranker. Its
+ * idf counts documents in both, and candidates of both are normalized against the same maximum,
+ * so they can be merged; length normalization uses the overlay's own average until the knowledge
+ * base is rebuilt.
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public class FAQRanker {
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    // Enough idle accumulators for the searches that run at once, whatever the number of threads
+    private static final int SCRATCH_SLOTS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    private static final Set<String> STOPWORDS = Set.of(
+            "a", "an", "the", "i", "me", "my", "you", "your", "we", "our", "it", "is", "are", "was", "be",
+            "do", "does", "did", "can", "could", "would", "should", "will", "how", "what", "when", "where",
+            "which", "who", "why", "to", "of", "in", "on", "for", "with", "at", "by", "from", "and", "or",
+            "if", "this", "that", "there", "please", "hi", "hello", "thanks", "thank");
+
+    /**
+     * Turns text into the terms that are indexed and searched.
+     */
+    public interface Analyzer {
+        List<String> terms(String text);
+
+        /**
+         * Analyzes many texts; analyzers that can batch the work override this.
+         *
+         * @param texts The texts, none null
+         * @return The terms of each text, in the same order
+         */
+        default List<List<String>> termsOfAll(List<String> texts) {
+            List<List<String>> terms = new ArrayList<>(texts.size());
+            for (String text : texts) {
+                terms.add(terms(text));
+            }
+            return terms;
+        }
+    }
+
+    /**
+     * Splits on non-alphanumerics, drops stopwords and strips common inflections, so
+     * "refunds" and "refunded" both match "refund". Needs no models.
+     */
+    public static final Analyzer SIMPLE = text -> {
+        List<String> terms = new ArrayList<>();
+        for (String word : FAQIndex.tokenize(text)) {
+            if (!STOPWORDS.contains(word)) {
+                terms.add(stem(word));
+            }
+        }
+        return terms;
+    };
+
+    private static volatile Analyzer configuredAnalyzer;
+
+    private final Analyzer analyzer;
+    private final int size;
+    private final IntBuffer faqIds;
+    private final IntFunction<String> questions;  // Decoded only for returned candidates
+    private final IntFunction<String> answers;
+    private final ToIntFunction<String> termIds;  // Term to id, -1 if unknown
+    private final IntFunction<String> terms;      // Id to term
+    private final IntBuffer postingStart;  // Postings of term t are [postingStart[t], postingStart[t + 1])
+    private final IntBuffer postingDocs;   // Ascending positions of the FAQs containing the term
+    private final IntBuffer postingFreqs;  // How often the term occurs in each of those FAQs
+    private final FloatBuffer idf;
+    private final FloatBuffer lengthNorm;  // Per FAQ, K1 * (1 - B + B * length / averageLength)
+    private final float unknownIdf;        // Weight of a query term no FAQ contains, in the confidence
+    private final AtomicReferenceArray<Scratch> scratch;  // Idle accumulators, borrowed per search
+    private final FAQRanker base;          // Ranker this one overlays, or null
+    private final Set<Integer> replaced;  // FAQ ids of the base that this overlay ranks instead
+
+    FAQRanker(Analyzer analyzer, IntBuffer faqIds, IntFunction<String> questions, IntFunction<String> answers,
+              ToIntFunction<String> termIds, IntFunction<String> terms, IntBuffer postingStart,
+              IntBuffer postingDocs, IntBuffer postingFreqs, FloatBuffer idf, FloatBuffer lengthNorm) {
+        this(analyzer, faqIds, questions, answers, termIds, terms, postingStart, postingDocs, postingFreqs, idf,
+                lengthNorm, null, Set.of());
+    }
+
+    private FAQRanker(Analyzer analyzer, IntBuffer faqIds, IntFunction<String> questions,
+                      IntFunction<String> answers, ToIntFunction<String> termIds, IntFunction<String> terms,
+                      IntBuffer postingStart, IntBuffer postingDocs, IntBuffer postingFreqs, FloatBuffer idf,
+                      FloatBuffer lengthNorm, FAQRanker base, Set<Integer> replaced) {
+        this.base = base;
+        this.replaced = replaced;
+        this.analyzer = analyzer;
+        this.size = faqIds.limit();
+        this.faqIds = faqIds;
+        this.questions = questions;
+        this.answers = answers;
+        this.termIds = termIds;
+        this.terms = terms;
+        this.postingStart = postingStart;
+        this.postingDocs = postingDocs;
+        this.postingFreqs = postingFreqs;
+        this.idf = idf;
+        this.lengthNorm = lengthNorm;
+        this.unknownIdf = idf(1, size + (base == null ? 0 : base.size));
+        this.scratch = new AtomicReferenceArray<>(SCRATCH_SLOTS);
+    }
+
+    /**
+     * Builds a ranker over the given FAQs.
+     *
+     * @param entries  The FAQ rows; ties in score go to the earlier one
+     * @param analyzer Turns questions and queries into terms
+     * @return The ranker
+     */
+    public static FAQRanker build(List<FAQEntry> entries, Analyzer analyzer) {
+        return build(entries, analyzer, null);
+    }
+
+    /**
+     * Builds an overlay ranker over added or changed FAQs, with this ranker's analyzer. Searches
+     * merge the overlay's candidates with this ranker's, leaving out the rows the overlay
+     * replaces. This ranker is left untouched.
+     *
+     * @param entries The added or changed FAQ rows
+     * @return The overlay
+     * @throws IllegalStateException if this ranker is an overlay itself; extend its base instead
+     */
+    public FAQRanker extend(List<FAQEntry> entries) {
+        if (base != null) {
+            throw new IllegalStateException("Overlays are not stacked; extend the base ranker");
+        }
+        return build(entries, analyzer, this);
+    }
+
+    private static FAQRanker build(List<FAQEntry> entries, Analyzer analyzer, FAQRanker base) {
+        int size = entries.size();
+        int[] faqIds = new int[size];
+        String[] questions = new String[size];
+        String[] answers = new String[size];
+        int[] lengths = new int[size];
+        Map<String, Integer> termIds = new HashMap<>();
+        List<int[]> docs = new ArrayList<>();   // Growable postings, trimmed below
+        List<int[]> freqs = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        long totalLength = 0;
+
+        List<String> texts = new ArrayList<>(size);
+        for (FAQEntry entry : entries) {
+            texts.add(entry.getQuestion() == null ? "" : entry.getQuestion());
+        }
+        List<List<String>> analyzed = analyzer.termsOfAll(texts);
+
+        for (int doc = 0; doc < size; doc++) {
+            FAQEntry entry = entries.get(doc);
+            faqIds[doc] = entry.getId();
+            questions[doc] = entry.getQuestion();
+            answers[doc] = entry.getAnswer();
+            List<String> terms = entry.getQuestion() == null ? List.of() : analyzed.get(doc);
+            lengths[doc] = terms.size();
+            totalLength += terms.size();
+
+            for (String term : terms) {
+                Integer termId = termIds.get(term);
+                if (termId == null) {
+                    termId = termIds.size();
+                    termIds.put(term, termId);
+                    docs.add(new int[4]);
+                    freqs.add(new int[4]);
+                    counts.add(0);
+                }
+                int count = counts.get(termId);
+                int[] termDocs = docs.get(termId);
+                if (count > 0 && termDocs[count - 1] == doc) {
+                    freqs.get(termId)[count - 1]++;
+                    continue;
+                }
+                if (count == termDocs.length) {
+                    docs.set(termId, termDocs = Arrays.copyOf(termDocs, count * 2));
+                    freqs.set(termId, Arrays.copyOf(freqs.get(termId), count * 2));
+                }
+                termDocs[count] = doc;
+                freqs.get(termId)[count] = 1;
+                counts.set(termId, count + 1);
+            }
+        }
+
+        int terms = termIds.size();
+        String[] termsById = new String[terms];
+        termIds.forEach((term, id) -> termsById[id] = term);
+        int[] postingStart = new int[terms + 1];
+        for (int t = 0; t < terms; t++) {
+            postingStart[t + 1] = postingStart[t] + counts.get(t);
+        }
+        int[] postingDocs = new int[postingStart[terms]];
+        int[] postingFreqs = new int[postingStart[terms]];
+        float[] idf = new float[terms];
+        int documents = size + (base == null ? 0 : base.size);
+        for (int t = 0; t < terms; t++) {
+            int df = counts.get(t);
+            System.arraycopy(docs.get(t), 0, postingDocs, postingStart[t], df);
+            System.arraycopy(freqs.get(t), 0, postingFreqs, postingStart[t], df);
+            int totalDf = df + (base == null ? 0 : base.documentFrequency(termsById[t]));
+            idf[t] = idf(totalDf, documents);
+        }
+        float averageLength = size == 0 ? 1 : Math.max(1, (float) totalLength / size);
+        float[] lengthNorm = new float[size];
+        for (int doc = 0; doc < size; doc++) {
+            lengthNorm[doc] = K1 * (1 - B + B * lengths[doc] / averageLength);
+        }
+
+        Set<Integer> replaced = new HashSet<>();
+        if (base != null) {
+            Set<Integer> ids = new HashSet<>();
+            for (int faqId : faqIds) {
+                ids.add(faqId);
+            }
+            for (int doc = 0; doc < base.size; doc++) {
+                if (ids.contains(base.faqIds.get(doc))) {
+                    replaced.add(base.faqIds.get(doc));
+                }
+            }
+        }
+        return new FAQRanker(analyzer, IntBuffer.wrap(faqIds), doc -> questions[doc], doc -> answers[doc],
+                term -> termIds.getOrDefault(term, -1), id -> termsById[id], IntBuffer.wrap(postingStart), IntBuffer.wrap(postingDocs),
+                IntBuffer.wrap(postingFreqs), FloatBuffer.wrap(idf), FloatBuffer.wrap(lengthNorm), base, replaced);
+    }
+
+    private static float idf(int documentFrequency, int documents) {
+        return (float) Math.log(1 + (documents - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    private int documentFrequency(String term) {
+        int termId = termIds.applyAsInt(term);
+        return termId < 0 ? 0 : postingStart.get(termId + 1) - postingStart.get(termId);
+    }
+
+    /**
+     * Returns the analyzer picked with {@code -Dchatbot.faq.analyzer}: {@code simple} (default) or
+     * {@code lemma}, which runs questions and queries through the LEMMA NLP profile. Falls back
+     * to {@link #SIMPLE} if CoreNLP can't be loaded. With {@code -Dchatbot.nlp.batch=true} the
+     * lemmas come from the shared {@link NLPBatcher}, so concurrent queries are annotated together.
+     *
+     * @return The analyzer used for the knowledge base
+     */
+    public static Analyzer configuredAnalyzer() {
+        Analyzer analyzer = configuredAnalyzer;
+        if (analyzer == null) {
+            synchronized (FAQRanker.class) {
+                analyzer = configuredAnalyzer;
+                if (analyzer == null) {
+                    analyzer = SIMPLE;
+                    if ("lemma".equalsIgnoreCase(System.getProperty("chatbot.faq.analyzer", "simple"))) {
+                        try {
+                            analyzer = Boolean.getBoolean("chatbot.nlp.batch")
+                                    ? lemmas(NLPBatcher.get(NLPPipelines.Profile.LEMMA))
+                                    : lemmas(new NLPProcessor(NLPPipelines.Profile.LEMMA));
+                        } catch (LinkageError | RuntimeException e) {
+                            ChatLog.warn("faq.analyzer", e, "using", "simple");
+                        }
+                    }
+                    configuredAnalyzer = analyzer;
+                }
+            }
+        }
+        return analyzer;
+    }
+
+    /**
+     * @param processor NLP processor whose profile includes the lemma annotator
+     * @return An analyzer over the processor's lemmas, without punctuation and stopwords
+     */
+    public static Analyzer lemmas(NLPProcessor processor) {
+        return text -> lemmaTerms(processor.processText(text));
+    }
+
+    /**
+     * @param batcher NLP batcher whose profile includes the lemma annotator
+     * @return An analyzer like {@link #lemmas(NLPProcessor)} that annotates through the batcher,
+     *         and a whole index build in full batches
+     */
+    public static Analyzer lemmas(NLPBatcher batcher) {
+        return new Analyzer() {
+            @Override
+            public List<String> terms(String text) {
+                return lemmaTerms(batcher.process(text));
+            }
+
+            @Override
+            public List<List<String>> termsOfAll(List<String> texts) {
+                List<List<String>> terms = new ArrayList<>(texts.size());
+                for (NLPProcessor.NLPResult result : batcher.processAll(texts)) {
+                    terms.add(lemmaTerms(result));
+                }
+                return terms;
+            }
+        };
+    }
+
+    private static List<String> lemmaTerms(NLPProcessor.NLPResult result) {
+        List<String> terms = new ArrayList<>();
+        for (String lemma : result.getLemmas()) {
+            if (!STOPWORDS.contains(lemma) && !lemma.isEmpty() && Character.isLetterOrDigit(lemma.charAt(0))) {
+                terms.add(lemma);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * @param query The user's query
+     * @return The best FAQ for the query, or null if no question shares a term with it
+     */
+    public Candidate best(String query) {
+        List<Candidate> top = search(query, 1);
+        return top.isEmpty() ? null : top.get(0);
+    }
+
+    /**
+     * @param query The user's query
+     * @param k     Maximum number of candidates
+     * @return Up to k FAQs sharing a term with the query, best first
+     */
+    public List<Candidate> search(String query, int k) {
+        return searchTerms(analyzer.terms(query), k);
+    }
+
+    /**
+     * Ranks already analyzed query terms, e.g. lemmas taken from an {@link NLPProcessor.NLPResult}.
+     *
+     * @param queryTerms Terms produced by this ranker's analyzer
+     * @param k          Maximum number of candidates
+     * @return Up to k FAQs sharing a term with the query, best first
+     */
+    public List<Candidate> searchTerms(List<String> queryTerms, int k) {
+        if (base == null) {
+            return rank(queryTerms, k);
+        }
+        if (k <= 0) {
+            return Collections.emptyList();
+        }
+
+        // Both tiers are normalized against every known query term, weighted as in the overlay
+        float maxScore = 0;
+        for (int i = 0; i < queryTerms.size(); i++) {
+            String term = queryTerms.get(i);
+            if (queryTerms.subList(0, i).contains(term)) {
+                continue;
+            }
+            int termId = termIds.applyAsInt(term);
+            int baseTermId = termId < 0 ? base.termIds.applyAsInt(term) : -1;
+            maxScore += termId >= 0 ? idf.get(termId) : baseTermId >= 0 ? base.idf.get(baseTermId) : unknownIdf;
+        }
+        if (maxScore == 0) {
+            return Collections.emptyList();
+        }
+
+        // Over-fetch from the base a little, since rows replaced by the overlay are dropped
+        List<Candidate> merged = new ArrayList<>();
+        for (Candidate candidate : base.rank(queryTerms, k + Math.min(replaced.size(), 64))) {
+            if (!replaced.contains(candidate.faqId)) {
+                merged.add(candidate);
+            }
+        }
+        merged.addAll(rank(queryTerms, k));
+        // Ties go to the earlier FAQ, as within one tier
+        merged.sort((a, b) -> a.score != b.score ? Float.compare(b.score, a.score) : Integer.compare(a.faqId, b.faqId));
+
+        List<Candidate> candidates = new ArrayList<>(Math.min(k, merged.size()));
+        for (Candidate candidate : merged.subList(0, Math.min(k, merged.size()))) {
+            candidates.add(new Candidate(candidate.faqId, candidate.question, candidate.answer, candidate.score,
+                    Math.min(1f, candidate.score / maxScore)));
+        }
+        return candidates;
+    }
+
+    /**
+     * Ranks this tier's FAQs, normalized against the query terms this tier knows.
+     */
+    private List<Candidate> rank(List<String> queryTerms, int k) {
+        if (k <= 0 || size == 0) {
+            return Collections.emptyList();
+        }
+        Scratch s = borrowScratch();
+        float[] scores = s.scores;
+        int[] touched = s.touched;
+        int touchedCount = 0;
+        float maxScore = 0;
+
+        for (int q = 0; q < queryTerms.size(); q++) {
+            String term = queryTerms.get(q);
+            if (queryTerms.subList(0, q).contains(term)) {
+                continue;  // Repeated query terms count once
+            }
+            int termId = termIds.applyAsInt(term);
+            if (termId < 0) {
+                maxScore += unknownIdf;  // No question can match it, so the best possible score is lower
+                continue;
+            }
+
+            float weight = idf.get(termId);
+            maxScore += weight;  // A tf of 1 at average length scores exactly idf
+            int end = postingStart.get(termId + 1);
+            for (int i = postingStart.get(termId); i < end; i++) {
+                int doc = postingDocs.get(i);
+                int tf = postingFreqs.get(i);
+                if (scores[doc] == 0) {
+                    touched[touchedCount++] = doc;
+                }
+                scores[doc] += weight * tf * (K1 + 1) / (tf + lengthNorm.get(doc));
+            }
+        }
+
+        // Keep the k best in a small array sorted best-first; ties go to the earlier FAQ
+        int[] topDocs = new int[Math.min(k, touchedCount)];
+        float[] topScores = new float[topDocs.length];
+        int topCount = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int doc = touched[i];
+            float score = scores[doc];
+            scores[doc] = 0;
+            if (topCount == topDocs.length && !better(score, doc, topScores[topCount - 1], topDocs[topCount - 1])) {
+                continue;
+            }
+            int pos = topCount == topDocs.length ? topCount - 1 : topCount++;
+            while (pos > 0 && better(score, doc, topScores[pos - 1], topDocs[pos - 1])) {
+                topDocs[pos] = topDocs[pos - 1];
+                topScores[pos] = topScores[pos - 1];
+                pos--;
+            }
+            topDocs[pos] = doc;
+            topScores[pos] = score;
+        }
+
+        List<Candidate> candidates = new ArrayList<>(topCount);
+        for (int i = 0; i < topCount; i++) {
+            int doc = topDocs[i];
+            candidates.add(new Candidate(faqIds.get(doc), questions.apply(doc), answers.apply(doc), topScores[i],
+                    Math.min(1f, topScores[i] / maxScore)));
+        }
+        returnScratch(s);  // Only now that every touched slot is cleared; a failed search drops it
+        return candidates;
+    }
+
+    /**
+     * Takes an idle accumulator, starting at a slot picked by thread so threads rarely contend,
+     * or allocates one if all are taken. Requests run on short-lived virtual threads, so a
+     * per-thread cache would allocate one for nearly every search.
+     */
+    private Scratch borrowScratch() {
+        int start = (int) Thread.currentThread().getId();
+        for (int i = 0; i < SCRATCH_SLOTS; i++) {
+            int slot = Math.floorMod(start + i, SCRATCH_SLOTS);
+            if (scratch.get(slot) != null) {
+                Scratch s = scratch.getAndSet(slot, null);
+                if (s != null) {
+                    return s;
+                }
+            }
+        }
+        return new Scratch(size);
+    }
+
+    private void returnScratch(Scratch s) {
+        int start = (int) Thread.currentThread().getId();
+        for (int i = 0; i < SCRATCH_SLOTS; i++) {
+            if (scratch.compareAndSet(Math.floorMod(start + i, SCRATCH_SLOTS), null, s)) {
+                return;
+            }
+        }
+        // Every slot is full: more searches ran at once than are kept, so let this one go
+    }
+
+    /**
+     * @return The number of ranked FAQ entries; for an overlay, only its own
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The analyzer used for questions and queries
+     */
+    public Analyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    // The ranker's buffers, for writing a snapshot
+    IntBuffer postingStart() {
+        return postingStart.duplicate();
+    }
+
+    IntBuffer postingDocs() {
+        return postingDocs.duplicate();
+    }
+
+    IntBuffer postingFreqs() {
+        return postingFreqs.duplicate();
+    }
+
+    FloatBuffer idf() {
+        return idf.duplicate();
+    }
+
+    FloatBuffer lengthNorm() {
+        return lengthNorm.duplicate();
+    }
+
+    /**
+     * @param term A term from this ranker's analyzer
+     * @return The term's id, or -1 if no question contains it
+     */
+    int termId(String term) {
+        return termIds.applyAsInt(term);
+    }
+
+    String term(int termId) {
+        return terms.apply(termId);
+    }
+
+    int termCount() {
+        return idf.limit();
+    }
+
+    /**
+     * @return The name a snapshot records for the analyzer: "simple", or "lemma" for any other
+     */
+    static String analyzerName(Analyzer analyzer) {
+        return analyzer == SIMPLE ? "simple" : "lemma";
+    }
+
+    private static boolean better(float score, int doc, float otherScore, int otherDoc) {
+        return score > otherScore || (score == otherScore && doc < otherDoc);
+    }
+
+    static String stem(String word) {
+        int length = word.length();
+        if (length > 4 && word.endsWith("ies")) {
+            return word.substring(0, length - 3) + "y";
+        }
+        if (length > 5 && word.endsWith("ing")) {
+            return word.substring(0, length - 3);
+        }
+        if (length > 4 && word.endsWith("ed") && !word.endsWith("eed")) {
+            return word.substring(0, length - 2);
+        }
+        if (length > 3 && word.endsWith("s") && !word.endsWith("ss") && !word.endsWith("us")) {
+            return word.substring(0, length - 1);
+        }
+        return word;
+    }
+
+    /**
+     * Score accumulator for one search at a time, reset after every search by clearing only the
+     * touched slots.
+     */
+    private static class Scratch {
+        final float[] scores;
+        final int[] touched;
+
+        Scratch(int size) {
+            scores = new float[size];
+            touched = new int[size];
+        }
+    }
+
+    /**
+     * A ranked FAQ.
+     */
+    public static class Candidate {
+        private final int faqId;
+        private final String question;
+        private final String answer;
+        private final float score;
+        private final float confidence;
+
+        Candidate(int faqId, String question, String answer, float score, float confidence) {
+            this.faqId = faqId;
+            this.question = question;
+            this.answer = answer;
+            this.score = score;
+            this.confidence = confidence;
+        }
+
+        public int getFaqId() {
+            return faqId;
+        }
+
+        public String getQuestion() {
+            return question;
+        }
+
+        public String getAnswer() {
+            return answer;
+        }
+
+        public float getScore() {
+            return score;
+        }
+
+        /**
+         * @return The score relative to a full match of the query's known terms, between 0 and 1
+         */
+        public float getConfidence() {
+            return confidence;
+        }
+
+        @Override
+        public String toString() {
+            return "Candidate{" +
+                   "faqId=" + faqId +
+                   ", question='" + question + '\'' +
+                   ", score=" + score +
+                   ", confidence=" + confidence +
+                   '}';
+        }
+    }
+}
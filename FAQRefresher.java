@@ -0,0 +1,208 @@
+import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background job that keeps the in-memory FAQ data in sync with the faqs table.
+ *
+ * Each run first reads the row count and newest {@code updated_at}. If either changed, only the
+ * rows updated since the last load are fetched and merged into a copy of the current snapshot;
+ * if rows were deleted, the table is reloaded in full. The new {@link KnowledgeBase} is built on
+ * the refresher thread and published with a single reference swap.
+ *
+ * Count and newest {@code updated_at} miss some changes: a transaction that commits after a
+ * refresh with an older {@code updated_at}, or an update that leaves both the same. So every
+ * {@code reconcileEvery} runs (default {@code chatbot.faq.reconcileEvery}, 20) the whole table is
+ * read instead and its checksum compared with the snapshot's, which catches any such drift.
+ *
+ * Tables without an {@code updated_at} column are handled in checksum mode: every run reads the
+ * whole table and publishes a new snapshot only if its checksum differs.
+ */
+public class FAQRefresher implements AutoCloseable {
+    private final long intervalMillis;
+    private final int reconcileEvery;
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean checksumMode;
+    private int deltaRuns;  // Guarded by this; delta checks since the last full read
+
+    // Metrics
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder drifts = new LongAdder();
+    private volatile long lastReloadMillis;
+    private volatile int lastDeltaRows;
+    private volatile long lastCheckedAt;
+
+    /**
+     * @param intervalMillis Time between two checks of the faqs table; 0 loads once and stops
+     */
+    public FAQRefresher(long intervalMillis) {
+        this(intervalMillis, Integer.getInteger("chatbot.faq.reconcileEvery", 20));
+    }
+
+    /**
+     * @param intervalMillis Time between two checks of the faqs table; 0 loads once and stops
+     * @param reconcileEvery Runs between two full reads of the table; 0 never reads it in full
+     *                       unless rows were deleted
+     */
+    public FAQRefresher(long intervalMillis, int reconcileEvery) {
+        this.intervalMillis = intervalMillis;
+        this.reconcileEvery = reconcileEvery;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "faq-refresher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Runs the first refresh right away, then every {@code intervalMillis}.
+     */
+    public void start() {
+        if (intervalMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::refresh, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler.execute(this::refresh);
+        }
+    }
+
+    /**
+     * Checks the faqs table once and publishes a new snapshot if it changed. Runs one at a time,
+     * so snapshots are published in order when a refresh is also requested from outside.
+     */
+    public synchronized void refresh() {
+        long start = System.nanoTime();
+        try {
+            KnowledgeBase current = DatabaseHelper.peekKnowledgeBase();
+            KnowledgeBase next;
+            if (current == null) {
+                next = DatabaseHelper.loadKnowledgeBase();
+                lastDeltaRows = next.size();
+            } else if (checksumMode) {
+                next = loadFull(current);
+            } else if (reconcileEvery > 0 && ++deltaRuns >= reconcileEvery) {
+                deltaRuns = 0;
+                next = loadFull(current);
+                if (next != null) {
+                    drifts.increment();
+                    ChatLog.warn("faq.reconcile.drift", "entries", next.size(), "snapshotEntries", current.size());
+                }
+            } else {
+                next = loadDelta(current);
+            }
+            lastCheckedAt = System.currentTimeMillis();
+            if (next != null) {
+                DatabaseHelper.publishKnowledgeBase(next);
+                lastReloadMillis = (System.nanoTime() - start) / 1_000_000;
+                reloads.increment();
+                ChatLog.info("faq.reloaded", "entries", next.size(), "deltaRows", lastDeltaRows,
+                        "millis", lastReloadMillis);
+            }
+        } catch (SQLException | RuntimeException e) {
+            failures.increment();
+            ChatLog.error("faq.refresh", e);
+        }
+    }
+
+    private KnowledgeBase loadFull(KnowledgeBase current) throws SQLException {
+        List<FAQEntry> rows = DatabaseHelper.loadFAQs();
+        KnowledgeBase next = KnowledgeBase.build(rows);
+        lastDeltaRows = rows.size();
+        if (current != null && current.getChecksum() == next.getChecksum() && current.size() == next.size()) {
+            return null;
+        }
+        return next;
+    }
+
+    private KnowledgeBase loadDelta(KnowledgeBase current) throws SQLException {
+        long[] version;
+        try {
+            version = DatabaseHelper.loadFAQVersion();
+        } catch (SQLSyntaxErrorException e) {
+            checksumMode = true;  // No updated_at column to track changes by
+            return loadFull(current);
+        }
+        long count = version[0];
+        long newest = version[1];
+        if (count == current.size() && newest == current.getVersion()) {
+            return null;
+        }
+
+        List<FAQEntry> changed = DatabaseHelper.loadFAQsChangedSince(current.getVersion());
+        lastDeltaRows = changed.size();
+        KnowledgeBase next = current.withChanges(changed);
+        if (next.size() != count) {
+            return loadFull(null);  // Rows were deleted; deltas can't express that
+        }
+        return next;
+    }
+
+    /**
+     * Stops the periodic refresh.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return Number of snapshots published so far
+     */
+    public long getReloadCount() {
+        return reloads.sum();
+    }
+
+    /**
+     * @return Number of refresh runs that failed
+     */
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * @return Number of full reads that found changes the delta checks had missed
+     */
+    public long getDriftCount() {
+        return drifts.sum();
+    }
+
+    /**
+     * @return Duration of the last run that published a snapshot, in milliseconds
+     */
+    public long getLastReloadMillis() {
+        return lastReloadMillis;
+    }
+
+    /**
+     * @return Rows fetched by the last run that found a change
+     */
+    public int getLastDeltaRows() {
+        return lastDeltaRows;
+    }
+
+    /**
+     * @return When the faqs table was last checked, in epoch millis
+     */
+    public long getLastCheckedAt() {
+        return lastCheckedAt;
+    }
+
+    /**
+     * @return Number of FAQ entries in the current snapshot
+     */
+    public int getEntryCount() {
+        KnowledgeBase kb = DatabaseHelper.peekKnowledgeBase();
+        return kb == null ? 0 : kb.size();
+    }
+
+    /**
+     * @return true if the table has no updated_at column and changes are detected by checksum
+     */
+    public boolean isChecksumMode() {
+        return checksumMode;
+    }
+}
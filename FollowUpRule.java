@@ -0,0 +1,13 @@
+/**
+ * A rule that answers a short follow-up message ("yes", "no", "confirm") using what was said
+ * earlier in the conversation. Rules are tried in order before the FAQ and keyword lookups.
+ */
+public interface FollowUpRule {
+
+    /**
+     * @param processedText The normalized (trimmed, lowercased) user message
+     * @param context       The conversation so far; has at least one turn
+     * @return The response, or null if this rule doesn't apply
+     */
+    String apply(String processedText, ConversationContext context);
+}
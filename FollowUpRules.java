@@ -0,0 +1,66 @@
+import java.util.List;
+
+/**
+ * The built-in {@link FollowUpRule}s: an {@link IntentRouter} over the rule table below.
+ */
+public final class FollowUpRules {
+
+    private FollowUpRules() {
+    }
+
+    /**
+     * @return The default rules: the shared intent router
+     */
+    public static List<FollowUpRule> defaults() {
+        return List.of(IntentRouter.defaultRouter());
+    }
+
+    /**
+     * The built-in rule table. A confirmation is checked first and acted on according to the
+     * previous message; "no" only declines when it isn't also a confirmation. The refund and
+     * order rules have no handler: they classify the message a confirmation refers to, refund
+     * first since a refund is usually asked for on an order.
+     *
+     * @return The rules, highest priority first
+     */
+    public static List<IntentRouter.Rule> intentRules() {
+        return List.of(
+                IntentRouter.Rule.of("confirm", "yes", "yeah", "yep", "confirm")
+                        .handledBy(confirmPendingAction()),
+                IntentRouter.Rule.of("decline", "no", "nope", "nah")
+                        .excluding("yes", "yeah", "yep", "confirm")
+                        .handledBy(decline()),
+                IntentRouter.Rule.of("refund", "refund", "reimburse", "reimbursement", "chargeback"),
+                IntentRouter.Rule.of("order", "order", "purchase", "delivery", "deliver", "shipment", "ship",
+                        "package", "track"));
+    }
+
+    /**
+     * A confirmation after the user asked about an order or a refund. Mentions the order number
+     * or refund amount when the earlier message had one.
+     */
+    public static IntentRouter.Handler confirmPendingAction() {
+        return (router, classification, context) -> {
+            IntentRouter.Classification previous = router.classify(context.getLastUserQuery().trim().toLowerCase());
+            if ("order".equals(previous.getIntent())) {
+                String orderNumber = previous.getEntity(IntentRouter.EntityType.ORDER_NUMBER);
+                return orderNumber == null
+                        ? "Okay! I’ll proceed with your order. Do you need help with anything else?"
+                        : "Okay! I’ll proceed with order " + orderNumber + ". Do you need help with anything else?";
+            } else if ("refund".equals(previous.getIntent())) {
+                String amount = previous.getEntity(IntentRouter.EntityType.MONEY);
+                return amount == null
+                        ? "Got it! I'll initiate the refund process. Let me know if there’s anything else."
+                        : "Got it! I'll initiate the refund of " + amount + ". Let me know if there’s anything else.";
+            }
+            return null;
+        };
+    }
+
+    /**
+     * Acknowledges a "no".
+     */
+    public static IntentRouter.Handler decline() {
+        return (router, classification, context) -> "Alright, let me know if you need assistance with anything else.";
+    }
+}
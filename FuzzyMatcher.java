@@ -0,0 +1,431 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Typo correction against the words of the knowledge base, with a SymSpell-style deletion index.
+ *
+ * Every vocabulary word is indexed under itself and each string obtained by deleting up to
+ * {@code maxDistance} of its characters. A query word is looked up the same way: a shared delete
+ * string means the two are within a few edits, which is then confirmed with a bounded
+ * Damerau-Levenshtein distance (adjacent swaps count as one edit). Short words get a smaller
+ * budget, since "cat" is one edit away from too many other words, and words with digits
+ * (order numbers, amounts) are never corrected.
+ *
+ * The index is a flat open-addressing table of 64-bit delete hashes pointing into one postings
+ * array. Lookups hash the query word in place, skipping the deleted positions, and use
+ * per-thread scratch rows for the distance, so they allocate nothing; {@link #correct} only
+ * allocates when it actually changes the text. Hash collisions just cost an extra distance check.
+ *
+ * {@link #extend} indexes only the words an existing matcher doesn't know, in an overlay that
+ * looks words up in both, so new FAQs don't require re-indexing the whole vocabulary.
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public class FuzzyMatcher {
+    static final int MIN_WORD_LENGTH = 3;   // Shorter words are only matched exactly
+    static final int MAX_WORD_LENGTH = 32;  // Longer words are not indexed
+    private static final int FULL_BUDGET_LENGTH = 8;  // Words this long get the full edit budget
+
+    private static final Metrics.Counter BUDGET_EXCEEDED = Metrics.counter("chatbot_fuzzy_budget_exceeded_total");
+
+    private final String[] words;
+    private final int[] counts;  // How often each word occurs in the vocabulary source; ties go to the commoner word
+    private final int maxDistance;
+    private final long budgetNanos;
+    private final long[] keys;      // Delete hashes; 0 marks an empty slot
+    private final int[] start;      // Words of slot s are postings[start[s]..start[s + 1])
+    private final int[] postings;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+    private final FuzzyMatcher base;  // Matcher this one overlays, or null
+    private final int firstId;        // Id of this tier's first word; the base's words come before
+
+    private FuzzyMatcher(String[] words, int[] counts, int maxDistance, long budgetNanos,
+                         long[] keys, int[] start, int[] postings, FuzzyMatcher base) {
+        this.base = base;
+        this.firstId = base == null ? 0 : base.words.length;
+        this.words = words;
+        this.counts = counts;
+        this.maxDistance = maxDistance;
+        this.budgetNanos = budgetNanos;
+        this.keys = keys;
+        this.start = start;
+        this.postings = postings;
+    }
+
+    /**
+     * Builds a matcher with the {@code chatbot.fuzzy.maxDistance} (default 2, 0 disables
+     * correction) and {@code chatbot.fuzzy.budgetMicros} (default 1000) settings.
+     *
+     * @param texts The texts whose words make up the vocabulary, e.g. FAQ questions and keywords
+     * @return The matcher
+     */
+    public static FuzzyMatcher build(Iterable<String> texts) {
+        return build(texts, Integer.getInteger("chatbot.fuzzy.maxDistance", 2),
+                Long.getLong("chatbot.fuzzy.budgetMicros", 1_000));
+    }
+
+    /**
+     * @param texts        The texts whose words make up the vocabulary
+     * @param maxDistance  Most edits a correction may make, at most 2
+     * @param budgetMicros Time {@link #correct} may spend on one text; later words stay as they are
+     * @return The matcher
+     */
+    public static FuzzyMatcher build(Iterable<String> texts, int maxDistance, long budgetMicros) {
+        if (maxDistance < 0 || maxDistance > 2) {
+            throw new IllegalArgumentException("maxDistance must be between 0 and 2: " + maxDistance);
+        }
+        return build(texts, maxDistance, budgetMicros * 1_000, null);
+    }
+
+    /**
+     * Builds an overlay for the words of added texts that this matcher doesn't know yet, with
+     * the same settings. Lookups pick the closer word of the two tiers. This matcher is left
+     * untouched.
+     *
+     * @param texts The added texts
+     * @return The overlay
+     * @throws IllegalStateException if this matcher is an overlay itself; extend its base instead
+     */
+    public FuzzyMatcher extend(Iterable<String> texts) {
+        if (base != null) {
+            throw new IllegalStateException("Overlays are not stacked; extend the base matcher");
+        }
+        return build(texts, maxDistance, budgetNanos, this);
+    }
+
+    private static FuzzyMatcher build(Iterable<String> texts, int maxDistance, long budgetNanos, FuzzyMatcher base) {
+        Map<String, Integer> ids = new HashMap<>();
+        String[] words = new String[64];
+        int[] counts = new int[64];
+        for (String text : texts) {
+            if (text == null) {
+                continue;
+            }
+            for (String word : FAQIndex.tokenize(text)) {
+                if (word.length() > MAX_WORD_LENGTH || hasDigit(word, 0, word.length()) || (base != null && base.knows(word))) {
+                    continue;
+                }
+                Integer id = ids.get(word);
+                if (id == null) {
+                    id = ids.size();
+                    ids.put(word, id);
+                    if (id == words.length) {
+                        words = Arrays.copyOf(words, id * 2);
+                        counts = Arrays.copyOf(counts, id * 2);
+                    }
+                    words[id] = word;
+                }
+                counts[id]++;
+            }
+        }
+        words = Arrays.copyOf(words, ids.size());
+        counts = Arrays.copyOf(counts, ids.size());
+
+        // Collect (delete hash, word) pairs, each distinct delete once per word
+        long[] pairHashes = new long[Math.max(16, words.length * 8)];
+        int[] pairWords = new int[pairHashes.length];
+        int pairs = 0;
+        long[] wordHashes = new long[1 + MAX_WORD_LENGTH + MAX_WORD_LENGTH * (MAX_WORD_LENGTH - 1) / 2];
+        for (int w = 0; w < words.length; w++) {
+            String word = words[w];
+            int n = deletes(word, 0, word.length(), allowedDistance(word.length(), maxDistance), wordHashes);
+            Arrays.sort(wordHashes, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (i > 0 && wordHashes[i] == wordHashes[i - 1]) {
+                    continue;
+                }
+                if (pairs == pairHashes.length) {
+                    pairHashes = Arrays.copyOf(pairHashes, pairs * 2);
+                    pairWords = Arrays.copyOf(pairWords, pairs * 2);
+                }
+                pairHashes[pairs] = wordHashes[i];
+                pairWords[pairs++] = w;
+            }
+        }
+
+        // Counting pass, then fill, so each slot's words end up contiguous
+        int capacity = Math.max(16, pairs + pairs / 3 + 1);
+        long[] keys = new long[capacity];
+        int[] slotOf = new int[pairs];
+        int[] start = new int[capacity + 1];
+        for (int p = 0; p < pairs; p++) {
+            int slot = slot(keys, pairHashes[p]);
+            keys[slot] = pairHashes[p];
+            slotOf[p] = slot;
+            start[slot + 1]++;
+        }
+        for (int s = 0; s < capacity; s++) {
+            start[s + 1] += start[s];
+        }
+        int[] cursor = Arrays.copyOf(start, capacity);
+        int[] postings = new int[pairs];
+        for (int p = 0; p < pairs; p++) {
+            postings[cursor[slotOf[p]]++] = pairWords[p];
+        }
+        return new FuzzyMatcher(words, counts, maxDistance, budgetNanos, keys, start, postings, base);
+    }
+
+    /**
+     * Replaces misspelled words with their closest vocabulary word.
+     *
+     * @param text The processed (lowercased) user message
+     * @return The corrected text, or null if no word was changed
+     */
+    public String correct(String text) {
+        if (maxDistance == 0) {
+            return null;
+        }
+        long deadline = System.nanoTime() + budgetNanos;
+        StringBuilder corrected = null;
+        int copied = 0;
+        int i = 0;
+        while (i < text.length()) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int from = i;
+            while (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (System.nanoTime() > deadline) {
+                BUDGET_EXCEEDED.increment();
+                break;
+            }
+            int id = lookup(text, from, i);
+            if (id < 0) {
+                continue;
+            }
+            String word = word(id);
+            if (word.length() == i - from && text.regionMatches(from, word, 0, i - from)) {
+                continue;
+            }
+            if (corrected == null) {
+                corrected = new StringBuilder(text.length() + 8);
+            }
+            corrected.append(text, copied, from).append(word);
+            copied = i;
+        }
+        return corrected == null ? null : corrected.append(text, copied, text.length()).toString();
+    }
+
+    /**
+     * Finds the vocabulary word closest to {@code text[from, to)}: fewest edits, then the most
+     * frequent, then the first indexed.
+     *
+     * @param text The text holding the word, lowercased
+     * @param from Start of the word
+     * @param to   End of the word (exclusive)
+     * @return The word's id (see {@link #word}), or -1 if nothing is within the edit budget
+     */
+    public int lookup(CharSequence text, int from, int to) {
+        int own = find(text, from, to);
+        if (base == null) {
+            return own;
+        }
+        int other = base.find(text, from, to);
+        if (own < 0 || other < 0) {
+            return own >= 0 ? firstId + own : other;
+        }
+        int distance = scratch.get().bestDistance;
+        int otherDistance = base.scratch.get().bestDistance;
+        if (distance < otherDistance || (distance == otherDistance && counts[own] > base.counts[other])) {
+            return firstId + own;
+        }
+        return other;
+    }
+
+    private boolean knows(String word) {
+        int id = find(word, 0, word.length());
+        return id >= 0 && words[id].equals(word);
+    }
+
+    /**
+     * Looks a word up in this tier only; leaves the distance of the result in the scratch.
+     *
+     * @return The index of the word in this tier, or -1
+     */
+    private int find(CharSequence text, int from, int to) {
+        int length = to - from;
+        if (length == 0 || length > MAX_WORD_LENGTH || hasDigit(text, from, to)) {
+            return -1;
+        }
+        int budget = allowedDistance(length, maxDistance);
+        Scratch scratch = this.scratch.get();
+        scratch.best = -1;
+        scratch.bestDistance = budget + 1;
+
+        // The word itself, then with one and two characters deleted, as in deletes()
+        probe(hash(text, from, to, -1, -1), text, from, to, budget, scratch);
+        for (int i = from; budget > 0 && i < to && scratch.bestDistance > 0; i++) {
+            probe(hash(text, from, to, i, -1), text, from, to, budget, scratch);
+            for (int j = i + 1; budget > 1 && j < to && scratch.bestDistance > 0; j++) {
+                probe(hash(text, from, to, i, j), text, from, to, budget, scratch);
+            }
+        }
+        return scratch.bestDistance <= budget ? scratch.best : -1;
+    }
+
+    /**
+     * Checks the words indexed under one delete hash against the query word.
+     */
+    private void probe(long hash, CharSequence text, int from, int to, int budget, Scratch scratch) {
+        int slot = find(hash);
+        if (slot < 0) {
+            return;
+        }
+        for (int p = start[slot]; p < start[slot + 1]; p++) {
+            int w = postings[p];
+            if (w == scratch.best) {
+                continue;
+            }
+            int bound = Math.min(budget, scratch.bestDistance);
+            int distance = distance(text, from, to, words[w], bound, scratch.rows);
+            if (distance > bound) {
+                continue;
+            }
+            if (distance < scratch.bestDistance || isCommoner(w, scratch.best)) {
+                scratch.best = w;
+                scratch.bestDistance = distance;
+            }
+        }
+    }
+
+    /**
+     * @param id A word id returned by {@link #lookup}
+     * @return The word
+     */
+    public String word(int id) {
+        return id < firstId ? base.word(id) : words[id - firstId];
+    }
+
+    /**
+     * @return Number of distinct words in the vocabulary
+     */
+    public int size() {
+        return firstId + words.length;
+    }
+
+    private boolean isCommoner(int w, int other) {
+        return other < 0 || counts[w] > counts[other] || (counts[w] == counts[other] && w < other);
+    }
+
+    private int find(long hash) {
+        int slot = (int) Long.remainderUnsigned(hash, keys.length);
+        while (keys[slot] != 0) {
+            if (keys[slot] == hash) {
+                return slot;
+            }
+            slot = slot + 1 == keys.length ? 0 : slot + 1;
+        }
+        return -1;
+    }
+
+    private static int slot(long[] keys, long hash) {
+        int slot = (int) Long.remainderUnsigned(hash, keys.length);
+        while (keys[slot] != 0 && keys[slot] != hash) {
+            slot = slot + 1 == keys.length ? 0 : slot + 1;
+        }
+        return slot;
+    }
+
+    static int allowedDistance(int length, int maxDistance) {
+        if (length < MIN_WORD_LENGTH) {
+            return 0;
+        }
+        return length < FULL_BUDGET_LENGTH ? Math.min(1, maxDistance) : maxDistance;
+    }
+
+    /**
+     * Hashes the word and its deletes of up to {@code budget} characters into {@code out}.
+     *
+     * @return Number of hashes written
+     */
+    private static int deletes(CharSequence text, int from, int to, int budget, long[] out) {
+        int n = 0;
+        out[n++] = hash(text, from, to, -1, -1);
+        for (int i = from; budget > 0 && i < to; i++) {
+            out[n++] = hash(text, from, to, i, -1);
+            for (int j = i + 1; budget > 1 && j < to; j++) {
+                out[n++] = hash(text, from, to, i, j);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * FNV-1a over {@code text[from, to)} without the characters at {@code skip1} and {@code skip2}
+     * (-1 for none). Never 0, which marks empty slots.
+     */
+    private static long hash(CharSequence text, int from, int to, int skip1, int skip2) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) {
+            if (i != skip1 && i != skip2) {
+                h ^= text.charAt(i);
+                h *= 0x100000001b3L;
+            }
+        }
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Optimal string alignment distance between {@code text[from, to)} and {@code word}.
+     *
+     * @return The distance, or any value above {@code bound} once it is certain to exceed it
+     */
+    private static int distance(CharSequence text, int from, int to, String word, int bound, int[][] rows) {
+        int n = to - from;
+        int m = word.length();
+        if (Math.abs(n - m) > bound) {
+            return bound + 1;
+        }
+        int[] previous2 = rows[0];
+        int[] previous = rows[1];
+        int[] current = rows[2];
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            current[0] = i;
+            int rowMin = i;
+            char a = text.charAt(from + i - 1);
+            for (int j = 1; j <= m; j++) {
+                char b = word.charAt(j - 1);
+                int cost = a == b ? 0 : 1;
+                int d = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a == word.charAt(j - 2) && text.charAt(from + i - 2) == b) {
+                    d = Math.min(d, previous2[j - 2] + 1);  // Adjacent swap
+                }
+                current[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if (rowMin > bound) {
+                return bound + 1;
+            }
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+        return previous[m];
+    }
+
+    private static boolean hasDigit(CharSequence text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (Character.isDigit(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Per-thread lookup state, reused so lookups don't allocate.
+     */
+    private static class Scratch {
+        final int[][] rows = new int[3][MAX_WORD_LENGTH + 1];
+        int best;
+        int bestDistance;
+    }
+}
@@ -0,0 +1,66 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * {@link ChatRepository} on an embedded H2 database, for running without a MySQL server: on a
+ * laptop, in CI, or for load replays. The schema is created on first use, so an empty file (or
+ * {@code jdbc:h2:mem:...} URL) is all it needs. Requires the H2 driver on the classpath.
+ */
+public class H2ChatRepository extends JdbcChatRepository {
+    /** Database file in the working directory; MySQL mode keeps the shared SQL working unchanged. */
+    public static final String DEFAULT_URL = "jdbc:h2:./chatbot;MODE=MySQL;DATABASE_TO_LOWER=TRUE";
+
+    // Mirrors schema.sql in H2 syntax
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS users ("
+                    + " user_id INT AUTO_INCREMENT PRIMARY KEY,"
+                    + " name VARCHAR(100) NOT NULL,"
+                    + " email VARCHAR(255) NOT NULL UNIQUE,"
+                    + " password VARCHAR(255) NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS faqs ("
+                    + " id INT AUTO_INCREMENT PRIMARY KEY,"
+                    + " question VARCHAR(500) NOT NULL,"
+                    + " answer VARCHAR(2000) NOT NULL,"
+                    + " updated_at TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3) NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS idx_faqs_updated_at ON faqs (updated_at)",
+            "CREATE TABLE IF NOT EXISTS chat_history ("
+                    + " id BIGINT AUTO_INCREMENT PRIMARY KEY,"
+                    + " user_id INT NOT NULL,"
+                    + " message CLOB NOT NULL,"
+                    + " response CLOB NOT NULL,"
+                    + " created_at TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3) NOT NULL,"
+                    + " FOREIGN KEY (user_id) REFERENCES users (user_id))",
+            "CREATE INDEX IF NOT EXISTS idx_chat_history_user_time ON chat_history (user_id, created_at, id)"
+    };
+
+    private volatile boolean schemaReady;
+
+    /**
+     * @param pool Pool of connections to an H2 database; closed with this repository
+     */
+    public H2ChatRepository(ConnectionPool pool) {
+        super(pool);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!schemaReady) {
+            createSchema();
+        }
+        return super.getConnection();
+    }
+
+    private synchronized void createSchema() throws SQLException {
+        if (schemaReady) {
+            return;
+        }
+        try (Connection conn = super.getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (String ddl : SCHEMA) {
+                stmt.execute(ddl);
+            }
+        }
+        schemaReady = true;
+    }
+}
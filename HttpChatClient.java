@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link ChatClient} that talks to a {@link ChatServer} over HTTP, keeping one session
+ * for the lifetime of the client. Clients created by {@link #login} send the server-issued
+ * session token with every message.
+ */
+public class HttpChatClient implements ChatClient {
+    private final HttpClient http;
+    private final URI chatUri;
+    private final User user;
+    private final String authToken;  // From /login, or null
+    private final Duration timeout;
+    private volatile String sessionId;  // Assigned by the server on the first reply
+
+    /**
+     * @param serverUrl Base URL of the chat server, e.g. {@code http://localhost:8080}
+     * @param user      The logged-in user, or null
+     */
+    public HttpChatClient(String serverUrl, User user) {
+        this(HttpClient.newHttpClient(), serverUrl, user);
+    }
+
+    public HttpChatClient(HttpClient http, String serverUrl, User user) {
+        this(http, serverUrl, user, null);
+    }
+
+    /**
+     * @param http      Client to send requests with
+     * @param serverUrl Base URL of the chat server
+     * @param user      The logged-in user, or null
+     * @param authToken Session token from the server's {@code /login}, or null
+     */
+    public HttpChatClient(HttpClient http, String serverUrl, User user, String authToken) {
+        this.http = http;
+        this.chatUri = URI.create(serverUrl.replaceAll("/+$", "") + "/chat");
+        this.user = user;
+        this.authToken = authToken;
+        this.timeout = Duration.ofMillis(Long.getLong("chatbot.requestTimeoutMillis", 10_000));
+    }
+
+    /**
+     * Logs in to the chat server and returns a client bound to the new session.
+     *
+     * @param serverUrl Base URL of the chat server
+     * @param email     The user's email
+     * @param password  The user's password
+     * @return The client, or null if the credentials were rejected
+     * @throws AuthService.TooManyAttemptsException if the server has locked the email out
+     * @throws IOException                          if the server can't be reached or fails
+     * @throws InterruptedException                 if interrupted while waiting for the server
+     */
+    public static HttpChatClient login(String serverUrl, String email, String password)
+            throws AuthService.TooManyAttemptsException, IOException, InterruptedException {
+        HttpClient http = HttpClient.newHttpClient();
+        String base = serverUrl.replaceAll("/+$", "");
+        String form = "email=" + URLEncoder.encode(email, StandardCharsets.UTF_8)
+                + "&password=" + URLEncoder.encode(password, StandardCharsets.UTF_8);
+        HttpRequest request = HttpRequest.newBuilder(URI.create(base + "/login"))
+                .timeout(Duration.ofMillis(Long.getLong("chatbot.requestTimeoutMillis", 10_000)))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form, StandardCharsets.UTF_8))
+                .build();
+        HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        switch (response.statusCode()) {
+            case 200:
+                break;
+            case 401:
+                return null;
+            case 429:
+                long retryAfterSeconds = response.headers().firstValue("Retry-After").map(Long::parseLong).orElse(60L);
+                throw new AuthService.TooManyAttemptsException(retryAfterSeconds * 1000);
+            default:
+                throw new IOException("Chat server returned " + response.statusCode() + ": " + response.body());
+        }
+        String body = response.body();
+        User user = new User(Integer.parseInt(jsonField(body, "userId")), jsonField(body, "name"), jsonField(body, "email"));
+        return new HttpChatClient(http, base, user, jsonField(body, "token"));
+    }
+
+    // Reads one top-level string or number field from the server's flat login response
+    private static String jsonField(String json, String name) throws IOException {
+        Matcher m = Pattern.compile("\"" + name + "\":(?:\"((?:[^\"\\\\]|\\\\.)*)\"|(-?\\d+)|null)").matcher(json);
+        if (!m.find()) {
+            throw new IOException("Malformed login response: missing " + name);
+        }
+        return m.group(1) != null ? m.group(1).replace("\\\"", "\"").replace("\\\\", "\\") : m.group(2);
+    }
+
+    @Override
+    public CompletableFuture<String> send(String message) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(chatUri)
+                .timeout(timeout)
+                .header("Content-Type", "text/plain; charset=utf-8")
+                .POST(HttpRequest.BodyPublishers.ofString(message, StandardCharsets.UTF_8));
+        String session = sessionId;
+        if (session != null) {
+            request.header("X-Session-Id", session);
+        }
+        if (authToken != null) {
+            request.header("Authorization", "Bearer " + authToken);
+        } else if (user != null) {
+            request.header("X-User-Id", String.valueOf(user.getUserId()));  // Only honoured by servers that trust it
+        }
+
+        return http.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .thenApply(response -> {
+                    response.headers().firstValue("X-Session-Id").ifPresent(id -> sessionId = id);
+                    if (response.statusCode() == 503 && response.headers().firstValue("Retry-After").isPresent()) {
+                        throw new ChatExecutor.BusyException(response.body());  // Shed by the server
+                    }
+                    if (response.statusCode() == 504) {
+                        throw new CompletionException(new TimeoutException(response.body()));  // Timed out on the server
+                    }
+                    if (response.statusCode() != 200) {
+                        throw new IllegalStateException("Chat server returned " + response.statusCode() + ": " + response.body());
+                    }
+                    return response.body();
+                });
+    }
+
+    /**
+     * @return The session ID assigned by the server, or null before the first reply
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return The user this client sends messages for, or null
+     */
+    public User getUser() {
+        return user;
+    }
+}
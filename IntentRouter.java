@@ -0,0 +1,469 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Classifies a message into an intent with a compiled rule table, and hands it to the rule's handler.
+ *
+ * A rule names the lemmas that signal its intent (any of them), lemmas that rule it out, and the
+ * entities it needs: order numbers, dates or money amounts. The table is compiled into one map
+ * from lemma to a bitmask of rules, so classifying a message is a lookup per word and a few mask
+ * operations; the first matching rule in table order wins.
+ *
+ * NLP is the expensive part, so it runs only when it can change the answer. A pre-filter matches
+ * the words as written and spots entities by their shape ("#12345", "$25", "3/14", "friday"); if
+ * that resolves a rule, or no word even resembles a rule lemma, the message never reaches CoreNLP.
+ * Only messages with inflected forms ("refunded") or with an entity the patterns can't see
+ * ("fifty dollars") are annotated, and then the lemmas and NER entities are used.
+ *
+ * As a {@link FollowUpRule}, the router answers with the handler of the matched rule; rules
+ * without a handler only classify, e.g. the previous message for a "yes". Since they can't answer,
+ * a follow-up is only annotated when a rule with a handler could still match; an explicit
+ * {@link #classify} considers every rule.
+ */
+public class IntentRouter implements FollowUpRule {
+
+    /**
+     * Entities rules can require.
+     */
+    public enum EntityType {
+        ORDER_NUMBER, DATE, MONEY
+    }
+
+    /**
+     * Answers a message whose intent has been recognized.
+     */
+    public interface Handler {
+        /**
+         * @param router         The router that matched, e.g. to classify earlier messages
+         * @param classification The intent and entities of the message
+         * @param context        The conversation so far
+         * @return The response, or null to let the next matching rule try
+         */
+        String handle(IntentRouter router, Classification classification, ConversationContext context);
+    }
+
+    private static final int STEM_LENGTH = 4;  // Words sharing this prefix with a rule lemma may be inflections of it
+    private static final Set<String> MONTHS = Set.of("january", "february", "march", "april", "may", "june",
+            "july", "august", "september", "october", "november", "december", "jan", "feb", "mar", "apr", "jun",
+            "jul", "aug", "sep", "sept", "oct", "nov", "dec");
+    private static final Set<String> DAYS = Set.of("monday", "tuesday", "wednesday", "thursday", "friday",
+            "saturday", "sunday", "today", "tomorrow", "yesterday", "tonight");
+    private static final Set<String> CURRENCY_WORDS = Set.of("dollar", "dollars", "usd", "eur", "euro", "euros",
+            "pound", "pounds", "gbp", "bucks", "cents");
+
+    private static final Metrics.Counter PREFILTER = classificationCounter("prefilter");
+    private static final Metrics.Counter NLP = classificationCounter("nlp");
+    private static final Metrics.Counter SKIPPED = classificationCounter("skipped");
+    private static final Metrics.Histogram NLP_TIME = Metrics.histogram("chatbot_intent_nlp_seconds");
+
+    private static volatile IntentRouter defaultRouter;
+
+    private final Rule[] rules;
+    private final Map<String, Long> signals = new HashMap<>();     // Lemma to the rules it signals
+    private final Map<String, Long> exclusions = new HashMap<>();  // Lemma to the rules it rules out
+    private final Map<String, Long> stems = new HashMap<>();      // Lemma prefix to the rules it may signal
+    private final long handled;                                    // Rules that have a handler
+    private final Function<String, NLPProcessor.NLPResult> annotator;  // Null: pre-filter only
+    private volatile boolean annotatorFailed;
+
+    /**
+     * @param rules     The rule table, highest priority first; at most 64 rules
+     * @param annotator Annotates a message with lemmas and NER entities, or null to use the
+     *                  pre-filter alone
+     */
+    public IntentRouter(List<Rule> rules, Function<String, NLPProcessor.NLPResult> annotator) {
+        if (rules.size() > Long.SIZE) {
+            throw new IllegalArgumentException("At most " + Long.SIZE + " rules: " + rules.size());
+        }
+        this.rules = rules.toArray(new Rule[0]);
+        this.annotator = annotator;
+        long handled = 0;
+        for (int r = 0; r < this.rules.length; r++) {
+            long bit = 1L << r;
+            if (this.rules[r].handler != null) {
+                handled |= bit;
+            }
+            for (String lemma : this.rules[r].lemmas) {
+                signals.merge(lemma, bit, (a, b) -> a | b);
+                if (lemma.length() > STEM_LENGTH) {
+                    stems.merge(lemma.substring(0, STEM_LENGTH), bit, (a, b) -> a | b);
+                }
+            }
+            for (String lemma : this.rules[r].excluded) {
+                exclusions.merge(lemma, bit, (a, b) -> a | b);
+            }
+        }
+        this.handled = handled;
+    }
+
+    /**
+     * Returns the router with the built-in rules (see {@link FollowUpRules}), annotating with
+     * the FULL NLP profile, through the shared {@link NLPBatcher} with {@code -Dchatbot.nlp.batch=true}.
+     * The models are loaded the first time a message needs them.
+     *
+     * @return The shared router
+     */
+    public static IntentRouter defaultRouter() {
+        IntentRouter router = defaultRouter;
+        if (router == null) {
+            synchronized (IntentRouter.class) {
+                router = defaultRouter;
+                if (router == null) {
+                    router = new IntentRouter(FollowUpRules.intentRules(), new LazyAnnotator());
+                    defaultRouter = router;
+                }
+            }
+        }
+        return router;
+    }
+
+    @Override
+    public String apply(String processedText, ConversationContext context) {
+        Classification classification = classify(processedText, handled);
+        for (int r = classification.ruleIndex; r >= 0; r = nextMatch(classification, r + 1)) {
+            Handler handler = rules[r].handler;
+            if (handler != null) {
+                String response = handler.handle(this, classification.forRule(rules[r]), context);
+                if (response != null) {
+                    return response;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the intent of a message, running NLP only if the pre-filter can't settle it.
+     *
+     * @param processedText The normalized (trimmed, lowercased) message
+     * @return The classification; its intent is null if no rule matched
+     */
+    public Classification classify(String processedText) {
+        return classify(processedText, -1L);
+    }
+
+    /**
+     * @param relevant The rules worth running NLP for; the others are matched on the words as written
+     */
+    private Classification classify(String processedText, long relevant) {
+        List<String> words = FAQIndex.tokenize(processedText);
+        Map<EntityType, List<String>> entities = new EnumMap<>(EntityType.class);
+        findEntities(processedText, words, entities);
+        Classification surface = match(words, entities, false);
+        if (surface.ruleIndex >= 0 && surface.missingEntities == 0) {
+            PREFILTER.increment();
+            return surface;
+        }
+        if (annotator == null || annotatorFailed || !worthAnnotating(words, surface, relevant)) {
+            SKIPPED.increment();
+            return surface;
+        }
+
+        long start = Metrics.start();
+        NLPProcessor.NLPResult result;
+        try {
+            result = annotator.apply(processedText);
+        } catch (LinkageError | RuntimeException e) {
+            annotatorFailed = true;  // CoreNLP or its models are missing; don't retry on every message
+            ChatLog.warn("intent.nlp", e, "using", "prefilter");
+            return surface;
+        }
+        NLP_TIME.observeSince(start);
+        NLP.increment();
+        addNamedEntities(result.getEntities(), entities);
+        List<String> lemmas = new ArrayList<>(words);
+        lemmas.addAll(result.getLemmas());
+        return match(lemmas, entities, true);
+    }
+
+    /**
+     * True if NLP might find a relevant rule the words as written don't: a word that looks like an
+     * inflection of its lemma, or the rule matched and is only missing entities.
+     */
+    private boolean worthAnnotating(List<String> words, Classification surface, long relevant) {
+        if ((surface.missingEntities & relevant) != 0) {
+            return true;
+        }
+        for (String word : words) {
+            if (word.length() >= STEM_LENGTH && !signals.containsKey(word)) {
+                Long bits = stems.get(word.substring(0, STEM_LENGTH));
+                if (bits != null && (bits & relevant) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Classification match(List<String> lemmas, Map<EntityType, List<String>> entities, boolean usedNLP) {
+        long signalled = 0;
+        long excluded = 0;
+        for (String lemma : lemmas) {
+            Long bits = signals.get(lemma);
+            if (bits != null) {
+                signalled |= bits;
+            }
+            bits = exclusions.get(lemma);
+            if (bits != null) {
+                excluded |= bits;
+            }
+        }
+        long candidates = signalled & ~excluded;
+        Classification classification = new Classification(entities, candidates, usedNLP);
+        long missing = 0;
+        for (long remaining = candidates; remaining != 0; remaining &= remaining - 1) {
+            int r = Long.numberOfTrailingZeros(remaining);
+            if (entities.keySet().containsAll(rules[r].entities)) {
+                classification.ruleIndex = r;
+                classification.intent = rules[r].intent;
+                break;
+            }
+            missing |= 1L << r;
+        }
+        classification.missingEntities = missing;
+        return classification;
+    }
+
+    private int nextMatch(Classification classification, int from) {
+        for (int r = from; r < rules.length; r++) {
+            if ((classification.candidates & (1L << r)) != 0
+                    && classification.entities.keySet().containsAll(rules[r].entities)) {
+                return r;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Spots entities by their shape: "#123" or a long number is an order number, a number next
+     * to a currency sign or word is money, and d/m(/y), yyyy-mm-dd, month and day names are dates.
+     */
+    static void findEntities(String text, List<String> words, Map<EntityType, List<String>> entities) {
+        int i = 0;
+        while (i < text.length()) {
+            if (!Character.isDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int from = i;
+            while (i < text.length() && (Character.isDigit(text.charAt(i))
+                    || ((text.charAt(i) == '.' || text.charAt(i) == ',' || text.charAt(i) == '/' || text.charAt(i) == '-')
+                        && i + 1 < text.length() && Character.isDigit(text.charAt(i + 1))))) {
+                i++;
+            }
+            String number = text.substring(from, i);
+            char before = from > 0 ? text.charAt(from - 1) : ' ';
+            if (before == '$' || before == '€' || before == '£' || followedByCurrencyWord(text, i)) {
+                add(entities, EntityType.MONEY, (before == '$' || before == '€' || before == '£' ? before : "") + number);
+            } else if (number.matches("\\d{1,2}[/-]\\d{1,2}([/-]\\d{2,4})?|\\d{4}-\\d{2}-\\d{2}")) {
+                add(entities, EntityType.DATE, number);
+            } else if (number.chars().allMatch(Character::isDigit) && (before == '#' || number.length() >= 5)) {
+                add(entities, EntityType.ORDER_NUMBER, number);
+            }
+        }
+        for (String word : words) {
+            if (MONTHS.contains(word) || DAYS.contains(word)) {
+                add(entities, EntityType.DATE, word);
+            }
+        }
+    }
+
+    private static boolean followedByCurrencyWord(String text, int at) {
+        while (at < text.length() && text.charAt(at) == ' ') {
+            at++;
+        }
+        int end = at;
+        while (end < text.length() && Character.isLetter(text.charAt(end))) {
+            end++;
+        }
+        return end > at && CURRENCY_WORDS.contains(text.substring(at, end));
+    }
+
+    /**
+     * Adds the CoreNLP NER entities that map to an {@link EntityType}.
+     */
+    private static void addNamedEntities(Map<String, List<String>> named, Map<EntityType, List<String>> entities) {
+        for (Map.Entry<String, List<String>> entry : named.entrySet()) {
+            switch (entry.getKey()) {
+                case "DATE":
+                    entry.getValue().forEach(value -> add(entities, EntityType.DATE, value));
+                    break;
+                case "MONEY":
+                    entry.getValue().forEach(value -> add(entities, EntityType.MONEY, value));
+                    break;
+                case "NUMBER":
+                    for (String value : entry.getValue()) {
+                        if (value.length() >= 5 && value.chars().allMatch(Character::isDigit)) {
+                            add(entities, EntityType.ORDER_NUMBER, value);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static void add(Map<EntityType, List<String>> entities, EntityType type, String value) {
+        List<String> values = entities.computeIfAbsent(type, t -> new ArrayList<>());
+        if (!values.contains(value)) {
+            values.add(value);
+        }
+    }
+
+    private static Metrics.Counter classificationCounter(String path) {
+        return Metrics.counter("chatbot_intent_classifications_total", "path", path);
+    }
+
+    /**
+     * One row of the rule table.
+     */
+    public static class Rule {
+        private final String intent;
+        private final Set<String> lemmas;
+        private final Set<String> excluded;
+        private final Set<EntityType> entities;
+        private final Handler handler;
+
+        private Rule(String intent, Set<String> lemmas, Set<String> excluded, Set<EntityType> entities, Handler handler) {
+            this.intent = intent;
+            this.lemmas = lemmas;
+            this.excluded = excluded;
+            this.entities = entities;
+            this.handler = handler;
+        }
+
+        /**
+         * @param intent The intent this rule recognizes
+         * @param lemmas Lowercased lemmas, any of which signals it
+         * @return A rule without exclusions, entity requirements or handler
+         */
+        public static Rule of(String intent, String... lemmas) {
+            if (lemmas.length == 0) {
+                throw new IllegalArgumentException("Rule " + intent + " needs at least one lemma");
+            }
+            return new Rule(intent, Set.copyOf(Arrays.asList(lemmas)), Set.of(), Set.of(), null);
+        }
+
+        /**
+         * @return A copy of this rule that doesn't match when any of the lemmas is present
+         */
+        public Rule excluding(String... lemmas) {
+            return new Rule(intent, this.lemmas, Set.copyOf(Arrays.asList(lemmas)), entities, handler);
+        }
+
+        /**
+         * @return A copy of this rule that only matches when all these entities are present
+         */
+        public Rule requiring(EntityType first, EntityType... rest) {
+            return new Rule(intent, lemmas, excluded, Collections.unmodifiableSet(EnumSet.of(first, rest)), handler);
+        }
+
+        /**
+         * @return A copy of this rule that answers with the handler
+         */
+        public Rule handledBy(Handler handler) {
+            return new Rule(intent, lemmas, excluded, entities, handler);
+        }
+
+        public String getIntent() {
+            return intent;
+        }
+
+        @Override
+        public String toString() {
+            return "Rule{" + intent + ", lemmas=" + lemmas + ", entities=" + entities + '}';
+        }
+    }
+
+    /**
+     * The intent and entities found in a message.
+     */
+    public static class Classification {
+        private final Map<EntityType, List<String>> entities;
+        private final long candidates;  // Rules signalled and not excluded
+        private final boolean usedNLP;
+        private int ruleIndex = -1;
+        private String intent;
+        private long missingEntities;   // Candidates that were skipped for lack of entities
+
+        private Classification(Map<EntityType, List<String>> entities, long candidates, boolean usedNLP) {
+            this.entities = entities;
+            this.candidates = candidates;
+            this.usedNLP = usedNLP;
+        }
+
+        private Classification forRule(Rule rule) {
+            Classification copy = new Classification(entities, candidates, usedNLP);
+            copy.ruleIndex = ruleIndex;
+            copy.intent = rule.intent;
+            copy.missingEntities = missingEntities;
+            return copy;
+        }
+
+        /**
+         * @return The intent of the first matching rule, or null if none matched
+         */
+        public String getIntent() {
+            return intent;
+        }
+
+        /**
+         * @return The first value found for the entity type, or null
+         */
+        public String getEntity(EntityType type) {
+            List<String> values = entities.get(type);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        public Map<EntityType, List<String>> getEntities() {
+            return entities;
+        }
+
+        /**
+         * @return Whether the message had to go through NLP
+         */
+        public boolean usedNLP() {
+            return usedNLP;
+        }
+
+        @Override
+        public String toString() {
+            return "Classification{intent=" + intent + ", entities=" + entities + ", usedNLP=" + usedNLP + '}';
+        }
+    }
+
+    /**
+     * Creates the FULL-profile annotator on first use, so routers that never need NLP never load it.
+     */
+    private static class LazyAnnotator implements Function<String, NLPProcessor.NLPResult> {
+        private volatile Function<String, NLPProcessor.NLPResult> delegate;
+
+        @Override
+        public NLPProcessor.NLPResult apply(String text) {
+            Function<String, NLPProcessor.NLPResult> annotate = delegate;
+            if (annotate == null) {
+                synchronized (this) {
+                    annotate = delegate;
+                    if (annotate == null) {
+                        if (Boolean.getBoolean("chatbot.nlp.batch")) {
+                            annotate = NLPBatcher.get(NLPPipelines.Profile.FULL)::process;
+                        } else {
+                            annotate = new NLPProcessor(NLPPipelines.Profile.FULL)::processText;
+                        }
+                        delegate = annotate;
+                    }
+                }
+            }
+            return annotate.apply(text);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * {@link ChatRepository} on a JDBC database with the tables from schema.sql, through a
+ * {@link ConnectionPool}. The SQL is plain enough for MySQL and for H2 in MySQL mode.
+ */
+public class JdbcChatRepository implements ChatRepository {
+    private final ConnectionPool pool;
+
+    /**
+     * @param pool Pool of connections to the database; closed with this repository
+     */
+    public JdbcChatRepository(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return pool.getConnection();
+    }
+
+    @Override
+    public ConnectionPool.Stats getPoolStats() {
+        return pool.getStats();
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * Reads every row of the faqs table, ordered by id.
+     * Falls back to the legacy two-column layout if the table has no id/updated_at columns.
+     */
+    @Override
+    public List<FAQEntry> loadFAQs() throws SQLException {
+        try {
+            return queryFAQs("SELECT id, question, answer, updated_at FROM faqs ORDER BY id", null);
+        } catch (SQLSyntaxErrorException e) {
+            List<FAQEntry> entries = new ArrayList<>();
+            try (Connection conn = getConnection()) {
+                String sql = "SELECT question, answer FROM faqs";
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery(sql)) {
+                    int row = 0;
+                    while (rs.next()) {
+                        entries.add(new FAQEntry(++row, rs.getString("question"), rs.getString("answer"), 0));
+                    }
+                }
+            }
+            return entries;
+        }
+    }
+
+    @Override
+    public List<FAQEntry> loadFAQsChangedSince(long sinceMillis) throws SQLException {
+        // >= rather than >, so rows committed later with the same timestamp aren't missed
+        return queryFAQs("SELECT id, question, answer, updated_at FROM faqs WHERE updated_at >= ? ORDER BY id",
+                new Timestamp(sinceMillis));
+    }
+
+    @Override
+    public long[] loadFAQVersion() throws SQLException {
+        try (Connection conn = getConnection()) {
+            String sql = "SELECT COUNT(*), MAX(updated_at) FROM faqs";
+            try (PreparedStatement stmt = conn.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                Timestamp newest = rs.getTimestamp(2);
+                return new long[]{rs.getLong(1), newest == null ? 0 : newest.getTime()};
+            }
+        }
+    }
+
+    private List<FAQEntry> queryFAQs(String sql, Timestamp since) throws SQLException {
+        List<FAQEntry> entries = new ArrayList<>();
+        try (Connection conn = getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                if (since != null) {
+                    stmt.setTimestamp(1, since);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Timestamp updatedAt = rs.getTimestamp("updated_at");
+                        entries.add(new FAQEntry(rs.getInt("id"), rs.getString("question"), rs.getString("answer"),
+                                updatedAt == null ? 0 : updatedAt.getTime()));
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public int[] saveFAQs(List<FAQEntry> inserts, List<FAQEntry> updates) throws SQLException {
+        int[] ids = new int[inserts.size()];
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            if (!inserts.isEmpty()) {
+                String sql = "INSERT INTO faqs (question, answer) VALUES (?, ?)";
+                try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    for (FAQEntry entry : inserts) {
+                        stmt.setString(1, entry.getQuestion());
+                        stmt.setString(2, entry.getAnswer());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                    try (ResultSet keys = stmt.getGeneratedKeys()) {
+                        int i = 0;
+                        while (keys.next() && i < ids.length) {
+                            ids[i++] = keys.getInt(1);
+                        }
+                        if (i < ids.length) {
+                            throw new SQLException("Expected " + ids.length + " generated FAQ ids, got " + i);
+                        }
+                    }
+                }
+            }
+            if (!updates.isEmpty()) {
+                try (PreparedStatement stmt = conn.prepareStatement("UPDATE faqs SET question = ?, answer = ? WHERE id = ?")) {
+                    for (FAQEntry entry : updates) {
+                        stmt.setString(1, entry.getQuestion());
+                        stmt.setString(2, entry.getAnswer());
+                        stmt.setInt(3, entry.getId());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+            }
+            conn.commit();
+        }
+        return ids;
+    }
+
+    @Override
+    public String findFAQAnswer(String query) throws SQLException {
+        try (Connection conn = getConnection()) {
+            return queryFAQAnswer(conn, query);
+        }
+    }
+
+    /**
+     * Scans the faqs table with a LIKE query. Kept separate for benchmarking against the index.
+     *
+     * @param conn  Connection to run the query on
+     * @param query The user's query
+     * @return The first matching answer, or null
+     * @throws SQLException if the query fails
+     */
+    static String queryFAQAnswer(Connection conn, String query) throws SQLException {
+        // Normalize and prepare the query string for case-insensitive matching
+        String sql = "SELECT answer FROM faqs WHERE LOWER(question) LIKE?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, "%" + query.toLowerCase() + "%");
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString("answer") : null;
+            }
+        }
+    }
+
+    @Override
+    public StoredUser findUserByEmail(String email) throws SQLException {
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT user_id, name, email, password FROM users WHERE email = ?")) {
+            stmt.setString(1, email);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                User user = new User(rs.getInt("user_id"), rs.getString("name"), rs.getString("email"));
+                return new StoredUser(user, rs.getString("password"));
+            }
+        }
+    }
+
+    @Override
+    public User insertUser(String name, String email, String passwordHash) throws SQLException {
+        String sql = "INSERT INTO users (name, email, password) VALUES (?, ?, ?)";
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, name);
+            stmt.setString(2, email);
+            stmt.setString(3, passwordHash);
+            stmt.executeUpdate();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                return keys.next() ? new User(keys.getInt(1), name, email) : null;
+            }
+        } catch (SQLIntegrityConstraintViolationException e) {
+            return null;  // Email is UNIQUE
+        }
+    }
+
+    @Override
+    public void updatePasswordHash(int userId, String passwordHash) throws SQLException {
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement("UPDATE users SET password = ? WHERE user_id = ?")) {
+            stmt.setString(1, passwordHash);
+            stmt.setInt(2, userId);
+            stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public void insertChatHistory(List<ChatHistoryWriter.Entry> batch) throws SQLException {
+        try (Connection conn = getConnection()) {
+            // created_at is the time the turn happened, not when its batch was flushed or retried,
+            // so history pages by (created_at, id) keep conversation order
+            String sql = "INSERT INTO chat_history (user_id, message, response, created_at) VALUES (?, ?, ?, ?)";
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                for (ChatHistoryWriter.Entry entry : batch) {
+                    stmt.setInt(1, entry.getUserId());
+                    stmt.setString(2, entry.getMessage());
+                    stmt.setString(3, entry.getResponse());
+                    stmt.setTimestamp(4, new Timestamp(entry.getTimestamp()));
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                conn.commit();
+            }
+        }
+    }
+
+    @Override
+    public List<ChatHistoryEntry> loadChatHistoryBefore(int userId, long beforeId, int limit) throws SQLException {
+        String sql = "SELECT id, user_id, message, response, created_at FROM chat_history "
+                + "WHERE user_id = ? AND id < ? ORDER BY id DESC LIMIT ?";
+        List<ChatHistoryEntry> entries = new ArrayList<>();
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            stmt.setLong(2, beforeId);
+            stmt.setInt(3, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    entries.add(toHistoryEntry(rs));
+                }
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public int readChatHistory(int userId, long sinceMillis, long untilMillis, long[] after, boolean ascending,
+                               int limit, Consumer<ChatHistoryEntry> action) throws SQLException {
+        StringBuilder sql = new StringBuilder(
+                "SELECT id, user_id, message, response, created_at FROM chat_history WHERE user_id = ?");
+        if (sinceMillis > 0) {
+            sql.append(" AND created_at >= ?");
+        }
+        if (untilMillis < Long.MAX_VALUE) {
+            sql.append(" AND created_at < ?");
+        }
+        String op = ascending ? ">" : "<";
+        if (after != null) {
+            sql.append(" AND (created_at ").append(op).append(" ? OR (created_at = ? AND id ").append(op).append(" ?))");
+        }
+        String order = ascending ? "ASC" : "DESC";
+        sql.append(" ORDER BY created_at ").append(order).append(", id ").append(order).append(" LIMIT ?");
+
+        int rows = 0;
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int param = 1;
+            stmt.setInt(param++, userId);
+            if (sinceMillis > 0) {
+                stmt.setTimestamp(param++, new Timestamp(sinceMillis));
+            }
+            if (untilMillis < Long.MAX_VALUE) {
+                stmt.setTimestamp(param++, new Timestamp(untilMillis));
+            }
+            if (after != null) {
+                Timestamp afterTime = new Timestamp(after[0]);
+                stmt.setTimestamp(param++, afterTime);
+                stmt.setTimestamp(param++, afterTime);
+                stmt.setLong(param++, after[1]);
+            }
+            stmt.setInt(param, limit);
+            stmt.setFetchSize(limit);  // Callers page, so a page is never more than one fetch
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    action.accept(toHistoryEntry(rs));
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static ChatHistoryEntry toHistoryEntry(ResultSet rs) throws SQLException {
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        return new ChatHistoryEntry(rs.getLong("id"), rs.getInt("user_id"), rs.getString("message"),
+                rs.getString("response"), createdAt == null ? 0 : createdAt.getTime());
+    }
+}
@@ -0,0 +1,402 @@
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+/**
+ * Aho-Corasick automaton over the keyword-response pairs.
+ *
+ * Finds every keyword contained in a message in a single pass over the message, instead of
+ * calling {@code contains} once per keyword. When several keywords match, the winner is picked
+ * deterministically: longest keyword first, then the one that starts earliest in the message,
+ * then the alphabetically smallest. Instances are immutable; to change the keywords, compile a
+ * new matcher and swap the reference.
+ *
+ * The automaton is kept in flat primitive buffers, edges grouped per node, so a matcher can also
+ * run directly on a memory-mapped {@link KnowledgeBaseSnapshot} without copying it to the heap.
+ *
+ * {@link #extend} compiles only added or changed keywords into an overlay that also consults the
+ * matcher it extends, so a few new FAQs don't require recompiling every keyword.
+ */
+public class KeywordMatcher {
+    private final IntFunction<String> keywords;   // Only decoded for findAll
+    private final IntFunction<String> responses;  // Only decoded for the winning keyword
+    private final IntBuffer keywordLengths;
+    private final int keywordCount;
+
+    // Edges of node n are [edgeStart[n], edgeStart[n + 1]), sorted by character for binary search
+    private final IntBuffer edgeStart;
+    private final CharBuffer edgeChars;
+    private final IntBuffer edgeTargets;
+    private final IntBuffer failure;
+    private final IntBuffer output;      // Keyword ending at this node, or -1
+    private final IntBuffer outputLink;  // Nearest node on the failure chain with an output, or -1
+
+    private final KeywordMatcher base;    // Matcher this one overlays, or null
+    private final Set<String> shadowed;  // Keywords of the base that this overlay replaces or removes
+
+    KeywordMatcher(IntFunction<String> keywords, IntFunction<String> responses, IntBuffer keywordLengths,
+                   IntBuffer edgeStart, CharBuffer edgeChars, IntBuffer edgeTargets,
+                   IntBuffer failure, IntBuffer output, IntBuffer outputLink) {
+        this(keywords, responses, keywordLengths, edgeStart, edgeChars, edgeTargets, failure, output, outputLink,
+                null, Set.of());
+    }
+
+    private KeywordMatcher(IntFunction<String> keywords, IntFunction<String> responses, IntBuffer keywordLengths,
+                           IntBuffer edgeStart, CharBuffer edgeChars, IntBuffer edgeTargets,
+                           IntBuffer failure, IntBuffer output, IntBuffer outputLink,
+                           KeywordMatcher base, Set<String> shadowed) {
+        this.base = base;
+        this.shadowed = shadowed;
+        this.keywords = keywords;
+        this.responses = responses;
+        this.keywordLengths = keywordLengths;
+        this.keywordCount = keywordLengths.limit();
+        this.edgeStart = edgeStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.failure = failure;
+        this.output = output;
+        this.outputLink = outputLink;
+    }
+
+    /**
+     * Compiles an automaton from keyword-response pairs. Empty keywords are ignored.
+     *
+     * @param keywordResponses Keywords (already lowercased) mapped to their responses
+     * @return The compiled matcher
+     */
+    public static KeywordMatcher compile(Map<String, String> keywordResponses) {
+        // Sorted so that node numbering, and therefore behaviour, doesn't depend on map order
+        Map<String, String> sorted = new TreeMap<>(keywordResponses);
+        sorted.remove("");
+        String[] keywords = sorted.keySet().toArray(new String[0]);
+        String[] responses = sorted.values().toArray(new String[0]);
+
+        // Build the trie
+        List<Map<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        trie.add(new HashMap<>());
+        outputs.add(-1);
+        for (int k = 0; k < keywords.length; k++) {
+            int node = 0;
+            for (char c : keywords[k].toCharArray()) {
+                Integer next = trie.get(node).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<>());
+                    outputs.add(-1);
+                    trie.get(node).put(c, next);
+                }
+                node = next;
+            }
+            outputs.set(node, k);
+        }
+
+        int nodes = trie.size();
+        char[][] edgeChars = new char[nodes][];
+        int[][] edgeTargets = new int[nodes][];
+        int[] output = new int[nodes];
+        for (int n = 0; n < nodes; n++) {
+            Character[] chars = trie.get(n).keySet().toArray(new Character[0]);
+            Arrays.sort(chars);
+            edgeChars[n] = new char[chars.length];
+            edgeTargets[n] = new int[chars.length];
+            for (int i = 0; i < chars.length; i++) {
+                edgeChars[n][i] = chars[i];
+                edgeTargets[n][i] = trie.get(n).get(chars[i]);
+            }
+            output[n] = outputs.get(n);
+        }
+
+        // Breadth-first pass to compute failure and output links (on the nested arrays, then flattened)
+        int[] failure = new int[nodes];
+        int[] outputLink = new int[nodes];
+        Arrays.fill(outputLink, -1);
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : edgeTargets[0]) {
+            failure[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = 0; i < edgeChars[node].length; i++) {
+                char c = edgeChars[node][i];
+                int child = edgeTargets[node][i];
+                int fallback = failure[node];
+                int target;
+                while ((target = step(edgeChars, edgeTargets, fallback, c)) < 0 && fallback != 0) {
+                    fallback = failure[fallback];
+                }
+                failure[child] = target < 0 ? 0 : target;
+                int f = failure[child];
+                outputLink[child] = output[f] >= 0 ? f : outputLink[f];
+                queue.add(child);
+            }
+        }
+
+        int[] edgeStart = new int[nodes + 1];
+        for (int n = 0; n < nodes; n++) {
+            edgeStart[n + 1] = edgeStart[n] + edgeChars[n].length;
+        }
+        char[] flatChars = new char[edgeStart[nodes]];
+        int[] flatTargets = new int[edgeStart[nodes]];
+        for (int n = 0; n < nodes; n++) {
+            System.arraycopy(edgeChars[n], 0, flatChars, edgeStart[n], edgeChars[n].length);
+            System.arraycopy(edgeTargets[n], 0, flatTargets, edgeStart[n], edgeTargets[n].length);
+        }
+        int[] keywordLengths = new int[keywords.length];
+        for (int k = 0; k < keywords.length; k++) {
+            keywordLengths[k] = keywords[k].length();
+        }
+
+        return new KeywordMatcher(k -> keywords[k], k -> responses[k], IntBuffer.wrap(keywordLengths),
+                IntBuffer.wrap(edgeStart), CharBuffer.wrap(flatChars), IntBuffer.wrap(flatTargets),
+                IntBuffer.wrap(failure), IntBuffer.wrap(output), IntBuffer.wrap(outputLink));
+    }
+
+    /**
+     * Compiles an overlay with added or changed keywords on top of this matcher. Matches of the
+     * overlay and of this matcher compete by the usual priority; an added keyword that this
+     * matcher also has takes the added response. This matcher is left untouched.
+     *
+     * @param added   Keywords (lowercased) mapped to their new responses
+     * @param removed Keywords of this matcher that no longer apply
+     * @return The overlay
+     * @throws IllegalStateException if this matcher is an overlay itself; extend its base instead
+     */
+    public KeywordMatcher extend(Map<String, String> added, Set<String> removed) {
+        if (base != null) {
+            throw new IllegalStateException("Overlays are not stacked; extend the base matcher");
+        }
+        KeywordMatcher overlay = compile(added);
+        Set<String> shadowed = new HashSet<>(removed);
+        shadowed.addAll(added.keySet());
+        return new KeywordMatcher(overlay.keywords, overlay.responses, overlay.keywordLengths, overlay.edgeStart,
+                overlay.edgeChars, overlay.edgeTargets, overlay.failure, overlay.output, overlay.outputLink,
+                this, shadowed);
+    }
+
+    /**
+     * Returns the response of the highest-priority keyword contained in the text.
+     *
+     * @param text The processed (lowercased) user message
+     * @return The response, or null if no keyword matches
+     */
+    public String findResponse(String text) {
+        long best = findBest(text, Set.of());
+        if (base != null) {
+            long other = base.findBest(text, shadowed);
+            // Keywords that also exist in the base were shadowed, so a tie in length and start
+            // is between different keywords; the alphabetically smaller one wins as usual
+            if (other >= 0 && (best < 0 || isBetter(base.keywordLengths.get((int) other), (int) (other >> 32),
+                    base.keyword((int) other), keywordLengths.get((int) best), (int) (best >> 32), keyword((int) best)))) {
+                return base.responses.apply((int) other);
+            }
+        }
+        return best < 0 ? null : responses.apply((int) best);
+    }
+
+    /**
+     * @return The best keyword not in {@code excluded}, as its start shifted left by 32 bits
+     *         plus its index, or -1 if none matches
+     */
+    private long findBest(String text, Set<String> excluded) {
+        int best = -1;
+        int bestStart = Integer.MAX_VALUE;
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            node = advance(node, text.charAt(i));
+            for (int n = output.get(node) >= 0 ? node : outputLink.get(node); n >= 0; n = outputLink.get(n)) {
+                int k = output.get(n);
+                int start = i - keywordLengths.get(k) + 1;
+                if ((best < 0 || isBetter(k, start, best, bestStart))
+                        && (excluded.isEmpty() || !excluded.contains(keywords.apply(k)))) {
+                    best = k;
+                    bestStart = start;
+                }
+            }
+        }
+        return best < 0 ? -1 : ((long) bestStart << 32) | best;
+    }
+
+    /**
+     * Finds every keyword occurrence in the text, ordered by priority (best first).
+     *
+     * @param text The processed (lowercased) user message
+     * @return All matches; empty if none
+     */
+    public List<Match> findAll(String text) {
+        List<Match> matches = new ArrayList<>();
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            node = advance(node, text.charAt(i));
+            for (int n = output.get(node) >= 0 ? node : outputLink.get(node); n >= 0; n = outputLink.get(n)) {
+                int k = output.get(n);
+                matches.add(new Match(keywords.apply(k), responses.apply(k), i - keywordLengths.get(k) + 1));
+            }
+        }
+        if (base != null) {
+            for (Match match : base.findAll(text)) {
+                if (!shadowed.contains(match.keyword)) {
+                    matches.add(match);
+                }
+            }
+        }
+        matches.sort((a, b) -> {
+            if (a.keyword.length() != b.keyword.length()) {
+                return b.keyword.length() - a.keyword.length();
+            }
+            if (a.start != b.start) {
+                return a.start - b.start;
+            }
+            return a.keyword.compareTo(b.keyword);
+        });
+        return matches;
+    }
+
+    /**
+     * @return The number of keywords in the automaton; for an overlay, only its own
+     */
+    public int size() {
+        return keywordCount;
+    }
+
+    private boolean isBetter(int k, int start, int best, int bestStart) {
+        int length = keywordLengths.get(k);
+        int bestLength = keywordLengths.get(best);
+        if (length != bestLength) {
+            return length > bestLength;
+        }
+        if (start != bestStart) {
+            return start < bestStart;
+        }
+        return k < best;  // Keywords are sorted, so a lower index is alphabetically smaller
+    }
+
+    private static boolean isBetter(int length, int start, String keyword, int bestLength, int bestStart, String best) {
+        if (length != bestLength) {
+            return length > bestLength;
+        }
+        if (start != bestStart) {
+            return start < bestStart;
+        }
+        return keyword.compareTo(best) < 0;
+    }
+
+    private int advance(int node, char c) {
+        while (true) {
+            int next = step(node, c);
+            if (next >= 0) {
+                return next;
+            }
+            if (node == 0) {
+                return 0;
+            }
+            node = failure.get(node);
+        }
+    }
+
+    private int step(int node, char c) {
+        int low = edgeStart.get(node);
+        int high = edgeStart.get(node + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = edgeChars.get(mid);
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets.get(mid);
+            }
+        }
+        return -1;
+    }
+
+    // The automaton's buffers, for writing a snapshot
+    IntBuffer keywordLengths() {
+        return keywordLengths.duplicate();
+    }
+
+    IntBuffer edgeStart() {
+        return edgeStart.duplicate();
+    }
+
+    CharBuffer edgeChars() {
+        return edgeChars.duplicate();
+    }
+
+    IntBuffer edgeTargets() {
+        return edgeTargets.duplicate();
+    }
+
+    IntBuffer failure() {
+        return failure.duplicate();
+    }
+
+    IntBuffer output() {
+        return output.duplicate();
+    }
+
+    IntBuffer outputLink() {
+        return outputLink.duplicate();
+    }
+
+    String keyword(int k) {
+        return keywords.apply(k);
+    }
+
+    String response(int k) {
+        return responses.apply(k);
+    }
+
+    private static int step(char[][] edgeChars, int[][] edgeTargets, int node, char c) {
+        int i = Arrays.binarySearch(edgeChars[node], c);
+        return i < 0 ? -1 : edgeTargets[node][i];
+    }
+
+    /**
+     * A keyword occurrence in a message.
+     */
+    public static class Match {
+        private final String keyword;
+        private final String response;
+        private final int start;
+
+        public Match(String keyword, String response, int start) {
+            this.keyword = keyword;
+            this.response = response;
+            this.start = start;
+        }
+
+        public String getKeyword() {
+            return keyword;
+        }
+
+        public String getResponse() {
+            return response;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        @Override
+        public String toString() {
+            return "Match{" +
+                   "keyword='" + keyword + '\'' +
+                   ", start=" + start +
+                   '}';
+        }
+    }
+}
@@ -0,0 +1,379 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Immutable snapshot of the FAQ data together with the match structures built from it.
+ *
+ * The FAQ index, the BM25 ranker and the keyword matcher are always built from the same rows and
+ * published together, so a query never sees the index of one version and the keywords of another.
+ * A knowledge base can also be mapped from a {@link KnowledgeBaseSnapshot}; its FAQ index and
+ * typo matcher are then built on first use.
+ *
+ * {@link #withChanges} doesn't rebuild everything for a handful of changed rows: the new snapshot
+ * keeps the match structures of the last full build (its root) and adds small overlays for the
+ * rows changed since, which lookups consult first. Once the changed rows outgrow a quarter of the
+ * root (at least {@code chatbot.faq.overlayRows}, 1000), the next change compacts them into a
+ * full build. Until then the typo matcher may still know words of questions that were edited away.
+ * The row count, version and checksum are carried forward from the previous snapshot, and the
+ * merged entry list is only materialized when asked for, so applying a change costs time in
+ * proportion to the overlay rather than to the whole table.
+ */
+public class KnowledgeBase {
+    private static final Map<String, String> DEFAULT_KEYWORDS =
+            Map.of("default", "Sorry, I couldn't find an answer to your query.");
+
+    private volatile List<FAQEntry> entries;  // Ordered by id; for an overlay, null until asked for
+    private volatile FAQIndex faqIndex;    // Null until first use when mapped from a snapshot
+    private volatile FuzzyMatcher fuzzyMatcher;  // Same
+    private final FAQRanker faqRanker;
+    private final KeywordMatcher keywordMatcher;
+    private final int size;
+    private final long version;   // Newest updated_at among the entries
+    private final long checksum;  // Sum of a 64-bit hash of every row, so changes can be applied to it
+    private final KnowledgeBase root;                  // Last full build, or null if this is one
+    private final TreeMap<Integer, FAQEntry> overlay;  // Rows changed since the root, by id; not modified
+    private volatile KeywordOwners keywordOwners;      // Root only, built with the first overlay
+
+    KnowledgeBase(List<FAQEntry> entries, FAQIndex faqIndex, FAQRanker faqRanker,
+                  KeywordMatcher keywordMatcher, long version, long checksum) {
+        this(entries, entries.size(), faqIndex, faqRanker, keywordMatcher, version, checksum, null, new TreeMap<>());
+    }
+
+    private KnowledgeBase(List<FAQEntry> entries, int size, FAQIndex faqIndex, FAQRanker faqRanker,
+                          KeywordMatcher keywordMatcher, long version, long checksum,
+                          KnowledgeBase root, TreeMap<Integer, FAQEntry> overlay) {
+        this.root = root;
+        this.overlay = overlay;
+        this.entries = entries;
+        this.size = size;
+        this.faqIndex = faqIndex;
+        this.faqRanker = faqRanker;
+        this.keywordMatcher = keywordMatcher;
+        this.version = version;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Builds a snapshot from FAQ rows.
+     *
+     * @param rows The FAQ rows, in any order
+     * @return The snapshot
+     */
+    public static KnowledgeBase build(Collection<FAQEntry> rows) {
+        List<FAQEntry> entries = new ArrayList<>(rows);
+        entries.sort(Comparator.comparingInt(FAQEntry::getId));
+
+        Map<String, String> keywordResponses = new HashMap<>();
+        long version = 0;
+        for (FAQEntry entry : entries) {
+            keywordResponses.put(entry.getQuestion().toLowerCase(), entry.getAnswer());
+            version = Math.max(version, entry.getUpdatedAt());
+        }
+        long checksum = checksum(entries);
+        if (keywordResponses.isEmpty()) {
+            keywordResponses = DEFAULT_KEYWORDS;
+        }
+
+        KnowledgeBase kb = new KnowledgeBase(List.copyOf(entries), FAQIndex.build(entries),
+                FAQRanker.build(entries, FAQRanker.configuredAnalyzer()),
+                KeywordMatcher.compile(keywordResponses), version, checksum);
+        kb.fuzzyMatcher = FuzzyMatcher.build(keywordResponses.keySet());
+        return kb;
+    }
+
+    /**
+     * Builds a new snapshot with changed or added rows applied on top of this one.
+     * Rows are matched by id; this snapshot is left untouched.
+     *
+     * @param changed The rows that were inserted or updated
+     * @return The new snapshot
+     */
+    public KnowledgeBase withChanges(Collection<FAQEntry> changed) {
+        KnowledgeBase root = this.root != null ? this.root : this;
+        TreeMap<Integer, FAQEntry> overlay = new TreeMap<>(this.overlay);
+        int size = this.size;
+        long version = this.version;
+        long checksum = this.checksum;
+        for (FAQEntry entry : changed) {
+            FAQEntry previous = overlay.put(entry.getId(), entry);
+            if (previous == null) {
+                previous = root.find(entry.getId());
+            }
+            if (previous == null) {
+                size++;
+            } else {
+                checksum -= rowHash(previous);
+            }
+            checksum += rowHash(entry);
+            version = Math.max(version, entry.getUpdatedAt());
+        }
+        int limit = Math.max(Integer.getInteger("chatbot.faq.overlayRows", 1_000), root.size() / 4);
+        if (root.size() == 0 || overlay.size() > limit) {
+            return build(merge(root.getEntries(), overlay));
+        }
+
+        // The overlay matcher carries the keywords of changed rows, answered by the row with the
+        // highest id that has them, as in a full build; a keyword an edit took away from every
+        // row is removed
+        Map<String, FAQEntry> owners = new HashMap<>();
+        Set<String> affected = new HashSet<>();
+        for (FAQEntry entry : overlay.values()) {
+            String keyword = entry.getQuestion().toLowerCase();
+            owners.put(keyword, entry);  // In id order, so the last one wins
+            affected.add(keyword);
+            FAQEntry previous = root.find(entry.getId());
+            if (previous != null) {
+                affected.add(previous.getQuestion().toLowerCase());
+            }
+        }
+        Map<String, String> added = new HashMap<>();
+        Set<String> removed = new HashSet<>();
+        for (String keyword : affected) {
+            FAQEntry owner = owners.get(keyword);
+            FAQEntry rootOwner = root.keywordOwner(keyword, overlay);
+            if (rootOwner != null && (owner == null || rootOwner.getId() > owner.getId())) {
+                owner = rootOwner;
+            }
+            if (owner == null) {
+                removed.add(keyword);
+            } else {
+                added.put(keyword, owner.getAnswer());
+            }
+        }
+
+        List<FAQEntry> rows = List.copyOf(overlay.values());
+        KnowledgeBase kb = new KnowledgeBase(null, size, root.getFAQIndex().extend(rows),
+                root.faqRanker.extend(rows), root.keywordMatcher.extend(added, removed), version, checksum,
+                root, overlay);
+        kb.fuzzyMatcher = root.getFuzzyMatcher().extend(added.keySet());
+        return kb;
+    }
+
+    /**
+     * Returns this snapshot with its match structures built in full, folding in any overlays.
+     *
+     * @return This snapshot if it has no overlays, otherwise a full build of the same rows
+     */
+    public KnowledgeBase compacted() {
+        return root == null ? this : build(getEntries());
+    }
+
+    /**
+     * @return Number of rows changed since the last full build
+     */
+    public int getOverlaySize() {
+        return overlay.size();
+    }
+
+    /**
+     * @return The keyword-response pairs (lowercased question to answer), in id order
+     */
+    public Map<String, String> getKeywordResponses() {
+        Map<String, String> responses = new LinkedHashMap<>();
+        for (FAQEntry entry : getEntries()) {
+            responses.put(entry.getQuestion().toLowerCase(), entry.getAnswer());
+        }
+        return responses;
+    }
+
+    public List<FAQEntry> getEntries() {
+        List<FAQEntry> list = entries;
+        if (list == null) {
+            synchronized (this) {
+                list = entries;
+                if (list == null) {
+                    list = List.copyOf(merge(root.getEntries(), overlay));
+                    entries = list;
+                }
+            }
+        }
+        return list;
+    }
+
+    public FAQIndex getFAQIndex() {
+        FAQIndex index = faqIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = faqIndex;
+                if (index == null) {
+                    index = FAQIndex.build(getEntries());
+                    faqIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return Typo correction over the words of the FAQ questions and keywords
+     */
+    public FuzzyMatcher getFuzzyMatcher() {
+        FuzzyMatcher matcher = fuzzyMatcher;
+        if (matcher == null) {
+            synchronized (this) {
+                matcher = fuzzyMatcher;
+                if (matcher == null) {
+                    matcher = FuzzyMatcher.build(getKeywordResponses().keySet());
+                    fuzzyMatcher = matcher;
+                }
+            }
+        }
+        return matcher;
+    }
+
+    public FAQRanker getFAQRanker() {
+        return faqRanker;
+    }
+
+    public KeywordMatcher getKeywordMatcher() {
+        return keywordMatcher;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Merges rows changed since a full build into its entries, both ordered by id.
+     */
+    private static List<FAQEntry> merge(List<FAQEntry> base, TreeMap<Integer, FAQEntry> changes) {
+        List<FAQEntry> merged = new ArrayList<>(base.size() + changes.size());
+        Iterator<FAQEntry> changed = changes.values().iterator();
+        FAQEntry next = changed.hasNext() ? changed.next() : null;
+        for (FAQEntry entry : base) {
+            while (next != null && next.getId() < entry.getId()) {
+                merged.add(next);
+                next = changed.hasNext() ? changed.next() : null;
+            }
+            if (next != null && next.getId() == entry.getId()) {
+                merged.add(next);
+                next = changed.hasNext() ? changed.next() : null;
+            } else {
+                merged.add(entry);
+            }
+        }
+        while (next != null) {
+            merged.add(next);
+            next = changed.hasNext() ? changed.next() : null;
+        }
+        return merged;
+    }
+
+    /**
+     * Finds a row of this full build by id.
+     */
+    private FAQEntry find(int id) {
+        List<FAQEntry> list = entries;
+        int low = 0;
+        int high = list.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = list.get(mid).getId();
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return list.get(mid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the row of this full build with the highest id among those whose lowercased question
+     * is the keyword, leaving out the rows an overlay replaces.
+     */
+    private FAQEntry keywordOwner(String keyword, Map<Integer, FAQEntry> replaced) {
+        KeywordOwners owners = keywordOwners;
+        if (owners == null) {
+            synchronized (this) {
+                owners = keywordOwners;
+                if (owners == null) {
+                    owners = new KeywordOwners(entries);
+                    keywordOwners = owners;
+                }
+            }
+        }
+        Integer id = owners.owners.get(keyword);
+        if (id == null) {
+            return null;
+        }
+        if (!replaced.containsKey(id)) {
+            return find(id);
+        }
+        if (owners.shared.contains(keyword)) {
+            // Several rows have this question and the newest was replaced; rare enough to scan for
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                FAQEntry entry = entries.get(i);
+                if (!replaced.containsKey(entry.getId()) && entry.getQuestion().toLowerCase().equals(keyword)) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes the {@link #getChecksum()} a snapshot of the given rows would have, without building it.
+     *
+     * @param rows The FAQ rows, in any order
+     * @return The checksum
+     */
+    public static long checksum(Collection<FAQEntry> rows) {
+        long checksum = 0;
+        for (FAQEntry entry : rows) {
+            checksum += rowHash(entry);
+        }
+        return checksum;
+    }
+
+    /**
+     * Hash of one row for the checksum: CRC32 of its question and answer, mixed with its id.
+     */
+    private static long rowHash(FAQEntry entry) {
+        CRC32 crc = new CRC32();
+        crc.update(entry.getQuestion().getBytes(StandardCharsets.UTF_8));
+        crc.update(0);
+        crc.update(String.valueOf(entry.getAnswer()).getBytes(StandardCharsets.UTF_8));
+        crc.update(0);
+        return ((crc.getValue() << 32) | (entry.getId() & 0xffffffffL)) * 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * For each keyword of a full build, the id of the row that answers it, and which keywords
+     * more than one row has.
+     */
+    private static class KeywordOwners {
+        final Map<String, Integer> owners = new HashMap<>();
+        final Set<String> shared = new HashSet<>();
+
+        KeywordOwners(List<FAQEntry> entries) {
+            for (FAQEntry entry : entries) {
+                String keyword = entry.getQuestion().toLowerCase();
+                if (owners.put(keyword, entry.getId()) != null) {
+                    shared.add(keyword);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,434 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Compiled, memory-mapped form of a {@link KnowledgeBase}.
+ *
+ * {@link #main} (or {@link #write}) compiles the FAQs into one file holding the BM25 postings, the
+ * keyword automaton and every string, each distinct string stored once as UTF-8. {@link #load}
+ * maps that file and wraps the sections as buffers: nothing is parsed, tokenized or copied, so a
+ * cold start takes milliseconds whatever the number of FAQs, and the data stays off-heap in the
+ * page cache. Strings are decoded only when an answer is returned.
+ *
+ * The header records the FAQ count and newest {@code updated_at} the snapshot was compiled from;
+ * {@link DatabaseHelper} compares them with the store on startup and rebuilds from the database
+ * if they differ. The first-match {@link FAQIndex} is not stored; it is built on first use.
+ *
+ * Layout, little-endian: a 64-byte header, then fixed-size sections whose offsets follow from the
+ * counts in the header (see {@link Sections}), then the string pool.
+ */
+public class KnowledgeBaseSnapshot {
+    static final int MAGIC = 0x43424b42;  // "CBKB"
+    static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int NULL_REF = -1;
+
+    /**
+     * Compiles the FAQs of the configured store into a snapshot.
+     * Usage: {@code KnowledgeBaseSnapshot <file>}; run with the same {@code chatbot.faq.analyzer}
+     * as the service.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: KnowledgeBaseSnapshot <file>");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        KnowledgeBase kb = KnowledgeBase.build(DatabaseHelper.loadFAQs());
+        write(kb, Path.of(args[0]));
+        System.out.printf("Compiled %d FAQs into %s (%d bytes) in %d ms%n", kb.size(), args[0],
+                Files.size(Path.of(args[0])), (System.nanoTime() - start) / 1_000_000);
+        DatabaseHelper.shutdown();
+    }
+
+    /**
+     * Writes a knowledge base to a snapshot file, replacing the file atomically.
+     *
+     * @param kb   The knowledge base
+     * @param file The file to write
+     * @throws IOException if the file can't be written, or would exceed 2 GB
+     */
+    public static void write(KnowledgeBase kb, Path file) throws IOException {
+        kb = kb.compacted();  // The file holds one set of structures, not a base and its overlays
+        FAQRanker ranker = kb.getFAQRanker();
+        KeywordMatcher matcher = kb.getKeywordMatcher();
+        List<FAQEntry> entries = kb.getEntries();
+        StringPool pool = new StringPool();
+
+        int[] questionRefs = new int[entries.size()];
+        int[] answerRefs = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            questionRefs[i] = pool.add(entries.get(i).getQuestion());
+            answerRefs[i] = pool.add(entries.get(i).getAnswer());
+        }
+        int termCount = ranker.termCount();
+        int[] termRefs = new int[termCount];
+        byte[][] termBytes = new byte[termCount][];
+        for (int t = 0; t < termCount; t++) {
+            termRefs[t] = pool.add(ranker.term(t));
+            termBytes[t] = ranker.term(t).getBytes(StandardCharsets.UTF_8);
+        }
+        Integer[] byTerm = new Integer[termCount];
+        for (int t = 0; t < termCount; t++) {
+            byTerm[t] = t;
+        }
+        Arrays.sort(byTerm, (a, b) -> Arrays.compareUnsigned(termBytes[a], termBytes[b]));
+        int keywordCount = matcher.size();
+        int[] keywordRefs = new int[keywordCount];
+        int[] responseRefs = new int[keywordCount];
+        for (int k = 0; k < keywordCount; k++) {
+            keywordRefs[k] = pool.add(matcher.keyword(k));
+            responseRefs[k] = pool.add(matcher.response(k));
+        }
+
+        Sections s = new Sections(entries.size(), termCount, ranker.postingDocs().limit(),
+                matcher.edgeStart().limit() - 1, matcher.edgeChars().limit(), keywordCount, pool.size);
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, s.total);
+                out.order(ByteOrder.LITTLE_ENDIAN);
+                out.putInt(0, MAGIC);
+                out.putInt(4, FORMAT_VERSION);
+                out.putInt(8, entries.size());
+                out.putInt(12, termCount);
+                out.putInt(16, s.postings);
+                out.putInt(20, s.nodes);
+                out.putInt(24, s.edges);
+                out.putInt(28, keywordCount);
+                out.putLong(32, kb.getVersion());
+                out.putLong(40, kb.getChecksum());
+                out.putLong(48, System.currentTimeMillis());
+                out.putInt(56, pool.size);
+                out.putInt(60, "lemma".equals(FAQRanker.analyzerName(ranker.getAnalyzer())) ? 1 : 0);
+
+                for (int i = 0; i < entries.size(); i++) {
+                    FAQEntry entry = entries.get(i);
+                    out.putLong(s.updatedAt + 8 * i, entry.getUpdatedAt());
+                    out.putInt(s.faqIds + 4 * i, entry.getId());
+                    out.putInt(s.questionRefs + 4 * i, questionRefs[i]);
+                    out.putInt(s.answerRefs + 4 * i, answerRefs[i]);
+                }
+                put(out, s.lengthNorm, ranker.lengthNorm());
+                put(out, s.termRefs, IntBuffer.wrap(termRefs));
+                for (int i = 0; i < termCount; i++) {
+                    out.putInt(s.sortedTermIds + 4 * i, byTerm[i]);
+                }
+                put(out, s.idf, ranker.idf());
+                put(out, s.postingStart, ranker.postingStart());
+                put(out, s.postingDocs, ranker.postingDocs());
+                put(out, s.postingFreqs, ranker.postingFreqs());
+                put(out, s.keywordLengths, matcher.keywordLengths());
+                put(out, s.keywordRefs, IntBuffer.wrap(keywordRefs));
+                put(out, s.responseRefs, IntBuffer.wrap(responseRefs));
+                put(out, s.edgeStart, matcher.edgeStart());
+                put(out, s.edgeTargets, matcher.edgeTargets());
+                put(out, s.failure, matcher.failure());
+                put(out, s.output, matcher.output());
+                put(out, s.outputLink, matcher.outputLink());
+                CharBuffer chars = matcher.edgeChars();
+                for (int i = 0; i < s.edges; i++) {
+                    out.putChar(s.edgeChars + 2 * i, chars.get(i));
+                }
+                out.put(s.pool, pool.bytes, 0, pool.size);
+                out.force();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Maps a snapshot file as a knowledge base.
+     *
+     * @param file     The snapshot
+     * @param analyzer The analyzer queries will go through; must be the one the snapshot was compiled with
+     * @return The knowledge base, backed by the mapped file
+     * @throws IOException if the file can't be read, isn't a snapshot of this format version, or
+     *                     was compiled with another analyzer
+     */
+    public static KnowledgeBase load(Path file, FAQRanker.Analyzer analyzer) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Not a knowledge base snapshot: " + file);
+            }
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (buf.getInt(0) != MAGIC) {
+            throw new IOException("Not a knowledge base snapshot: " + file);
+        }
+        if (buf.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported snapshot format " + buf.getInt(4) + " in " + file
+                    + "; recompile it with KnowledgeBaseSnapshot");
+        }
+        String compiledWith = buf.getInt(60) == 1 ? "lemma" : "simple";
+        if (!compiledWith.equals(FAQRanker.analyzerName(analyzer))) {
+            throw new IOException("Snapshot " + file + " was compiled with the " + compiledWith + " analyzer");
+        }
+        int entries = buf.getInt(8);
+        int terms = buf.getInt(12);
+        Sections s = new Sections(entries, terms, buf.getInt(16), buf.getInt(20), buf.getInt(24),
+                buf.getInt(28), buf.getInt(56));
+        if (s.total != buf.limit()) {
+            throw new IOException("Truncated or corrupt snapshot: " + file);
+        }
+
+        Strings strings = new Strings(buf, s.pool);
+        IntBuffer questionRefs = ints(buf, s.questionRefs, entries);
+        IntBuffer answerRefs = ints(buf, s.answerRefs, entries);
+        IntBuffer termRefs = ints(buf, s.termRefs, terms);
+        IntBuffer sortedTermIds = ints(buf, s.sortedTermIds, terms);
+        IntBuffer keywordRefs = ints(buf, s.keywordRefs, s.keywords);
+        IntBuffer responseRefs = ints(buf, s.responseRefs, s.keywords);
+
+        FAQRanker ranker = new FAQRanker(analyzer, ints(buf, s.faqIds, entries),
+                doc -> strings.get(questionRefs.get(doc)), doc -> strings.get(answerRefs.get(doc)),
+                term -> strings.find(term, termRefs, sortedTermIds), id -> strings.get(termRefs.get(id)),
+                ints(buf, s.postingStart, terms + 1), ints(buf, s.postingDocs, s.postings),
+                ints(buf, s.postingFreqs, s.postings), floats(buf, s.idf, terms), floats(buf, s.lengthNorm, entries));
+        KeywordMatcher matcher = new KeywordMatcher(k -> strings.get(keywordRefs.get(k)),
+                k -> strings.get(responseRefs.get(k)), ints(buf, s.keywordLengths, s.keywords),
+                ints(buf, s.edgeStart, s.nodes + 1), slice(buf, s.edgeChars, 2 * s.edges).asCharBuffer(),
+                ints(buf, s.edgeTargets, s.edges), ints(buf, s.failure, s.nodes), ints(buf, s.output, s.nodes),
+                ints(buf, s.outputLink, s.nodes));
+        List<FAQEntry> faqs = new MappedEntries(buf, s, strings, entries);
+        return new KnowledgeBase(faqs, null, ranker, matcher, buf.getLong(32), buf.getLong(40));
+    }
+
+    private static void put(ByteBuffer out, int offset, IntBuffer values) {
+        for (int i = 0; i < values.limit(); i++) {
+            out.putInt(offset + 4 * i, values.get(i));
+        }
+    }
+
+    private static void put(ByteBuffer out, int offset, FloatBuffer values) {
+        for (int i = 0; i < values.limit(); i++) {
+            out.putFloat(offset + 4 * i, values.get(i));
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int offset, int bytes) {
+        return buf.slice(offset, bytes).order(ByteOrder.LITTLE_ENDIAN);  // slice() resets the byte order
+    }
+
+    private static IntBuffer ints(ByteBuffer buf, int offset, int count) {
+        return slice(buf, offset, 4 * count).asIntBuffer();
+    }
+
+    private static FloatBuffer floats(ByteBuffer buf, int offset, int count) {
+        return slice(buf, offset, 4 * count).asFloatBuffer();
+    }
+
+    /**
+     * Byte offsets of the sections, derived from the counts alone so writer and reader agree.
+     * 8-byte values come first and the 2-byte edge characters last, so every section is aligned.
+     */
+    static class Sections {
+        final int postings;
+        final int nodes;
+        final int edges;
+        final int keywords;
+        final int updatedAt;
+        final int faqIds;
+        final int questionRefs;
+        final int answerRefs;
+        final int lengthNorm;
+        final int termRefs;
+        final int sortedTermIds;
+        final int idf;
+        final int postingStart;
+        final int postingDocs;
+        final int postingFreqs;
+        final int keywordLengths;
+        final int keywordRefs;
+        final int responseRefs;
+        final int edgeStart;
+        final int edgeTargets;
+        final int failure;
+        final int output;
+        final int outputLink;
+        final int edgeChars;
+        final int pool;
+        final long total;
+
+        private long next = HEADER_BYTES;
+
+        Sections(int entries, int terms, int postings, int nodes, int edges, int keywords, int poolBytes)
+                throws IOException {
+            this.postings = postings;
+            this.nodes = nodes;
+            this.edges = edges;
+            this.keywords = keywords;
+            updatedAt = allocate(8L * entries);
+            faqIds = allocate(4L * entries);
+            questionRefs = allocate(4L * entries);
+            answerRefs = allocate(4L * entries);
+            lengthNorm = allocate(4L * entries);
+            termRefs = allocate(4L * terms);
+            sortedTermIds = allocate(4L * terms);
+            idf = allocate(4L * terms);
+            postingStart = allocate(4L * (terms + 1));
+            postingDocs = allocate(4L * postings);
+            postingFreqs = allocate(4L * postings);
+            keywordLengths = allocate(4L * keywords);
+            keywordRefs = allocate(4L * keywords);
+            responseRefs = allocate(4L * keywords);
+            edgeStart = allocate(4L * (nodes + 1));
+            edgeTargets = allocate(4L * edges);
+            failure = allocate(4L * nodes);
+            output = allocate(4L * nodes);
+            outputLink = allocate(4L * nodes);
+            edgeChars = allocate((2L * edges + 3) & ~3);
+            pool = allocate(poolBytes);
+            total = next;
+        }
+
+        private int allocate(long bytes) throws IOException {
+            if (bytes < 0 || next + bytes > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot would exceed 2 GB");
+            }
+            int offset = (int) next;
+            next += bytes;
+            return offset;
+        }
+    }
+
+    /**
+     * Collects distinct strings as length-prefixed UTF-8, handing out their offsets.
+     */
+    private static class StringPool {
+        private final Map<String, Integer> refs = new HashMap<>();
+        private byte[] bytes = new byte[1 << 16];
+        private int size;
+
+        int add(String value) {
+            if (value == null) {
+                return NULL_REF;
+            }
+            Integer ref = refs.get(value);
+            if (ref != null) {
+                return ref;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            if (size + 4 + utf8.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + 4 + utf8.length));
+            }
+            ByteBuffer.wrap(bytes, size, 4).order(ByteOrder.LITTLE_ENDIAN).putInt(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size + 4, utf8.length);
+            refs.put(value, size);
+            size += 4 + utf8.length;
+            return refs.get(value);
+        }
+    }
+
+    /**
+     * Reads strings from the mapped pool.
+     */
+    private static class Strings {
+        private final ByteBuffer buf;
+        private final int pool;
+
+        Strings(ByteBuffer buf, int pool) {
+            this.buf = buf;
+            this.pool = pool;
+        }
+
+        String get(int ref) {
+            if (ref == NULL_REF) {
+                return null;
+            }
+            byte[] bytes = new byte[buf.getInt(pool + ref)];
+            buf.get(pool + ref + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Binary search over the terms in byte order.
+         *
+         * @return The term's id, or -1 if it isn't in the snapshot
+         */
+        int find(String term, IntBuffer termRefs, IntBuffer sortedTermIds) {
+            byte[] key = term.getBytes(StandardCharsets.UTF_8);
+            int low = 0;
+            int high = sortedTermIds.limit() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int id = sortedTermIds.get(mid);
+                int cmp = compare(termRefs.get(id), key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return id;
+                }
+            }
+            return -1;
+        }
+
+        private int compare(int ref, byte[] key) {
+            int at = pool + ref;
+            int length = buf.getInt(at);
+            int common = Math.min(length, key.length);
+            for (int i = 0; i < common; i++) {
+                int cmp = Byte.compareUnsigned(buf.get(at + 4 + i), key[i]);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return length - key.length;
+        }
+    }
+
+    /**
+     * The FAQ rows, decoded from the mapping on access.
+     */
+    private static class MappedEntries extends AbstractList<FAQEntry> implements RandomAccess {
+        private final ByteBuffer buf;
+        private final Sections s;
+        private final Strings strings;
+        private final int size;
+
+        MappedEntries(ByteBuffer buf, Sections s, Strings strings, int size) {
+            this.buf = buf;
+            this.s = s;
+            this.strings = strings;
+            this.size = size;
+        }
+
+        @Override
+        public FAQEntry get(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException(i);
+            }
+            return new FAQEntry(buf.getInt(s.faqIds + 4 * i), strings.get(buf.getInt(s.questionRefs + 4 * i)),
+                    strings.get(buf.getInt(s.answerRefs + 4 * i)), buf.getLong(s.updatedAt + 8 * i));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
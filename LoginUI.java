@@ -1,10 +1,16 @@
 import javax.swing.*;
 import java.awt.*;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 public class LoginUI extends JFrame {
     private JTextField emailField;
     private JPasswordField passwordField;
     private JButton loginButton;
+    private JButton registerButton;
+    private final String serverUrl = System.getProperty("chatbot.server.url");
 
     public LoginUI() {
         setTitle("Login");
@@ -15,8 +21,11 @@ public class LoginUI extends JFrame {
         emailField = new JTextField();
         passwordField = new JPasswordField();
         loginButton = new JButton("Login");
+        registerButton = new JButton("Register");
+        registerButton.setEnabled(serverUrl == null);  // Accounts are created against the local database
 
         loginButton.addActionListener(e -> handleLogin());
+        registerButton.addActionListener(e -> handleRegister());
 
         setLayout(new GridLayout(3, 2));
         add(new JLabel("Email:"));
@@ -24,6 +33,7 @@ public class LoginUI extends JFrame {
         add(new JLabel("Password:"));
         add(passwordField);
         add(loginButton);
+        add(registerButton);
 
         setVisible(true);
     }
@@ -32,17 +42,79 @@ public class LoginUI extends JFrame {
         String email = emailField.getText();
         String password = new String(passwordField.getPassword());
 
-        User user = ChatBotService.authenticateUser(email, password);
-        if (user != null) {
-            ChatBotUI chatBotUI = new ChatBotUI(user);
-            chatBotUI.setVisible(true);
-            dispose();
-        } else {
-            JOptionPane.showMessageDialog(this, "Invalid email or password. Please try again.");
+        // Password hashing takes a noticeable fraction of a second; keep it off the EDT
+        setButtonsEnabled(false);
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                if (serverUrl != null) {
+                    HttpChatClient client = HttpChatClient.login(serverUrl, email, password);
+                    return client == null ? null : (Supplier<ChatBotUI>) () -> new ChatBotUI(client.getUser(), client);
+                }
+                AuthService.Session session = AuthService.get().login(email, password);
+                return session == null ? null : (Supplier<ChatBotUI>) () -> new ChatBotUI(session.getUser());
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((openChat, error) -> SwingUtilities.invokeLater(() -> {
+            setButtonsEnabled(true);
+            if (openChat != null) {
+                openChat.get().setVisible(true);
+                dispose();
+            } else if (error != null && error.getCause() instanceof AuthService.TooManyAttemptsException) {
+                JOptionPane.showMessageDialog(this, error.getCause().getMessage());
+            } else if (error != null && error.getCause() instanceof SQLException) {
+                ChatLog.error("auth.failed", error.getCause(), "email", email);
+                JOptionPane.showMessageDialog(this, "Login is unavailable right now. Please try again later.");
+            } else if (error != null) {
+                ChatLog.error("login.failed", error.getCause());
+                JOptionPane.showMessageDialog(this, "Login failed: " + error.getCause().getMessage());
+            } else {
+                JOptionPane.showMessageDialog(this, "Invalid email or password. Please try again.");
+            }
+        }));
+    }
+
+    private void handleRegister() {
+        String email = emailField.getText().trim();
+        String password = new String(passwordField.getPassword());
+        if (email.isEmpty() || password.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Enter an email and password to register.");
+            return;
         }
+
+        // Hashing and the insert take as long as a login; keep them off the EDT too
+        setButtonsEnabled(false);
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return AuthService.get().register(null, email, password);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((user, error) -> SwingUtilities.invokeLater(() -> {
+            setButtonsEnabled(true);
+            if (error != null) {
+                ChatLog.error("register.failed", error.getCause(), "email", email);
+                JOptionPane.showMessageDialog(this, "Could not create the account. Please try again later.");
+            } else if (user == null) {
+                JOptionPane.showMessageDialog(this, "An account with that email already exists.");
+            } else {
+                // The password was just set, so there is nothing to verify; skip a second hash
+                new ChatBotUI(user).setVisible(true);
+                dispose();
+            }
+        }));
+    }
+
+    private void setButtonsEnabled(boolean enabled) {
+        loginButton.setEnabled(enabled);
+        registerButton.setEnabled(enabled && serverUrl == null);
     }
 
     public static void main(String[] args) {
+        DatabaseHelper.startFAQRefresher();  // Load the FAQs while the user logs in, then keep them fresh
+        NLPPipelines.warmUpConfigured();     // And any NLP models listed in chatbot.nlp.warmup
+        Metrics.exportConfigured();          // Metrics endpoint/dump, if -Dchatbot.metrics=true
+        SoundNotifier.preload("message_received.wav");
         SwingUtilities.invokeLater(LoginUI::new);
     }
 }
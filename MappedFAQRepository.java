@@ -0,0 +1,292 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * {@link ChatRepository} that serves FAQs from a memory-mapped file and passes everything else
+ * (users, chat history) to another repository.
+ *
+ * FAQs are read-mostly, so they can be exported once with {@link #main} and shipped as a file;
+ * startup then maps the file instead of querying the faqs table, and the page cache shares the
+ * data between processes. The file is re-mapped when its modification time changes, so
+ * {@link FAQRefresher} picks up a new export. Replace the file atomically (as {@link #write}
+ * does) rather than rewriting it in place.
+ *
+ * File layout, big-endian:
+ * <pre>
+ *   int  magic 'CBFQ', int format version, int count, long newest updated_at
+ *   int  record offset, count times
+ *   records: int id, long updated_at, int length + UTF-8 question, int length + UTF-8 answer
+ * </pre>
+ */
+public class MappedFAQRepository implements ChatRepository {
+    static final int MAGIC = 0x43424651;  // "CBFQ"
+    static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+
+    private final Path file;
+    private final ChatRepository delegate;
+    private volatile Mapping mapping;  // Replaced as a whole when the file changes
+
+    /**
+     * @param file     The FAQ file written by {@link #write}
+     * @param delegate Repository for users and chat history; closed with this one
+     */
+    public MappedFAQRepository(Path file, ChatRepository delegate) {
+        this.file = file;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Exports the FAQs of the configured database to a file.
+     * Usage: {@code MappedFAQRepository <file>}, run without {@code chatbot.storage.faqFile}.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: MappedFAQRepository <file>");
+            System.exit(2);
+        }
+        List<FAQEntry> entries = DatabaseHelper.loadFAQs();
+        write(Path.of(args[0]), entries);
+        System.out.println("Wrote " + entries.size() + " FAQs to " + args[0]);
+        DatabaseHelper.shutdown();
+    }
+
+    /**
+     * Writes FAQs to a file in this repository's format, replacing the file atomically.
+     *
+     * @param file    The file to write
+     * @param entries The FAQs, in any order
+     * @throws IOException if the file can't be written
+     */
+    public static void write(Path file, Collection<FAQEntry> entries) throws IOException {
+        List<FAQEntry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparingInt(FAQEntry::getId));
+        List<byte[]> questions = new ArrayList<>(sorted.size());
+        List<byte[]> answers = new ArrayList<>(sorted.size());
+        long newest = 0;
+        for (FAQEntry entry : sorted) {
+            questions.add(entry.getQuestion().getBytes(StandardCharsets.UTF_8));
+            answers.add(String.valueOf(entry.getAnswer()).getBytes(StandardCharsets.UTF_8));
+            newest = Math.max(newest, entry.getUpdatedAt());
+        }
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream stream = Files.newOutputStream(tmp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(sorted.size());
+                out.writeLong(newest);
+                long offset = HEADER_BYTES + 4L * sorted.size();
+                for (int i = 0; i < sorted.size(); i++) {
+                    if (offset > Integer.MAX_VALUE) {
+                        throw new IOException("FAQ file would exceed 2 GB");
+                    }
+                    out.writeInt((int) offset);
+                    offset += 4 + 8 + 4 + questions.get(i).length + 4 + answers.get(i).length;
+                }
+                for (int i = 0; i < sorted.size(); i++) {
+                    FAQEntry entry = sorted.get(i);
+                    out.writeInt(entry.getId());
+                    out.writeLong(entry.getUpdatedAt());
+                    out.writeInt(questions.get(i).length);
+                    out.write(questions.get(i));
+                    out.writeInt(answers.get(i).length);
+                    out.write(answers.get(i));
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public List<FAQEntry> loadFAQs() throws SQLException {
+        Mapping m = map();
+        List<FAQEntry> entries = new ArrayList<>(m.count);
+        for (int i = 0; i < m.count; i++) {
+            entries.add(m.entry(i));
+        }
+        return entries;
+    }
+
+    @Override
+    public List<FAQEntry> loadFAQsChangedSince(long sinceMillis) throws SQLException {
+        Mapping m = map();
+        List<FAQEntry> entries = new ArrayList<>();
+        for (int i = 0; i < m.count; i++) {
+            if (m.updatedAt(i) >= sinceMillis) {
+                entries.add(m.entry(i));
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public long[] loadFAQVersion() throws SQLException {
+        Mapping m = map();
+        return new long[]{m.count, m.newest};
+    }
+
+    @Override
+    public int[] saveFAQs(List<FAQEntry> inserts, List<FAQEntry> updates) throws SQLException {
+        throw new SQLFeatureNotSupportedException("FAQs are read from " + file + "; rebuild the file instead");
+    }
+
+    @Override
+    public String findFAQAnswer(String query) throws SQLException {
+        Mapping m = map();
+        String needle = query.toLowerCase();
+        for (int i = 0; i < m.count; i++) {
+            if (m.question(i).toLowerCase().contains(needle)) {
+                return m.answer(i);  // Only the matching answer is decoded
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Maps the file, or re-maps it if it changed since the last call.
+     */
+    private Mapping map() throws SQLException {
+        Mapping m = mapping;
+        try {
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            if (m != null && m.modified == modified) {
+                return m;
+            }
+            synchronized (this) {
+                m = mapping;
+                if (m == null || m.modified != modified) {
+                    m = new Mapping(file, modified);
+                    mapping = m;
+                }
+                return m;
+            }
+        } catch (IOException e) {
+            throw new SQLException("Can't read FAQ file " + file, e);
+        }
+    }
+
+    @Override
+    public StoredUser findUserByEmail(String email) throws SQLException {
+        return delegate.findUserByEmail(email);
+    }
+
+    @Override
+    public User insertUser(String name, String email, String passwordHash) throws SQLException {
+        return delegate.insertUser(name, email, passwordHash);
+    }
+
+    @Override
+    public void updatePasswordHash(int userId, String passwordHash) throws SQLException {
+        delegate.updatePasswordHash(userId, passwordHash);
+    }
+
+    @Override
+    public void insertChatHistory(List<ChatHistoryWriter.Entry> batch) throws SQLException {
+        delegate.insertChatHistory(batch);
+    }
+
+    @Override
+    public List<ChatHistoryEntry> loadChatHistoryBefore(int userId, long beforeId, int limit) throws SQLException {
+        return delegate.loadChatHistoryBefore(userId, beforeId, limit);
+    }
+
+    @Override
+    public int readChatHistory(int userId, long sinceMillis, long untilMillis, long[] after, boolean ascending,
+                               int limit, Consumer<ChatHistoryEntry> action) throws SQLException {
+        return delegate.readChatHistory(userId, sinceMillis, untilMillis, after, ascending, limit, action);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return delegate.getConnection();
+    }
+
+    @Override
+    public ConnectionPool.Stats getPoolStats() {
+        return delegate.getPoolStats();
+    }
+
+    @Override
+    public void close() {
+        mapping = null;  // The mapping itself is released once it is garbage collected
+        delegate.close();
+    }
+
+    /**
+     * One mapped version of the file. Reads use absolute positions only, so it is shared by all threads.
+     */
+    private static class Mapping {
+        final ByteBuffer buffer;
+        final long modified;
+        final int count;
+        final long newest;
+
+        Mapping(Path file, long modified) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                this.buffer = mapped;
+            }
+            if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not an FAQ file: " + file);
+            }
+            if (buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Unsupported FAQ file version " + buffer.getInt(4) + ": " + file);
+            }
+            this.modified = modified;
+            this.count = buffer.getInt(8);
+            this.newest = buffer.getLong(12);
+        }
+
+        private int offset(int i) {
+            return buffer.getInt(HEADER_BYTES + 4 * i);
+        }
+
+        long updatedAt(int i) {
+            return buffer.getLong(offset(i) + 4);
+        }
+
+        String question(int i) {
+            return string(offset(i) + 12);
+        }
+
+        String answer(int i) {
+            int questionAt = offset(i) + 12;
+            return string(questionAt + 4 + buffer.getInt(questionAt));
+        }
+
+        FAQEntry entry(int i) {
+            int at = offset(i);
+            return new FAQEntry(buffer.getInt(at), question(i), answer(i), buffer.getLong(at + 4));
+        }
+
+        private String string(int at) {
+            byte[] bytes = new byte[buffer.getInt(at)];
+            buffer.get(at + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,461 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide metrics: latency histograms, counters and gauges, exported as Prometheus text
+ * or JSON.
+ *
+ * Metrics are off unless {@code -Dchatbot.metrics=true} is set. The switch is a static final
+ * constant, so when it is off {@link #start()} returns 0 and every {@code observe}/{@code increment}
+ * call returns straight away without reading the clock or touching shared state.
+ *
+ * Hot paths look their metrics up once and keep them in static fields:
+ * <pre>
+ *     private static final Metrics.Histogram FAQ_LOOKUP = Metrics.histogram("chatbot_stage_seconds", "stage", "faq");
+ *     ...
+ *     long start = Metrics.start();
+ *     ...
+ *     FAQ_LOOKUP.observeSince(start);
+ * </pre>
+ *
+ * Export with {@code -Dchatbot.metrics.port=9091} (serves {@code /metrics}, add {@code ?format=json}
+ * for JSON), through {@link ChatServer}'s own {@code /metrics}, or with
+ * {@code -Dchatbot.metrics.dumpFile=metrics.json} to write a JSON dump on exit.
+ */
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("chatbot.metrics");
+
+    // Histogram bucket upper bounds, 10us to 10s
+    private static final long[] BUCKET_NANOS = {
+            10_000L, 25_000L, 50_000L, 100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+            100_000_000L, 250_000_000L, 500_000_000L, 1_000_000_000L, 2_500_000_000L, 5_000_000_000L,
+            10_000_000_000L
+    };
+
+    private static final Map<String, Metric> REGISTRY = new ConcurrentSkipListMap<>();
+    private static HttpServer endpoint;  // Guarded by Metrics.class
+    private static boolean dumpOnExit;    // Guarded by Metrics.class
+
+    private Metrics() {
+    }
+
+    /**
+     * @return The current time to pass to {@link Histogram#observeSince}, or 0 when metrics are off
+     */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Returns the histogram with the given name and labels, creating it on first use.
+     *
+     * @param name   Metric name, e.g. {@code chatbot_stage_seconds}
+     * @param labels Label names and values, alternating
+     * @return The histogram
+     */
+    public static Histogram histogram(String name, String... labels) {
+        return (Histogram) REGISTRY.computeIfAbsent(key(name, labels), k -> new Histogram(name, labels(labels)));
+    }
+
+    /**
+     * Returns the counter with the given name and labels, creating it on first use.
+     *
+     * @param name   Metric name, e.g. {@code chatbot_responses_total}
+     * @param labels Label names and values, alternating
+     * @return The counter
+     */
+    public static Counter counter(String name, String... labels) {
+        return (Counter) REGISTRY.computeIfAbsent(key(name, labels), k -> new Counter(name, labels(labels)));
+    }
+
+    /**
+     * Registers a gauge that is read when metrics are exported. Does nothing when metrics are off.
+     *
+     * @param name   Metric name
+     * @param value  Supplies the current value; called on the exporting thread
+     * @param labels Label names and values, alternating
+     */
+    public static void gauge(String name, DoubleSupplier value, String... labels) {
+        if (ENABLED) {
+            REGISTRY.put(key(name, labels), new Gauge(name, labels(labels), value));
+        }
+    }
+
+    /**
+     * @return All metrics in the Prometheus text exposition format
+     */
+    public static String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        String lastName = null;
+        for (Metric metric : REGISTRY.values()) {
+            if (!metric.name.equals(lastName)) {
+                text.append("# TYPE ").append(metric.name).append(' ').append(metric.type()).append('\n');
+                lastName = metric.name;
+            }
+            metric.appendPrometheus(text);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return All metrics as a JSON object keyed by metric name
+     */
+    public static String toJson() {
+        Map<String, List<Object>> byName = new LinkedHashMap<>();
+        for (Metric metric : REGISTRY.values()) {
+            Map<String, Object> sample = new LinkedHashMap<>();
+            if (!metric.labels.isEmpty()) {
+                sample.put("labels", metric.labels);
+            }
+            metric.putJson(sample);
+            byName.computeIfAbsent(metric.name, k -> new ArrayList<>()).add(sample);
+        }
+        Map<String, Object> dump = new LinkedHashMap<>();
+        dump.put("timestamp", System.currentTimeMillis());
+        dump.put("metrics", byName);
+        return Json.toJson(dump);
+    }
+
+    /**
+     * Serves {@code GET /metrics}: Prometheus text, or JSON with {@code ?format=json}.
+     *
+     * @param exchange The HTTP exchange
+     * @throws IOException if the response can't be written
+     */
+    static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String query = exchange.getRequestURI().getQuery();
+            boolean json = query != null && query.contains("format=json");
+            byte[] body = (json ? toJson() : toPrometheus()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type",
+                    json ? "application/json" : "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * Sets up the exports configured through system properties: the {@code /metrics} endpoint on
+     * {@code chatbot.metrics.port} and the JSON dump to {@code chatbot.metrics.dumpFile} on exit.
+     * Does nothing when metrics are off.
+     */
+    public static synchronized void exportConfigured() {
+        if (!ENABLED) {
+            return;
+        }
+        Integer port = Integer.getInteger("chatbot.metrics.port");
+        if (port != null && endpoint == null) {
+            try {
+                endpoint = HttpServer.create(new InetSocketAddress(port), 0);
+                endpoint.createContext("/metrics", Metrics::handle);
+                endpoint.start();
+                ChatLog.info("metrics.endpoint", "port", endpoint.getAddress().getPort());
+            } catch (IOException e) {
+                ChatLog.error("metrics.endpoint", e, "port", port);
+            }
+        }
+        String dumpFile = System.getProperty("chatbot.metrics.dumpFile");
+        if (dumpFile != null && !dumpOnExit) {
+            dumpOnExit = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> dumpJson(dumpFile), "metrics-dump"));
+        }
+    }
+
+    /**
+     * Writes {@link #toJson()} to a file.
+     *
+     * @param path The file to write
+     */
+    public static void dumpJson(String path) {
+        try (Writer out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            out.write(toJson());
+            out.write('\n');
+        } catch (IOException e) {
+            ChatLog.error("metrics.dump", e, "path", path);
+        }
+    }
+
+    private static String key(String name, String[] labels) {
+        return labels.length == 0 ? name : name + "\u0000" + String.join("\u0000", labels);
+    }
+
+    private static Map<String, String> labels(String[] pairs) {
+        if (pairs.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        Map<String, String> labels = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            labels.put(pairs[i], pairs[i + 1]);
+        }
+        return labels;
+    }
+
+    private static String formatSeconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    /**
+     * A named, labelled metric in the registry.
+     */
+    abstract static class Metric {
+        final String name;
+        final Map<String, String> labels;
+
+        Metric(String name, Map<String, String> labels) {
+            this.name = name;
+            this.labels = labels;
+        }
+
+        abstract String type();
+
+        abstract void appendPrometheus(StringBuilder text);
+
+        abstract void putJson(Map<String, Object> sample);
+
+        /**
+         * Appends the label set, with an optional extra label (e.g. {@code le}) last.
+         */
+        void appendLabels(StringBuilder text, String extraName, String extraValue) {
+            if (labels.isEmpty() && extraName == null) {
+                return;
+            }
+            text.append('{');
+            boolean first = true;
+            for (Map.Entry<String, String> label : labels.entrySet()) {
+                if (!first) {
+                    text.append(',');
+                }
+                first = false;
+                text.append(label.getKey()).append("=\"");
+                escapeLabel(text, label.getValue());
+                text.append('"');
+            }
+            if (extraName != null) {
+                text.append(first ? "" : ",").append(extraName).append("=\"").append(extraValue).append('"');
+            }
+            text.append('}');
+        }
+
+        private static void escapeLabel(StringBuilder text, String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    text.append('\\').append(c);
+                } else if (c == '\n') {
+                    text.append("\\n");
+                } else {
+                    text.append(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Latency histogram with fixed buckets from 10us to 10s. Recording is a bucket search and
+     * two {@link LongAdder} increments, so it stays cheap under contention.
+     */
+    public static final class Histogram extends Metric {
+        private final LongAdder[] buckets = new LongAdder[BUCKET_NANOS.length + 1];  // Last one is +Inf
+        private final LongAdder sumNanos = new LongAdder();
+
+        Histogram(String name, Map<String, String> labels) {
+            super(name, labels);
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records the time elapsed since {@code startNanos}, as returned by {@link Metrics#start()}.
+         *
+         * @param startNanos Start of the measured interval
+         */
+        public void observeSince(long startNanos) {
+            if (ENABLED) {
+                observeNanos(System.nanoTime() - startNanos);
+            }
+        }
+
+        /**
+         * @param nanos A measured duration in nanoseconds
+         */
+        public void observeNanos(long nanos) {
+            if (!ENABLED) {
+                return;
+            }
+            int low = 0;
+            int high = BUCKET_NANOS.length;
+            while (low < high) {  // First bucket whose bound is >= nanos
+                int mid = (low + high) >>> 1;
+                if (BUCKET_NANOS[mid] < nanos) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            buckets[low].increment();
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * @return Number of recorded values
+         */
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /**
+         * Estimates a percentile as the upper bound of the bucket it falls into.
+         *
+         * @param p Percentile between 0 and 100
+         * @return The estimate in nanoseconds, or -1 if it falls into the +Inf bucket
+         */
+        public long percentileNanos(double p) {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            long rank = (long) Math.ceil(total * p / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_NANOS.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return BUCKET_NANOS[i];
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        String type() {
+            return "histogram";
+        }
+
+        @Override
+        void appendPrometheus(StringBuilder text) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                text.append(name).append("_bucket");
+                appendLabels(text, "le", i < BUCKET_NANOS.length ? formatSeconds(BUCKET_NANOS[i]) : "+Inf");
+                text.append(' ').append(cumulative).append('\n');
+            }
+            text.append(name).append("_sum");
+            appendLabels(text, null, null);
+            text.append(' ').append(formatSeconds(sumNanos.sum())).append('\n');
+            text.append(name).append("_count");
+            appendLabels(text, null, null);
+            text.append(' ').append(cumulative).append('\n');
+        }
+
+        @Override
+        void putJson(Map<String, Object> sample) {
+            long count = getCount();
+            sample.put("count", count);
+            sample.put("avgMicros", count == 0 ? 0 : sumNanos.sum() / count / 1_000);
+            sample.put("p50MicrosAtMost", percentileNanos(50) / 1_000);
+            sample.put("p99MicrosAtMost", percentileNanos(99) / 1_000);
+        }
+    }
+
+    /**
+     * Monotonic counter.
+     */
+    public static final class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+
+        Counter(String name, Map<String, String> labels) {
+            super(name, labels);
+        }
+
+        public void increment() {
+            if (ENABLED) {
+                value.increment();
+            }
+        }
+
+        public void add(long delta) {
+            if (ENABLED) {
+                value.add(delta);
+            }
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        String type() {
+            return "counter";
+        }
+
+        @Override
+        void appendPrometheus(StringBuilder text) {
+            text.append(name);
+            appendLabels(text, null, null);
+            text.append(' ').append(value.sum()).append('\n');
+        }
+
+        @Override
+        void putJson(Map<String, Object> sample) {
+            sample.put("value", value.sum());
+        }
+    }
+
+    /**
+     * Value read from a supplier at export time, e.g. a queue depth.
+     */
+    static final class Gauge extends Metric {
+        private final DoubleSupplier value;
+
+        Gauge(String name, Map<String, String> labels, DoubleSupplier value) {
+            super(name, labels);
+            this.value = value;
+        }
+
+        @Override
+        String type() {
+            return "gauge";
+        }
+
+        @Override
+        void appendPrometheus(StringBuilder text) {
+            text.append(name);
+            appendLabels(text, null, null);
+            text.append(' ').append(value.getAsDouble()).append('\n');
+        }
+
+        @Override
+        void putJson(Map<String, Object> sample) {
+            sample.put("value", value.getAsDouble());
+        }
+    }
+}
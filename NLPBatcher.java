@@ -0,0 +1,287 @@
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.CoreDocument;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Groups concurrent NLP requests into small batches in front of a shared pipeline.
+ *
+ * Under load many short messages arrive at once, and annotating them one by one leaves the
+ * pipeline's threads idle between documents. Here a dispatcher thread takes the first waiting
+ * request, gathers more until the batch is full or the window since the first one has passed,
+ * then annotates the batch with CoreNLP's multi-threaded {@code annotate}. Each caller's future
+ * completes as soon as its own document is done. A larger batch or window raises throughput at
+ * the cost of latency for the first request in a batch; the {@code chatbot_nlp_batch_*} metrics
+ * show where a setting lands.
+ *
+ * Settings for the shared batchers ({@link #get}):
+ * {@code chatbot.nlp.batch.maxSize} (16), {@code chatbot.nlp.batch.maxWaitMicros} (500) and
+ * {@code chatbot.nlp.batch.threads} (number of processors).
+ */
+public class NLPBatcher implements AutoCloseable {
+    private static final Map<NLPPipelines.Profile, NLPBatcher> SHARED = new EnumMap<>(NLPPipelines.Profile.class);
+    private static final Request CLOSE = new Request(null);  // Wakes the dispatcher up to stop
+
+    private final NLPPipelines.Profile profile;
+    private final StanfordCoreNLP pipeline;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final int threads;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder documents = new LongAdder();
+    private final Metrics.Histogram waitTime;
+    private final Metrics.Histogram batchTime;
+    private final Metrics.Counter batchCount;
+    private final Metrics.Counter documentCount;
+
+    /**
+     * Creates a batcher and starts its dispatcher thread.
+     *
+     * @param profile       The pipeline profile to annotate with
+     * @param maxBatchSize  Most documents annotated together
+     * @param maxWaitMicros How long the first request of a batch waits for others to join it
+     * @param threads       Threads the pipeline uses per batch
+     */
+    public NLPBatcher(NLPPipelines.Profile profile, int maxBatchSize, long maxWaitMicros, int threads) {
+        if (maxBatchSize < 1 || maxWaitMicros < 0 || threads < 1) {
+            throw new IllegalArgumentException("maxBatchSize and threads must be positive, maxWaitMicros not negative");
+        }
+        this.profile = profile;
+        this.pipeline = NLPPipelines.get(profile);
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.threads = threads;
+        this.waitTime = Metrics.histogram("chatbot_nlp_batch_wait_seconds", "profile", profile.name());
+        this.batchTime = Metrics.histogram("chatbot_nlp_batch_seconds", "profile", profile.name());
+        this.batchCount = Metrics.counter("chatbot_nlp_batches_total", "profile", profile.name());
+        this.documentCount = Metrics.counter("chatbot_nlp_batched_documents_total", "profile", profile.name());
+
+        dispatcher = new Thread(this::dispatch, "nlp-batcher-" + profile.name().toLowerCase());
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Returns the process-wide batcher of a profile, created with the {@code chatbot.nlp.batch.*}
+     * settings on first use.
+     *
+     * @param profile The annotator profile
+     * @return The shared batcher
+     */
+    public static NLPBatcher get(NLPPipelines.Profile profile) {
+        synchronized (SHARED) {
+            return SHARED.computeIfAbsent(profile, p -> {
+                NLPBatcher batcher = new NLPBatcher(p,
+                        Integer.getInteger("chatbot.nlp.batch.maxSize", 16),
+                        Long.getLong("chatbot.nlp.batch.maxWaitMicros", 500),
+                        Integer.getInteger("chatbot.nlp.batch.threads", Runtime.getRuntime().availableProcessors()));
+                Metrics.gauge("chatbot_nlp_batch_queue_depth", batcher::getQueueDepth, "profile", p.name());
+                return batcher;
+            });
+        }
+    }
+
+    /**
+     * Queues a text for annotation.
+     *
+     * @param text The input text to process
+     * @return A future for the result, completed by the dispatcher
+     */
+    public CompletableFuture<NLPProcessor.NLPResult> submit(String text) {
+        Request request = new Request(text);
+        if (closed) {
+            request.future.completeExceptionally(new IllegalStateException("NLP batcher closed"));
+            return request.future;
+        }
+        queue.add(request);
+        if (closed && queue.remove(request)) {  // Lost a race with close()
+            request.future.completeExceptionally(new IllegalStateException("NLP batcher closed"));
+        }
+        return request.future;
+    }
+
+    /**
+     * Annotates a text in the next batch and waits for the result. Drop-in for
+     * {@link NLPProcessor#processText} on threads that serve concurrent requests.
+     *
+     * @param text The input text to process
+     * @return The result
+     */
+    public NLPProcessor.NLPResult process(String text) {
+        return join(submit(text));
+    }
+
+    /**
+     * Annotates many texts at once, e.g. when building an index; they fill whole batches
+     * instead of waiting for the window.
+     *
+     * @param texts The input texts
+     * @return The results, in the same order
+     */
+    public List<NLPProcessor.NLPResult> processAll(List<String> texts) {
+        List<CompletableFuture<NLPProcessor.NLPResult>> futures = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            futures.add(submit(text));
+        }
+        List<NLPProcessor.NLPResult> results = new ArrayList<>(texts.size());
+        for (CompletableFuture<NLPProcessor.NLPResult> future : futures) {
+            results.add(join(future));
+        }
+        return results;
+    }
+
+    private static NLPProcessor.NLPResult join(CompletableFuture<NLPProcessor.NLPResult> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();  // Same exceptions as a direct processText call
+            }
+            throw e;
+        }
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+                Request first = queue.take();
+                if (first == CLOSE) {
+                    break;
+                }
+                batch.add(first);
+                long deadline = first.queuedAt + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        queue.drainTo(batch, maxBatchSize - batch.size());  // Whatever arrived meanwhile
+                        break;
+                    }
+                    batch.add(next);
+                }
+                batch.remove(CLOSE);
+                annotate(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException | Error e) {
+                for (Request request : batch) {
+                    request.future.completeExceptionally(e);
+                }
+                ChatLog.error("nlp.batch", e, "profile", profile, "size", batch.size());
+            } finally {
+                batch.clear();
+            }
+        }
+        for (Request request = queue.poll(); request != null; request = queue.poll()) {
+            if (request != CLOSE) {
+                request.future.completeExceptionally(new IllegalStateException("NLP batcher closed"));
+            }
+        }
+    }
+
+    private void annotate(List<Request> batch) {
+        long start = System.nanoTime();
+        for (Request request : batch) {
+            waitTime.observeNanos(start - request.queuedAt);
+        }
+        if (batch.size() == 1) {
+            Request request = batch.get(0);  // Nothing to overlap with; skip the thread hand-off
+            CoreDocument doc = new CoreDocument(request.text);
+            pipeline.annotate(doc);
+            request.future.complete(NLPProcessor.toResult(doc));
+        } else {
+            Map<Annotation, Request> byAnnotation = new IdentityHashMap<>();
+            List<Annotation> annotations = new ArrayList<>(batch.size());
+            for (Request request : batch) {
+                Annotation annotation = new Annotation(request.text);
+                byAnnotation.put(annotation, request);
+                annotations.add(annotation);
+            }
+            // The callback runs on the pipeline's threads, as each document finishes
+            pipeline.annotate(annotations, Math.min(threads, batch.size()), annotation -> {
+                Request request = byAnnotation.get(annotation);
+                try {
+                    request.future.complete(NLPProcessor.toResult(new CoreDocument(annotation)));
+                } catch (RuntimeException e) {
+                    request.future.completeExceptionally(e);
+                }
+            });
+            for (Request request : batch) {
+                if (!request.future.isDone()) {
+                    request.future.completeExceptionally(new IllegalStateException("Document was not annotated"));
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        batchTime.observeNanos(nanos);
+        batchCount.increment();
+        documentCount.add(batch.size());
+        batches.increment();
+        documents.add(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            NLPPipelines.recordAnnotation(profile, nanos / batch.size());  // Amortized per document
+        }
+    }
+
+    /**
+     * @return Requests waiting for a batch
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return Number of batches annotated so far
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * @return Average number of documents per batch so far
+     */
+    public double getAverageBatchSize() {
+        long count = batches.sum();
+        return count == 0 ? 0 : (double) documents.sum() / count;
+    }
+
+    /**
+     * Stops the dispatcher; waiting and later requests fail with an {@link IllegalStateException}.
+     * The batch being annotated still completes.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        queue.add(CLOSE);
+        synchronized (SHARED) {
+            SHARED.values().remove(this);
+        }
+    }
+
+    private static class Request {
+        final String text;
+        final long queuedAt = System.nanoTime();
+        final CompletableFuture<NLPProcessor.NLPResult> future = new CompletableFuture<>();
+
+        Request(String text) {
+            this.text = text;
+        }
+    }
+}
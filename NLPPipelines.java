@@ -0,0 +1,157 @@
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide registry of Stanford CoreNLP pipelines.
+ *
+ * Each profile's models are loaded once and the pipeline is shared by every {@link NLPProcessor};
+ * StanfordCoreNLP is safe to use from several threads. Pipelines can be warmed up in the
+ * background at startup so the first message doesn't pay for model loading.
+ */
+public final class NLPPipelines {
+
+    /**
+     * Annotator sets, from cheapest to most expensive. CoreNLP's lemmatizer needs POS tags,
+     * so LEMMA is the lightest profile that produces lemmas.
+     */
+    public enum Profile {
+        TOKENIZE("tokenize,ssplit"),
+        LEMMA("tokenize,ssplit,pos,lemma"),
+        FULL("tokenize,ssplit,pos,lemma,ner");
+
+        private final String annotators;
+
+        Profile(String annotators) {
+            this.annotators = annotators;
+        }
+
+        public String getAnnotators() {
+            return annotators;
+        }
+    }
+
+    private static final Map<Profile, CompletableFuture<StanfordCoreNLP>> PIPELINES = new ConcurrentHashMap<>();
+    private static final Map<Profile, Long> LOAD_MILLIS = new ConcurrentHashMap<>();
+    private static final Map<Profile, LongAdder> ANNOTATIONS = new EnumMap<>(Profile.class);
+    private static final Map<Profile, LongAdder> ANNOTATE_NANOS = new EnumMap<>(Profile.class);
+    private static final Map<Profile, Metrics.Histogram> ANNOTATE_TIME = new EnumMap<>(Profile.class);
+
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "nlp-model-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        for (Profile profile : Profile.values()) {
+            ANNOTATIONS.put(profile, new LongAdder());
+            ANNOTATE_NANOS.put(profile, new LongAdder());
+            ANNOTATE_TIME.put(profile, Metrics.histogram("chatbot_nlp_annotate_seconds", "profile", profile.name()));
+        }
+    }
+
+    private NLPPipelines() {
+    }
+
+    /**
+     * Returns the shared pipeline for a profile, loading its models on first use.
+     * Blocks until the models are loaded.
+     *
+     * @param profile The annotator profile
+     * @return The pipeline
+     */
+    public static StanfordCoreNLP get(Profile profile) {
+        return load(profile).join();
+    }
+
+    /**
+     * Starts loading the given profiles in the background.
+     *
+     * @param profiles The profiles to load
+     * @return A future that completes when all of them are loaded
+     */
+    public static CompletableFuture<Void> warmUp(Profile... profiles) {
+        CompletableFuture<?>[] loads = new CompletableFuture<?>[profiles.length];
+        for (int i = 0; i < profiles.length; i++) {
+            loads[i] = load(profiles[i]);
+        }
+        return CompletableFuture.allOf(loads);
+    }
+
+    /**
+     * Warms up the profiles listed in the {@code chatbot.nlp.warmup} system property
+     * (comma-separated, e.g. {@code LEMMA,FULL}). Does nothing if the property is not set.
+     */
+    public static void warmUpConfigured() {
+        String configured = System.getProperty("chatbot.nlp.warmup", "").trim();
+        if (configured.isEmpty()) {
+            return;
+        }
+        for (String name : configured.split(",")) {
+            warmUp(Profile.valueOf(name.trim().toUpperCase()));
+        }
+    }
+
+    private static CompletableFuture<StanfordCoreNLP> load(Profile profile) {
+        return PIPELINES.computeIfAbsent(profile, p -> CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            Properties props = new Properties();
+            props.setProperty("annotators", p.getAnnotators());
+            StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
+            LOAD_MILLIS.put(p, (System.nanoTime() - start) / 1_000_000);
+            return pipeline;
+        }, LOADER));
+    }
+
+    /**
+     * Records the duration of one annotation, for the per-profile latency metrics.
+     */
+    static void recordAnnotation(Profile profile, long nanos) {
+        ANNOTATE_TIME.get(profile).observeNanos(nanos);
+        ANNOTATIONS.get(profile).increment();
+        ANNOTATE_NANOS.get(profile).add(nanos);
+    }
+
+    /**
+     * @return How long the profile's models took to load, or -1 if not loaded yet
+     */
+    public static long getLoadMillis(Profile profile) {
+        return LOAD_MILLIS.getOrDefault(profile, -1L);
+    }
+
+    /**
+     * @return Number of documents annotated with the profile
+     */
+    public static long getAnnotationCount(Profile profile) {
+        return ANNOTATIONS.get(profile).sum();
+    }
+
+    /**
+     * @return Average time to annotate one document with the profile, in microseconds
+     */
+    public static long getAverageAnnotateMicros(Profile profile) {
+        long count = ANNOTATIONS.get(profile).sum();
+        return count == 0 ? 0 : ANNOTATE_NANOS.get(profile).sum() / count / 1_000;
+    }
+
+    /**
+     * Returns CoreNLP's own per-annotator timing breakdown for a loaded profile.
+     *
+     * @return The timing report, or an empty string if the profile isn't loaded yet
+     */
+    public static String getAnnotatorTimings(Profile profile) {
+        CompletableFuture<StanfordCoreNLP> pipeline = PIPELINES.get(profile);
+        if (pipeline == null || !pipeline.isDone() || pipeline.isCompletedExceptionally()) {
+            return "";
+        }
+        return pipeline.join().timingInformation();
+    }
+}
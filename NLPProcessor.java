@@ -7,27 +7,55 @@ import edu.stanford.nlp.pipeline.*;
 import java.util.*;
 
 public class NLPProcessor {
-    private StanfordCoreNLP pipeline;
+    private final StanfordCoreNLP pipeline;
+    private final NLPPipelines.Profile profile;
 
     public NLPProcessor() {
-        // Set up the properties for Stanford NLP pipeline
-        Properties props = new Properties();
-        props.setProperty("annotators", "tokenize,ssplit,pos,lemma,ner");
-        pipeline = new StanfordCoreNLP(props);
+        this(NLPPipelines.Profile.FULL);
     }
 
     /**
-     * Processes the input text and returns structured data with recognized entities and processed text.
+     * Creates a processor on the shared pipeline of the given profile. Use a lighter profile
+     * when named entities aren't needed; the models are loaded only once per process.
+     *
+     * @param profile The annotator profile
+     */
+    public NLPProcessor(NLPPipelines.Profile profile) {
+        this.profile = profile;
+        this.pipeline = NLPPipelines.get(profile);
+    }
+
+    /**
+     * Processes the input text and returns structured data with recognized entities, lemmas and processed text.
      *
      * @param text The input text to process
      * @return A result object containing processed text and extracted entities
      */
     public NLPResult processText(String text) {
         CoreDocument doc = new CoreDocument(text);
+        long start = System.nanoTime();
         pipeline.annotate(doc);
+        NLPPipelines.recordAnnotation(profile, System.nanoTime() - start);
+        return toResult(doc);
+    }
+
+    /**
+     * @return The annotator profile of this processor's pipeline
+     */
+    public NLPPipelines.Profile getProfile() {
+        return profile;
+    }
 
+    /**
+     * Extracts the processed text, entities and lemmas from an annotated document.
+     *
+     * @param doc The document, annotated by a pipeline
+     * @return The result
+     */
+    static NLPResult toResult(CoreDocument doc) {
         StringBuilder processedText = new StringBuilder();
         Map<String, List<String>> entities = new HashMap<>();
+        List<String> lemmas = new ArrayList<>();
 
         for (CoreLabel token : doc.tokens()) {
             String word = token.word();
@@ -36,6 +64,10 @@ public class NLPProcessor {
             // Append word to processed text
             processedText.append(word).append(" ");
 
+            // Lemmas are only set by profiles with the lemma annotator; fall back to the word
+            String lemma = token.lemma();
+            lemmas.add((lemma != null ? lemma : word).toLowerCase());
+
             // Collect recognized entities
             if (nerTag != null && !nerTag.equals("O")) {  // "O" means no entity
                 entities.computeIfAbsent(nerTag, k -> new ArrayList<>()).add(word);
@@ -43,7 +75,7 @@ public class NLPProcessor {
         }
 
         // Return a structured result
-        return new NLPResult(processedText.toString().toLowerCase().trim(), entities);
+        return new NLPResult(processedText.toString().toLowerCase().trim(), entities, lemmas);
     }
 
     /**
@@ -52,10 +84,16 @@ public class NLPProcessor {
     public static class NLPResult {
         private final String processedText;
         private final Map<String, List<String>> entities;
+        private final List<String> lemmas;
 
         public NLPResult(String processedText, Map<String, List<String>> entities) {
+            this(processedText, entities, List.of());
+        }
+
+        public NLPResult(String processedText, Map<String, List<String>> entities, List<String> lemmas) {
             this.processedText = processedText;
             this.entities = entities;
+            this.lemmas = lemmas;
         }
 
         public String getProcessedText() {
@@ -66,6 +104,14 @@ public class NLPProcessor {
             return entities;
         }
 
+        /**
+         * @return The lowercased lemma of every token, in order (the word itself when the
+         *         profile has no lemma annotator)
+         */
+        public List<String> getLemmas() {
+            return lemmas;
+        }
+
         /**
          * Ensures processedText is returned in lowercase for compatibility.
          */
@@ -78,6 +124,7 @@ public class NLPProcessor {
             return "NLPResult{" +
                    "processedText='" + processedText + '\'' +
                    ", entities=" + entities +
+                   ", lemmas=" + lemmas +
                    '}';
         }
     }
@@ -0,0 +1,130 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of bot responses, keyed on the normalized query.
+ *
+ * Only answers that depend on the query text alone (FAQ, keyword and fallback answers) may be
+ * cached; context-dependent follow-up answers must never go in here. Entries expire after
+ * {@code ttlMillis}, and {@link #invalidateAll()} drops everything when the FAQs change.
+ */
+public class ResponseCache {
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries;  // Guarded by this
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param maxEntries Maximum number of cached responses; 0 disables the cache
+     * @param ttlMillis  How long a response stays valid
+     */
+    public ResponseCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > ResponseCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the current generation. Read it before computing a response and pass it to
+     * {@link #put}, so a response computed from data that was invalidated meanwhile is not cached.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * @param query The normalized query
+     * @return The cached response, or null if absent or expired
+     */
+    public String get(String query) {
+        if (maxEntries <= 0) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(query);
+            if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+                hits.increment();
+                return entry.response;
+            }
+            if (entry != null) {
+                entries.remove(query);
+                evictions.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches a response, unless the cache was invalidated after {@code generation} was read.
+     *
+     * @param query      The normalized query
+     * @param response   The response
+     * @param generation The value of {@link #generation()} before the response was computed
+     */
+    public void put(String query, String response, long generation) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (generation == this.generation.get()) {
+                entries.put(query, new Entry(response, System.currentTimeMillis() + ttlMillis));
+            }
+        }
+    }
+
+    /**
+     * Drops every cached response, e.g. after the faqs table was updated.
+     */
+    public synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+        invalidations.increment();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    private static class Entry {
+        private final String response;
+        private final long expiresAt;
+
+        Entry(String response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,18 +1,193 @@
 import javax.sound.sampled.*;
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Plays short notification sounds.
+ *
+ * Each sound file is decoded once into memory and loaded into a few pre-opened {@link Clip}s,
+ * which are rewound and restarted for every notification instead of opening a new line each
+ * time. All audio work happens on one daemon thread, so {@link #playSound} returns immediately.
+ * Bursts are coalesced: a request for a sound that is already queued, or that started less than
+ * {@code chatbot.sound.coalesceMillis} (default 150) ago, is dropped.
+ *
+ * Nothing is played in a headless JVM, with {@code -Dchatbot.sound.silent=true}, or once no audio
+ * line could be opened; requests are then only counted.
+ */
 public class SoundNotifier {
+    private static final int CLIPS_PER_SOUND = Integer.getInteger("chatbot.sound.clipsPerSound", 2);
+    private static final long COALESCE_NANOS = Long.getLong("chatbot.sound.coalesceMillis", 150) * 1_000_000;
 
+    private static volatile boolean silent =
+            Boolean.getBoolean("chatbot.sound.silent") || GraphicsEnvironment.isHeadless();
+
+    // Filled in on the sound thread
+    private static final Map<String, Sound> sounds = new ConcurrentHashMap<>();
+    private static final Map<String, Boolean> queued = new ConcurrentHashMap<>();
+
+    private static final ExecutorService PLAYER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "sound-notifier");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Metrics
+    private static final LongAdder played = new LongAdder();
+    private static final LongAdder coalesced = new LongAdder();
+    private static final LongAdder suppressed = new LongAdder();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(SoundNotifier::shutdown, "sound-shutdown"));
+    }
+
+    /**
+     * Queues a sound to be played on the sound thread. Never blocks.
+     *
+     * @param soundFile Path of a .wav file
+     */
     public static void playSound(String soundFile) {
+        if (silent) {
+            suppressed.increment();
+            return;
+        }
+        if (queued.putIfAbsent(soundFile, Boolean.TRUE) != null) {
+            coalesced.increment();  // Already waiting to play
+            return;
+        }
         try {
-            File sound = new File(soundFile);  // Put your .wav file here
-            AudioInputStream audioIn = AudioSystem.getAudioInputStream(sound);
-            Clip clip = AudioSystem.getClip();
-            clip.open(audioIn);
-            clip.start();
-        } catch (UnsupportedAudioFileException | IOException | LineUnavailableException e) {
-            e.printStackTrace();
+            PLAYER.execute(() -> {
+                queued.remove(soundFile);
+                play(soundFile);
+            });
+        } catch (RejectedExecutionException e) {
+            suppressed.increment();  // Shut down in the meantime
+        }
+    }
+
+    /**
+     * Decodes a sound and opens its lines ahead of time, so the first notification isn't delayed.
+     *
+     * @param soundFile Path of a .wav file
+     */
+    public static void preload(String soundFile) {
+        if (!silent) {
+            PLAYER.execute(() -> load(soundFile));
+        }
+    }
+
+    /**
+     * Closes all audio lines. Further notifications are ignored.
+     */
+    public static void shutdown() {
+        silent = true;
+        PLAYER.shutdown();
+        for (Sound sound : sounds.values()) {
+            for (Clip clip : sound.clips) {
+                clip.close();
+            }
+        }
+    }
+
+    private static void play(String soundFile) {
+        Sound sound = load(soundFile);
+        long now = System.nanoTime();
+        if (sound.clips.length == 0 || (sound.lastStart != 0 && now - sound.lastStart < COALESCE_NANOS)) {
+            coalesced.increment();
+            return;
+        }
+        for (Clip clip : sound.clips) {
+            if (!clip.isRunning()) {
+                clip.setFramePosition(0);
+                clip.start();
+                sound.lastStart = now;
+                played.increment();
+                return;
+            }
+        }
+        coalesced.increment();  // All lines still busy with earlier notifications
+    }
+
+    private static Sound load(String soundFile) {
+        Sound sound = sounds.get(soundFile);
+        if (sound != null) {
+            return sound;
+        }
+        Clip[] clips = new Clip[0];
+        try (AudioInputStream audioIn = AudioSystem.getAudioInputStream(new File(soundFile))) {
+            AudioFormat format = audioIn.getFormat();
+            byte[] data = audioIn.readAllBytes();  // Decoded once, shared by all clips
+            clips = new Clip[CLIPS_PER_SOUND];
+            for (int i = 0; i < clips.length; i++) {
+                clips[i] = AudioSystem.getClip();
+                clips[i].open(format, data, 0, data.length);
+            }
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            ChatLog.warn("sound.unavailable", e, "file", soundFile);
+            silent = true;  // No usable audio device
+            closeOpened(clips);
+            clips = new Clip[0];
+        } catch (UnsupportedAudioFileException | IOException e) {
+            ChatLog.warn("sound.load", e, "file", soundFile);
+            closeOpened(clips);
+            clips = new Clip[0];  // Don't retry the file on every message
+        }
+        sound = new Sound(clips);
+        sounds.put(soundFile, sound);
+        return sound;
+    }
+
+    private static void closeOpened(Clip[] clips) {
+        for (Clip clip : clips) {
+            if (clip != null) {
+                clip.close();
+            }
+        }
+    }
+
+    /**
+     * @return true if notifications are only counted, not played
+     */
+    public static boolean isSilent() {
+        return silent;
+    }
+
+    /**
+     * @return Number of notifications played
+     */
+    public static long getPlayedCount() {
+        return played.sum();
+    }
+
+    /**
+     * @return Number of notifications dropped because the same sound was queued or just started
+     */
+    public static long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return Number of notifications skipped in silent mode
+     */
+    public static long getSuppressedCount() {
+        return suppressed.sum();
+    }
+
+    /**
+     * A decoded sound and its pre-opened lines.
+     */
+    private static class Sound {
+        final Clip[] clips;
+        long lastStart;  // Only touched on the sound thread, 0 until first played
+
+        Sound(Clip[] clips) {
+            this.clips = clips;
         }
     }
 }
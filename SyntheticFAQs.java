@@ -0,0 +1,112 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic customer-support FAQs and queries for benchmarks and load tests.
+ * The same seed always produces the same data.
+ */
+public class SyntheticFAQs {
+    private static final String[] WORDS = {
+            "order", "refund", "delivery", "payment", "account", "password", "shipping", "return",
+            "status", "cancel", "invoice", "address", "change", "track", "card", "discount", "coupon",
+            "warranty", "exchange", "support", "email", "phone", "login", "subscription", "price",
+            "item", "missing", "damaged", "late", "how", "can", "i", "my", "the", "what", "is", "where",
+            "when", "do", "you", "offer", "update", "reset", "gift", "store", "hours", "policy", "fee"
+    };
+
+    private final Random random;
+
+    public SyntheticFAQs(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param count Number of FAQs
+     * @return FAQs with ids 1..count and unique questions
+     */
+    public List<FAQEntry> faqs(int count) {
+        List<FAQEntry> entries = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            entries.add(new FAQEntry(i, sentence(5 + random.nextInt(6)) + " " + i, "Answer " + i, 0));
+        }
+        return entries;
+    }
+
+    /**
+     * Builds queries against the given FAQs: most are fragments of a question, the rest
+     * are unlikely to match anything.
+     *
+     * @param faqs     The FAQs to draw from
+     * @param count    Number of queries
+     * @param hitRatio Fraction of queries taken from a question
+     * @return The queries
+     */
+    public List<String> queries(List<FAQEntry> faqs, int count, double hitRatio) {
+        List<String> queries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (faqs.isEmpty() || random.nextDouble() >= hitRatio) {
+                queries.add(sentence(3) + " zz");
+            } else {
+                String question = faqs.get(random.nextInt(faqs.size())).getQuestion();
+                int start = random.nextInt(Math.max(1, question.length() / 2));
+                queries.add(question.substring(start, Math.min(question.length(), start + 12)));
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * @param words Number of words
+     * @return A random sentence of support vocabulary
+     */
+    public String sentence(int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Drops and recreates the faqs table in a scratch database and fills it with the given rows.
+     * Never point this at a real database.
+     *
+     * @param conn    Connection to the scratch database
+     * @param entries The rows to insert
+     * @throws SQLException if the database rejects the statements
+     */
+    public static void populate(Connection conn, List<FAQEntry> entries) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS faqs");
+            stmt.execute("CREATE TABLE faqs (id INT PRIMARY KEY, question VARCHAR(500), answer VARCHAR(2000), "
+                    + "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+        }
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement insert = conn.prepareStatement("INSERT INTO faqs (id, question, answer) VALUES (?, ?, ?)")) {
+            int pending = 0;
+            for (FAQEntry entry : entries) {
+                insert.setInt(1, entry.getId());
+                insert.setString(2, entry.getQuestion());
+                insert.setString(3, entry.getAnswer());
+                insert.addBatch();
+                if (++pending == 1_000) {
+                    insert.executeBatch();
+                    pending = 0;
+                }
+            }
+            insert.executeBatch();
+            conn.commit();
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+}
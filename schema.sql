@@ -0,0 +1,37 @@
+-- Schema of the chatbot_customer database (MySQL).
+
+CREATE TABLE IF NOT EXISTS users (
+    user_id  INT AUTO_INCREMENT PRIMARY KEY,
+    name     VARCHAR(100) NOT NULL,
+    email    VARCHAR(255) NOT NULL UNIQUE,
+    -- pbkdf2_sha256$<iterations>$<salt>$<hash>; plaintext rows are re-hashed on their next login
+    password VARCHAR(255) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS faqs (
+    id         INT AUTO_INCREMENT PRIMARY KEY,
+    question   VARCHAR(500)  NOT NULL,
+    answer     VARCHAR(2000) NOT NULL,
+    -- Bumped on every change so FAQRefresher can load only the rows that changed
+    updated_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3),
+    INDEX idx_faqs_updated_at (updated_at)
+);
+
+CREATE TABLE IF NOT EXISTS chat_history (
+    id         BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id    INT NOT NULL,
+    message    TEXT NOT NULL,
+    response   TEXT NOT NULL,
+    created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    FOREIGN KEY (user_id) REFERENCES users (user_id),
+    -- Serves the keyset-paged history reads: WHERE user_id = ? ORDER BY created_at, id
+    INDEX idx_chat_history_user_time (user_id, created_at, id)
+);
+
+-- Existing databases: add the change-tracking column to faqs
+-- ALTER TABLE faqs ADD COLUMN updated_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3),
+--                  ADD INDEX idx_faqs_updated_at (updated_at);
+
+-- Existing databases: add the timestamp and index used by the history API
+-- ALTER TABLE chat_history ADD COLUMN created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+--                          ADD INDEX idx_chat_history_user_time (user_id, created_at, id);
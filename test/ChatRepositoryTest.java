@@ -0,0 +1,215 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Round-trips FAQs, users and chat history through {@link H2ChatRepository} on an in-memory
+ * database, including keyset paging of the history, and reads FAQs back from a file written for
+ * {@link MappedFAQRepository}.
+ *
+ * Usage: {@code java -cp out:h2.jar ChatRepositoryTest}; exits with 1 if a check fails.
+ */
+public class ChatRepositoryTest {
+    private static int databases;
+
+    public static void main(String[] args) {
+        Map<String, ConnectionPoolTest.Check> checks = new LinkedHashMap<>();
+        checks.put("faqs", ChatRepositoryTest::faqs);
+        checks.put("users", ChatRepositoryTest::users);
+        checks.put("historyPaging", ChatRepositoryTest::historyPaging);
+        checks.put("historyBeforeId", ChatRepositoryTest::historyBeforeId);
+        checks.put("mappedFAQFile", ChatRepositoryTest::mappedFAQFile);
+        System.exit(ConnectionPoolTest.run(checks) ? 0 : 1);
+    }
+
+    private static void check(boolean condition, String message) {
+        ConnectionPoolTest.check(condition, message);
+    }
+
+    /**
+     * A fresh in-memory database per check; H2's MySQL mode matches the production schema.
+     */
+    private static H2ChatRepository repository() {
+        String url = "jdbc:h2:mem:repotest" + (++databases) + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        return new H2ChatRepository(new ConnectionPool(url, "sa", "", 4));
+    }
+
+    private static void faqs() throws Exception {
+        try (H2ChatRepository repo = repository()) {
+            check(repo.loadFAQs().isEmpty(), "starts empty");
+
+            int[] ids = repo.saveFAQs(Arrays.asList(
+                    new FAQEntry("How do I reset my password?", "Use the link on the login page."),
+                    new FAQEntry("What are your opening hours?", "9 to 5, Monday to Friday.")),
+                    List.of());
+            check(ids.length == 2 && ids[0] > 0 && ids[1] > ids[0], "generated ids returned in order: " + Arrays.toString(ids));
+
+            List<FAQEntry> loaded = repo.loadFAQs();
+            check(loaded.size() == 2, "both stored: " + loaded);
+            check(loaded.get(0).getId() == ids[0] && loaded.get(0).getQuestion().startsWith("How do I reset"),
+                    "ordered by id with the returned ids: " + loaded);
+            check(loaded.get(0).getUpdatedAt() > 0, "updated_at read back");
+
+            long[] version = repo.loadFAQVersion();
+            check(version[0] == 2, "version counts rows: " + Arrays.toString(version));
+            check(version[1] == Math.max(loaded.get(0).getUpdatedAt(), loaded.get(1).getUpdatedAt()),
+                    "version carries the newest update: " + Arrays.toString(version));
+
+            Thread.sleep(20);  // updated_at has millisecond precision
+            int[] none = repo.saveFAQs(List.of(),
+                    List.of(new FAQEntry(ids[1], "What are your opening hours?", "9 to 6, Monday to Saturday.", 0)));
+            check(none.length == 0, "no ids for updates only");
+            List<FAQEntry> changed = repo.loadFAQsChangedSince(version[1] + 1);
+            check(changed.size() == 1 && changed.get(0).getId() == ids[1], "only the update is newer: " + changed);
+            check(changed.get(0).getAnswer().equals("9 to 6, Monday to Saturday."), "update stored: " + changed);
+            check(repo.loadFAQsChangedSince(0).size() == 2, "everything changed since the epoch");
+            check(repo.loadFAQVersion()[1] > version[1], "version moves on after an update");
+
+            check("Use the link on the login page.".equals(repo.findFAQAnswer("RESET MY")),
+                    "question search ignores case");
+            check(repo.findFAQAnswer("refund") == null, "no match is null");
+        }
+    }
+
+    private static void users() throws Exception {
+        try (H2ChatRepository repo = repository()) {
+            User alice = repo.insertUser("Alice", "alice@example.com", "hash-1");
+            check(alice != null && alice.getUserId() > 0, "user created: " + alice);
+            check(repo.insertUser("Alice again", "alice@example.com", "hash-2") == null, "duplicate email rejected");
+            check(repo.findUserByEmail("nobody@example.com") == null, "unknown email is null");
+
+            ChatRepository.StoredUser stored = repo.findUserByEmail("alice@example.com");
+            check(stored != null && stored.getUser().getUserId() == alice.getUserId(), "found by email");
+            check(stored.getUser().getName().equals("Alice") && stored.getPasswordHash().equals("hash-1"),
+                    "name and hash stored");
+
+            repo.updatePasswordHash(alice.getUserId(), "hash-3");
+            check(repo.findUserByEmail("alice@example.com").getPasswordHash().equals("hash-3"), "hash updated");
+        }
+    }
+
+    private static void historyPaging() throws Exception {
+        try (H2ChatRepository repo = repository()) {
+            int user = repo.insertUser("Alice", "alice@example.com", "hash").getUserId();
+            int other = repo.insertUser("Bob", "bob@example.com", "hash").getUserId();
+            long t = 1_700_000_000_000L;
+            // Two turns share a timestamp, so the id has to break the tie; Bob's turn must never show up
+            repo.insertChatHistory(Arrays.asList(
+                    new ChatHistoryWriter.Entry(user, "m1", "r1", t),
+                    new ChatHistoryWriter.Entry(user, "m2", "r2", t + 1_000),
+                    new ChatHistoryWriter.Entry(other, "b1", "b1", t + 1_500),
+                    new ChatHistoryWriter.Entry(user, "m3", "r3", t + 2_000),
+                    new ChatHistoryWriter.Entry(user, "m4", "r4", t + 2_000),
+                    new ChatHistoryWriter.Entry(user, "m5", "r5", t + 3_000)));
+
+            List<ChatHistoryEntry> ascending = readPages(repo, user, 0, Long.MAX_VALUE, true, 2);
+            check(messages(ascending).equals(List.of("m1", "m2", "m3", "m4", "m5")), "ascending pages: " + ascending);
+            check(ascending.get(0).getCreatedAt() == t, "created_at is the turn's own time: " + ascending.get(0));
+
+            List<ChatHistoryEntry> descending = readPages(repo, user, 0, Long.MAX_VALUE, false, 2);
+            check(messages(descending).equals(List.of("m5", "m4", "m3", "m2", "m1")), "descending pages: " + descending);
+
+            // since is inclusive, until exclusive
+            List<ChatHistoryEntry> window = readPages(repo, user, t + 1_000, t + 3_000, true, 1);
+            check(messages(window).equals(List.of("m2", "m3", "m4")), "time window: " + window);
+        }
+    }
+
+    private static void historyBeforeId() throws Exception {
+        try (H2ChatRepository repo = repository()) {
+            int user = repo.insertUser("Alice", "alice@example.com", "hash").getUserId();
+            List<ChatHistoryWriter.Entry> batch = new ArrayList<>();
+            for (int i = 1; i <= 5; i++) {
+                batch.add(new ChatHistoryWriter.Entry(user, "m" + i, "r" + i, 1_700_000_000_000L + i));
+            }
+            repo.insertChatHistory(batch);
+
+            List<ChatHistoryEntry> newest = repo.loadChatHistoryBefore(user, Long.MAX_VALUE, 2);
+            check(messages(newest).equals(List.of("m5", "m4")), "newest first: " + newest);
+            List<ChatHistoryEntry> older = repo.loadChatHistoryBefore(user, newest.get(1).getId(), 10);
+            check(messages(older).equals(List.of("m3", "m2", "m1")), "older page: " + older);
+        }
+    }
+
+    private static void mappedFAQFile() throws Exception {
+        Path dir = Files.createTempDirectory("faqtest");
+        Path file = dir.resolve("faqs.bin");
+        try (MappedFAQRepository repo = new MappedFAQRepository(file, repository())) {
+            // Written out of order; the file keeps them by id
+            MappedFAQRepository.write(file, Arrays.asList(
+                    new FAQEntry(7, "Do you ship abroad?", "Yes, to most countries.", 3_000),
+                    new FAQEntry(2, "How do I reset my password?", "Use the link on the login page.", 1_000),
+                    new FAQEntry(5, "Où est mon colis ?", "Suivez-le depuis votre compte.", 2_000)));
+
+            List<FAQEntry> loaded = repo.loadFAQs();
+            check(loaded.size() == 3, "all entries read: " + loaded);
+            check(loaded.get(0).getId() == 2 && loaded.get(1).getId() == 5 && loaded.get(2).getId() == 7,
+                    "ordered by id: " + loaded);
+            FAQEntry french = loaded.get(1);
+            check(french.getQuestion().equals("Où est mon colis ?") && french.getAnswer().equals("Suivez-le depuis votre compte.")
+                    && french.getUpdatedAt() == 2_000, "fields survive the round trip, UTF-8 included: " + french);
+
+            check(Arrays.equals(repo.loadFAQVersion(), new long[]{3, 3_000}), "version is {count, newest}");
+            List<FAQEntry> changed = repo.loadFAQsChangedSince(2_000);
+            check(changed.size() == 2 && changed.get(0).getId() == 5 && changed.get(1).getId() == 7,
+                    "changed since is inclusive: " + changed);
+            check("Yes, to most countries.".equals(repo.findFAQAnswer("SHIP")), "question search ignores case");
+            check(repo.findFAQAnswer("refund") == null, "no match is null");
+
+            try {
+                repo.saveFAQs(List.of(new FAQEntry("New?", "No.")), List.of());
+                throw new AssertionError("the FAQ file is read-only");
+            } catch (SQLFeatureNotSupportedException expected) {
+                // Rebuild the file instead
+            }
+
+            // Users still go to the delegate database
+            check(repo.insertUser("Alice", "alice@example.com", "hash") != null, "users delegated");
+
+            // A rewritten file is picked up on the next read
+            Thread.sleep(20);
+            MappedFAQRepository.write(file, List.of(new FAQEntry(9, "Is there an app?", "Not yet.", 4_000)));
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 1_000));
+            check(Arrays.equals(repo.loadFAQVersion(), new long[]{1, 4_000}), "re-mapped after a rewrite");
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /**
+     * Reads a user's whole history page by page, continuing after the last turn of each page.
+     */
+    private static List<ChatHistoryEntry> readPages(ChatRepository repo, int userId, long since, long until,
+                                                    boolean ascending, int pageSize) throws Exception {
+        List<ChatHistoryEntry> all = new ArrayList<>();
+        long[] after = null;
+        int pages = 0;
+        while (true) {
+            List<ChatHistoryEntry> page = new ArrayList<>();
+            int rows = repo.readChatHistory(userId, since, until, after, ascending, pageSize, page::add);
+            check(rows == page.size() && rows <= pageSize, "page size respected: " + rows);
+            all.addAll(page);
+            if (rows < pageSize) {
+                return all;
+            }
+            ChatHistoryEntry last = page.get(page.size() - 1);
+            after = new long[]{last.getCreatedAt(), last.getId()};
+            check(++pages < 100, "paging terminates");
+        }
+    }
+
+    private static List<String> messages(List<ChatHistoryEntry> entries) {
+        List<String> messages = new ArrayList<>(entries.size());
+        for (ChatHistoryEntry entry : entries) {
+            messages.add(entry.getMessage());
+        }
+        return messages;
+    }
+}
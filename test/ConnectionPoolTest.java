@@ -0,0 +1,212 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checks {@link ConnectionPool} against an in-memory H2 database: borrowing and returning,
+ * validation on borrow, idle eviction, statement cache reuse, and the rollback and autocommit
+ * reset when a connection is returned.
+ *
+ * Usage: {@code java -cp out:h2.jar ConnectionPoolTest}; exits with 1 if a check fails.
+ */
+public class ConnectionPoolTest {
+    private static int databases;
+
+    interface Check {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) {
+        Map<String, Check> checks = new LinkedHashMap<>();
+        checks.put("borrowAndReturn", ConnectionPoolTest::borrowAndReturn);
+        checks.put("validationOnBorrow", ConnectionPoolTest::validationOnBorrow);
+        checks.put("idleEviction", ConnectionPoolTest::idleEviction);
+        checks.put("statementCacheReuse", ConnectionPoolTest::statementCacheReuse);
+        checks.put("statementCacheBound", ConnectionPoolTest::statementCacheBound);
+        checks.put("rollbackOnRelease", ConnectionPoolTest::rollbackOnRelease);
+        System.exit(run(checks) ? 0 : 1);
+    }
+
+    static boolean run(Map<String, Check> checks) {
+        int failed = 0;
+        for (Map.Entry<String, Check> check : checks.entrySet()) {
+            try {
+                check.getValue().run();
+                System.out.println("PASS " + check.getKey());
+            } catch (Exception | AssertionError e) {
+                failed++;
+                System.out.println("FAIL " + check.getKey() + ": " + e);
+                e.printStackTrace(System.out);
+            }
+        }
+        System.out.println((checks.size() - failed) + " of " + checks.size() + " passed");
+        return failed == 0;
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * A fresh in-memory database per check, so checks don't see each other's tables.
+     */
+    private static ConnectionPool pool(int maxSize, int minIdle, long borrowTimeoutMillis, long maxIdleMillis,
+                                       long validationIntervalMillis, int statementCacheSize) {
+        String url = "jdbc:h2:mem:pooltest" + (++databases) + ";DB_CLOSE_DELAY=-1";
+        return new ConnectionPool(url, "sa", "", maxSize, minIdle, borrowTimeoutMillis, maxIdleMillis,
+                validationIntervalMillis, statementCacheSize);
+    }
+
+    private static void borrowAndReturn() throws Exception {
+        try (ConnectionPool pool = pool(2, 0, 200, 300_000, 500, 10)) {
+            Connection first = pool.getConnection();
+            Connection second = pool.getConnection();
+            check(pool.getStats().getActive() == 2, "two connections active: " + pool.getStats());
+            try {
+                pool.getConnection().close();
+                throw new AssertionError("a third borrow from a full pool should time out");
+            } catch (SQLTransientConnectionException expected) {
+                check(pool.getStats().getTimeouts() == 1, "timeout counted: " + pool.getStats());
+            }
+
+            first.close();
+            check(first.isClosed(), "a returned lease reports closed");
+            try {
+                first.createStatement();
+                throw new AssertionError("a returned lease must not be usable");
+            } catch (SQLException expected) {
+                // The physical connection belongs to the pool again
+            }
+            Connection third = pool.getConnection();
+            check(pool.getStats().getCreated() == 2, "the returned connection is reused: " + pool.getStats());
+            third.close();
+            second.close();
+            check(pool.getStats().getActive() == 0 && pool.getStats().getIdle() == 2,
+                    "both connections idle: " + pool.getStats());
+        }
+    }
+
+    private static void validationOnBorrow() throws Exception {
+        // Validate every borrow, however recently the connection was returned
+        try (ConnectionPool pool = pool(1, 0, 1_000, 300_000, 0, 10)) {
+            Connection lease = pool.getConnection();
+            Connection physical = lease.unwrap(Connection.class);
+            lease.close();
+            physical.close();  // Dies while idle, as after a server restart
+            Thread.sleep(5);
+
+            try (Connection fresh = pool.getConnection();
+                 Statement stmt = fresh.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT 1")) {
+                check(rs.next() && rs.getInt(1) == 1, "the replacement connection works");
+            }
+            ConnectionPool.Stats stats = pool.getStats();
+            check(stats.getValidationFailures() == 1, "the dead connection failed validation: " + stats);
+            check(stats.getDestroyed() == 1 && stats.getCreated() == 2, "it was replaced: " + stats);
+        }
+    }
+
+    private static void idleEviction() throws Exception {
+        // The evictor runs every second at the shortest; anything idle over 100 ms is expired then
+        try (ConnectionPool pool = pool(3, 1, 1_000, 100, 500, 10)) {
+            Connection[] leases = {pool.getConnection(), pool.getConnection(), pool.getConnection()};
+            for (Connection lease : leases) {
+                lease.close();
+            }
+            check(pool.getStats().getIdle() == 3, "all returned: " + pool.getStats());
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (pool.getStats().getIdle() > 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            ConnectionPool.Stats stats = pool.getStats();
+            check(stats.getIdle() == 1, "evicted down to minIdle: " + stats);
+            check(stats.getDestroyed() == 2, "two connections closed: " + stats);
+        }
+    }
+
+    private static void statementCacheReuse() throws Exception {
+        try (ConnectionPool pool = pool(1, 0, 1_000, 300_000, 500, 10)) {
+            String sql = "SELECT CAST(? AS INT) + 1";
+            PreparedStatement physicalFirst;
+            try (Connection conn = pool.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                physicalFirst = stmt.unwrap(PreparedStatement.class);
+                stmt.setInt(1, 1);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    check(rs.next() && rs.getInt(1) == 2, "first execution");
+                }
+            }
+            try (Connection conn = pool.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                check(stmt.unwrap(PreparedStatement.class) == physicalFirst, "the next lease gets the cached statement");
+                stmt.setInt(1, 41);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    check(rs.next() && rs.getInt(1) == 42, "cached statement runs with new parameters");
+                }
+                // The same SQL while the cached one is open gets a separate, uncached statement
+                try (PreparedStatement other = conn.prepareStatement(sql)) {
+                    check(other.unwrap(PreparedStatement.class) != physicalFirst, "an open statement isn't shared");
+                }
+            }
+            ConnectionPool.Stats stats = pool.getStats();
+            check(stats.getStatementCacheHits() == 1 && stats.getStatementCacheMisses() == 2,
+                    "one hit, two misses: " + stats);
+        }
+    }
+
+    private static void statementCacheBound() throws Exception {
+        try (ConnectionPool pool = pool(1, 0, 1_000, 300_000, 500, 2)) {
+            String[] sql = {"SELECT 1", "SELECT 2", "SELECT 3"};
+            try (Connection conn = pool.getConnection()) {
+                // All three open at once: none can be evicted while checked out
+                PreparedStatement[] open = new PreparedStatement[sql.length];
+                for (int i = 0; i < sql.length; i++) {
+                    open[i] = conn.prepareStatement(sql[i]);
+                }
+                for (PreparedStatement stmt : open) {
+                    stmt.close();
+                }
+            }
+            // Returning the lease trimmed the cache back to two, dropping the least recently used
+            try (Connection conn = pool.getConnection()) {
+                conn.prepareStatement(sql[2]).close();
+                check(pool.getStats().getStatementCacheHits() == 1, "the newest statement stayed cached: " + pool.getStats());
+                conn.prepareStatement(sql[0]).close();
+                check(pool.getStats().getStatementCacheMisses() == 4, "the oldest one was evicted: " + pool.getStats());
+                conn.prepareStatement(sql[1]).close();
+                check(pool.getStats().getStatementCacheMisses() == 5,
+                        "caching the oldest again evicted the next least recently used: " + pool.getStats());
+            }
+        }
+    }
+
+    private static void rollbackOnRelease() throws Exception {
+        try (ConnectionPool pool = pool(1, 0, 1_000, 300_000, 500, 10)) {
+            try (Connection conn = pool.getConnection();
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE items (id INT PRIMARY KEY)");
+            }
+            try (Connection conn = pool.getConnection()) {
+                conn.setAutoCommit(false);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate("INSERT INTO items VALUES (1)");
+                }
+                // Returned without commit, e.g. after an exception
+            }
+            try (Connection conn = pool.getConnection();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM items")) {
+                check(conn.getAutoCommit(), "autocommit is back on for the next borrower");
+                check(rs.next() && rs.getInt(1) == 0, "the uncommitted insert was rolled back");
+            }
+            check(pool.getStats().getCreated() == 1, "all on the same physical connection: " + pool.getStats());
+        }
+    }
+}